@@ -0,0 +1,155 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulation of resources whose latency depends on their load. Each
+ * synthetic resource answers in its base latency up to a knee of concurrent
+ * messages, beyond which the latency grows with the square of the overload,
+ * so pushing more messages at it lowers its throughput. The producer threads
+ * keep one message each in flight; the throughput and the latency from
+ * receive to completion, including the p99, are reported for a fixed
+ * over-provisioned capacity and for the adaptive limits.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class AdaptiveLimitBenchmark {
+
+    private static final int GROUPS = 10000;
+
+    @Param({"FIXED", "AIMD", "GRADIENT"})
+    public LimitAlgorithm limitAlgorithm;
+
+    @Param({"16"})
+    public int capacity;
+
+    @Param({"4"})
+    public int knee;
+
+    @Param({"500"})
+    public long fastLatencyMicros;
+
+    @Param({"2000"})
+    public long slowLatencyMicros;
+
+    private ResourceScheduler scheduler;
+    private ScheduledExecutorService completions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.completions = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "synthetic-resource");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Resource> resources = new ArrayList<>();
+        resources.add(new SyntheticResource(completions, capacity, knee, fastLatencyMicros));
+        resources.add(new SyntheticResource(completions, capacity, knee, slowLatencyMicros));
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setLimitAlgorithm(limitAlgorithm);
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+        completions.shutdownNow();
+    }
+
+    @Benchmark
+    public void receiveToCompletion() throws Exception {
+        Semaphore completed = new Semaphore(0);
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(GROUPS));
+        message.addCompletedAction(completed::release);
+        scheduler.receive(message);
+        completed.acquire();
+    }
+
+    /**
+     * A non-blocking resource whose latency is its base latency up to the
+     * knee and grows with the square of the messages in flight beyond it.
+     */
+    static class SyntheticResource implements Resource, AsyncGateway {
+
+        private final ScheduledExecutorService completions;
+        private final int capacity;
+        private final int knee;
+        private final long baseNanos;
+        private final AtomicInteger inFlight;
+        private volatile boolean removed;
+
+        SyntheticResource(ScheduledExecutorService completions, int capacity, int knee, long baseMicros) {
+            this.completions = completions;
+            this.capacity = capacity;
+            this.knee = knee;
+            this.baseNanos = TimeUnit.MICROSECONDS.toNanos(baseMicros);
+            this.inFlight = new AtomicInteger();
+        }
+
+        @Override
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return removed;
+        }
+
+        @Override
+        public void setRemoved() {
+            this.removed = true;
+        }
+
+        @Override
+        public void send(Message msg) {
+            throw new UnsupportedOperationException("only sent asynchronously");
+        }
+
+        @Override
+        public CompletionStage<Void> sendAsync(Message msg) {
+            double load = Math.max(1.0, (double) inFlight.incrementAndGet() / knee);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            completions.schedule(() -> {
+                inFlight.decrementAndGet();
+                future.complete(null);
+            }, (long) (baseNanos * load * load), TimeUnit.NANOSECONDS);
+            return future;
+        }
+    }
+}
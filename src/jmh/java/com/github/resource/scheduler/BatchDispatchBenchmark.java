@@ -0,0 +1,110 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.BatchGateway;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of single message dispatch with batched dispatch to
+ * resources that pay a fixed overhead per call, such as a network round trip.
+ * A batch size of one uses a plain resource.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchDispatchBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1", "16", "64"})
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean mixedGroupBatches;
+
+    @Param({"100"})
+    public long callOverheadMicros;
+
+    @Param({"4"})
+    public int resourceCount;
+
+    @Param({"64"})
+    public int groupCount;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SchedulerConfig config = new SchedulerConfig();
+        config.setMixedGroupBatches(mixedGroupBatches);
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(batchSize == 1
+                    ? new BenchmarkResource(callOverheadMicros)
+                    : new BatchOverheadResource(callOverheadMicros, batchSize));
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+
+    /**
+     * A resource that pays the call overhead once per batch.
+     */
+    static final class BatchOverheadResource extends BenchmarkResource implements BatchGateway {
+
+        private final int maxBatchSize;
+
+        BatchOverheadResource(long callOverheadMicros, int maxBatchSize) {
+            super(callOverheadMicros);
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        @Override
+        public void send(List<Message> msgs) {
+            sendFrame(msgs);
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A resource for the benchmarks with a configurable delay per send and no
+ * logging. A delay of zero completes the message straight away on the sending
+ * thread.
+ *
+ * @author Brighton
+ */
+class BenchmarkResource implements Resource {
+
+    private final long delayNanos;
+    private final Set<String> capabilities;
+    private volatile boolean removed;
+
+    BenchmarkResource(long delayMicros) {
+        this(delayMicros, Collections.<String>emptySet());
+    }
+
+    BenchmarkResource(long delayMicros, Set<String> capabilities) {
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public void setRemoved() {
+        this.removed = true;
+    }
+
+    @Override
+    public void send(Message msg) {
+        pause();
+        msg.completed();
+    }
+
+    /**
+     * Sends several messages paying the delay once.
+     *
+     * @param msgs to be sent
+     */
+    void sendFrame(List<Message> msgs) {
+        pause();
+        for (int i = 0; i < msgs.size(); i++) {
+            msgs.get(i).completed();
+        }
+    }
+
+    private void pause() {
+        if (delayNanos > 0) {
+            LockSupport.parkNanos(delayNanos);
+        }
+    }
+}
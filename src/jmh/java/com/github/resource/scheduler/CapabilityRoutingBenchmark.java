@@ -0,0 +1,112 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput when the messages require capabilities. Each
+ * resource is tagged with one of the capability classes, every tenth with all
+ * of them, and the demand of the classes is skewed: class k is drawn with a
+ * probability in proportion to 1 / (k + 1), so the first classes have a
+ * backlog while the last are mostly idle. A single class, which every
+ * resource satisfies, is the baseline.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapabilityRoutingBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1", "50"})
+    public int classCount;
+
+    @Param({"100"})
+    public int resourceCount;
+
+    @Param({"1000"})
+    public int groupCount;
+
+    @Param({"0", "20"})
+    public long resourceDelayMicros;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+    private List<Set<String>> requirements;
+    private double[] cumulative;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.requirements = new ArrayList<>();
+        Set<String> all = new HashSet<>();
+        for (int i = 0; i < classCount; i++) {
+            requirements.add(Collections.singleton("c" + i));
+            all.add("c" + i);
+        }
+        this.cumulative = new double[classCount];
+        double sum = 0;
+        for (int i = 0; i < classCount; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < classCount; i++) {
+            cumulative[i] /= sum;
+        }
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            Set<String> capabilities = i % 10 == 9 ? all : requirements.get(i % classCount);
+            resources.add(new BenchmarkResource(resourceDelayMicros, capabilities));
+        }
+        SchedulerConfig config = new SchedulerConfig();
+        config.setMaxCapabilityClasses(Math.max(64, classCount + 1));
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws Exception {
+        outstanding.acquire();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = Arrays.binarySearch(cumulative, random.nextDouble());
+        int drawn = Math.min(classCount - 1, k < 0 ? -k - 1 : k);
+        // the group determines the class, a group keeps the requirements of
+        // its first message
+        int group = random.nextInt(groupCount / classCount + 1) * classCount + drawn;
+        DefaultMessage message = new DefaultMessage(0, group);
+        message.setRequirements(requirements.get(drawn));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput of a cluster of nodes on a {@link LoopbackTransport}.
+ * The resources are split evenly between the nodes and each message is
+ * received by a random node, so with n nodes (n - 1) / n of the messages are
+ * forwarded to the owner of their group. With lending, the first node holds
+ * half of the resources and the nodes rebalance every 10 ms. A single node
+ * is the baseline.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1", "3"})
+    public int nodeCount;
+
+    @Param({"48"})
+    public int resourceCount;
+
+    @Param({"1000"})
+    public int groupCount;
+
+    @Param({"0", "20"})
+    public long resourceDelayMicros;
+
+    @Param({"false", "true"})
+    public boolean lending;
+
+    private List<ClusterNode> nodes;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        this.nodes = new ArrayList<>();
+        for (int n = 0; n < nodeCount; n++) {
+            int share = lending && nodeCount > 1
+                    ? (n == 0 ? resourceCount / 2 : resourceCount / 2 / (nodeCount - 1))
+                    : resourceCount / nodeCount;
+            List<Resource> resources = new ArrayList<>();
+            for (int i = 0; i < share; i++) {
+                resources.add(new BenchmarkResource(resourceDelayMicros));
+            }
+            ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources);
+            ClusterNode node = new ClusterNode("node" + n, scheduler, transport, lending ? 10 : 0);
+            node.join();
+            nodes.add(node);
+        }
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ClusterNode node : nodes) {
+            node.close();
+            node.getScheduler().shutdown();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws Exception {
+        outstanding.acquire();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        DefaultMessage message = new DefaultMessage(0, random.nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        nodes.get(random.nextInt(nodeCount)).receive(message);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the dispatch and completion path of one message. The
+ * send and the completion run on the benchmark thread, so run it with the GC
+ * profiler to see the bytes allocated per dispatched message:
+ * <pre>
+ * -prof gc CompletionAllocationBenchmark
+ * </pre> The gc.alloc.rate.norm figure of dispatch includes the message
+ * allocated by the benchmark itself, dispatchPooled takes the messages from a
+ * {@link MessagePool}.
+ *
+ * @author Brighton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionAllocationBenchmark {
+
+    private ResourceScheduler scheduler;
+    private MessagePool pool;
+    private int messageId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        Resource resource = new BenchmarkResource(0);
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Collections.singletonList(resource), config);
+        this.pool = new MessagePool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void dispatch() throws Exception {
+        scheduler.receive(new DefaultMessage(messageId++, 1));
+    }
+
+    @Benchmark
+    public void dispatchPooled() throws Exception {
+        scheduler.receive(pool.acquire(messageId++, 1));
+    }
+}
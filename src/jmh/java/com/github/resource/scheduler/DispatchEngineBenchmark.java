@@ -0,0 +1,118 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the dispatch modes with resources that take a fixed time per send.
+ * The thread based modes use resources that block for that time, the
+ * non-blocking mode uses resources that complete a stage after that time.
+ * VIRTUAL_THREAD fails on JVMs older than 21.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchEngineBenchmark {
+
+    private static final int MAX_OUTSTANDING = 8192;
+    private static final int GROUP_COUNT = 16384;
+
+    @Param({"VIRTUAL_THREAD", "PLATFORM_POOL", "NON_BLOCKING"})
+    public DispatchMode mode;
+
+    @Param({"1", "64", "4096"})
+    public int resourceCount;
+
+    @Param({"1000"})
+    public long sendMicros;
+
+    private ResourceScheduler scheduler;
+    private ScheduledExecutorService completions;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (!mode.isSupported()) {
+            throw new IllegalStateException(mode + " is not supported by this JVM");
+        }
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(mode);
+        this.completions = Executors.newSingleThreadScheduledExecutor();
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(mode == DispatchMode.NON_BLOCKING
+                    ? new AsyncDelayResource(completions, sendMicros)
+                    : new BenchmarkResource(sendMicros));
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+        completions.shutdownNow();
+    }
+
+    @Benchmark
+    public void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(GROUP_COUNT));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+
+    /**
+     * A resource that completes the send on a timer thread after the send
+     * time.
+     */
+    static final class AsyncDelayResource extends BenchmarkResource implements AsyncGateway {
+
+        private final ScheduledExecutorService completions;
+        private final long sendMicros;
+
+        AsyncDelayResource(ScheduledExecutorService completions, long sendMicros) {
+            super(sendMicros);
+            this.completions = completions;
+            this.sendMicros = sendMicros;
+        }
+
+        @Override
+        public CompletionStage<Void> sendAsync(Message msg) {
+            CompletableFuture<Void> sent = new CompletableFuture<>();
+            completions.schedule(() -> {
+                sent.complete(null);
+            }, sendMicros, TimeUnit.MICROSECONDS);
+            return sent;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput and latency from receive to completion. The
+ * throughput benchmark keeps a bounded number of messages outstanding, the
+ * latency benchmark samples the time from receive until the message has
+ * completed. Run it with several threads, -t, to sample the latency under
+ * load.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1000"})
+    public int groupCount;
+
+    @Param({"1", "16"})
+    public int resourceCount;
+
+    @Param({"0", "100"})
+    public long resourceDelayMicros;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(new BenchmarkResource(resourceDelayMicros));
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void latency() throws Exception {
+        Semaphore completed = new Semaphore(0);
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(completed::release);
+        scheduler.receive(message);
+        completed.acquire();
+    }
+}
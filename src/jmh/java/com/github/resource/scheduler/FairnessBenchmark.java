@@ -0,0 +1,95 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of small groups under a skewed workload. Each operation tops up
+ * the backlog of one large group with a burst of messages and samples the
+ * time from receive to completion of a message of a random small group. With
+ * a plain queue the small message waits for the large group to drain, the
+ * fair share queue or a cap on consecutive messages let it through.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FairnessBenchmark {
+
+    private static final int LARGE_GROUP = 0;
+    private static final int SMALL_GROUPS = 1000;
+    private static final int BURST = 64;
+
+    @Param({"fifo", "fair"})
+    public String queueType;
+
+    @Param({"0", "8"})
+    public int maxConsecutiveMessages;
+
+    @Param({"4"})
+    public int resourceCount;
+
+    @Param({"20"})
+    public long resourceDelayMicros;
+
+    @Param({"2048"})
+    public int largeGroupBacklog;
+
+    private ResourceScheduler scheduler;
+    private Semaphore backlog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(new BenchmarkResource(resourceDelayMicros));
+        }
+        Queue<Group> queue = "fair".equals(queueType) ? new FairShareGroupQueue() : new ConcurrentLinkedDeque<>();
+        SchedulerConfig config = new SchedulerConfig();
+        config.setMaxConsecutiveMessages(maxConsecutiveMessages);
+        this.scheduler = new ResourceScheduler(queue, resources, config);
+        this.backlog = new Semaphore(largeGroupBacklog);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void smallGroupLatency() throws Exception {
+        for (int i = 0; i < BURST && backlog.tryAcquire(); i++) {
+            DefaultMessage message = new DefaultMessage(0, LARGE_GROUP);
+            message.addCompletedAction(backlog::release);
+            scheduler.receive(message);
+        }
+        Semaphore completed = new Semaphore(0);
+        DefaultMessage message = new DefaultMessage(0, 1 + ThreadLocalRandom.current().nextInt(SMALL_GROUPS));
+        message.addCompletedAction(completed::release);
+        scheduler.receive(message);
+        completed.acquire();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the group lookup and the receive throughput against the number of
+ * live groups.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupLookupBenchmark {
+
+    /**
+     * Upper bound of the messages in flight, keeps the backlog from growing
+     * while the benchmark thread outpaces the resources.
+     */
+    private static final int MAX_OUTSTANDING = 1024;
+
+    @Param({"100", "10000", "100000"})
+    public int groupCount;
+
+    private GroupRegistry groups;
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.groups = new GroupRegistry();
+        for (int i = 0; i < groupCount; i++) {
+            Group.getInstance(i, groups);
+        }
+
+        List<Resource> resources = new LinkedList<>();
+        for (int i = 0; i < 4; i++) {
+            resources.add(new BenchmarkResource(0));
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+        for (int i = 0; i < groupCount; i++) {
+            receive(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public Group getInstance() {
+        long groupId = ThreadLocalRandom.current().nextInt(groupCount);
+        return Group.getInstance(groupId, groups);
+    }
+
+    @Benchmark
+    public void receive() throws Exception {
+        receive(ThreadLocalRandom.current().nextInt(groupCount));
+    }
+
+    private void receive(int groupId) throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, groupId);
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
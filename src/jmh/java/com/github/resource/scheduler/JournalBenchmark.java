@@ -0,0 +1,92 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ingest throughput with the journal off, with every receive
+ * waiting for the group commit of its message, and with the journal forced in
+ * the background at an interval. The journal is written to a temporary
+ * directory, point java.io.tmpdir at the disk to be measured.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class JournalBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"off", "sync", "interval"})
+    public String journal;
+
+    @Param({"16"})
+    public int resourceCount;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(new BenchmarkResource(0));
+        }
+        SchedulerConfig config = new SchedulerConfig();
+        if (!"off".equals(journal)) {
+            this.directory = Files.createTempDirectory("journal-benchmark");
+            config.setJournalDirectory(directory.toString());
+            config.setJournalSyncMillis("interval".equals(journal) ? 10 : 0);
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scheduler.shutdown();
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(1000));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures receive under contention from several producer threads, four by
+ * default, use the -t option of JMH to change the number of producers. The
+ * resources complete immediately, the number of outstanding messages is
+ * bounded so the queue does not grow without limit.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ReceiveBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1", "1000", "100000"})
+    public int groupCount;
+
+    @Param({"1", "16"})
+    public int resourceCount;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(new BenchmarkResource(0));
+        }
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), resources);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Removes and adds resources while producers keep sending messages. With
+ * thousands of resources the removal has to stay constant time, and the
+ * producers should not slow down while the resources churn.
+ *
+ * @author Brighton
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceChurnBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1000", "4096"})
+    public int resourceCount;
+
+    @Param({"1000"})
+    public int groupCount;
+
+    @Param({"false", "true"})
+    public boolean resourceAffinity;
+
+    private ResourceScheduler scheduler;
+    private Resource[] resources;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> initial = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            initial.add(new BenchmarkResource(0));
+        }
+        this.resources = initial.toArray(new Resource[resourceCount]);
+        SchedulerConfig config = new SchedulerConfig();
+        config.setResourceAffinity(resourceAffinity);
+        this.scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), initial, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void removeAndAdd() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(resourceCount);
+        scheduler.removeResource(resources[i]);
+        resources[i] = new BenchmarkResource(0);
+        scheduler.addResource(resources[i]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of selecting the next group for a free resource against
+ * the number of ready groups. Each operation queues one message for a random
+ * group and lets a free resource select the next message, so the number of
+ * ready groups stays constant. With the priority queue the messages carry
+ * random priorities, so the selection cost should grow logarithmically with
+ * the number of ready groups.
+ *
+ * @author Brighton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectionBenchmark {
+
+    private static final int MESSAGES_PER_GROUP = 4;
+
+    private static final int PRIORITIES = 8;
+
+    @Param({"1", "1000", "100000"})
+    public int readyGroups;
+
+    @Param({"fifo", "priority"})
+    public String queueType;
+
+    private ResourceScheduler scheduler;
+    private InFlightSlot slot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        this.scheduler = new ResourceScheduler(createQueue(), Collections.emptyList(), config);
+        for (int i = 0; i < readyGroups * MESSAGES_PER_GROUP; i++) {
+            scheduler.receive(message(i, i % readyGroups));
+        }
+        // a resource that never completes, the slot is driven by the benchmark
+        this.slot = new InFlightSlot(scheduler, scheduler.getMetrics(), new BenchmarkResource(0) {
+            @Override
+            public void send(Message msg) {
+            }
+        });
+    }
+
+    protected Queue<Group> createQueue() {
+        return "priority".equals(queueType) ? new PriorityGroupQueue() : new ConcurrentLinkedDeque<>();
+    }
+
+    private static DefaultMessage message(int id, int groupId) {
+        DefaultMessage message = new DefaultMessage(id, groupId);
+        message.setPriority(ThreadLocalRandom.current().nextInt(PRIORITIES));
+        return message;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public boolean selectNext() throws Exception {
+        scheduler.receive(message(0, ThreadLocalRandom.current().nextInt(readyGroups)));
+        return scheduler.processNextGroup(slot);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingest throughput of a sharded scheduler against the number of producer
+ * threads, from 1 to 64. The resources complete immediately and the number of
+ * outstanding messages is bounded, compare the scores of one shard with those
+ * of several shards for the same number of producers.
+ *
+ * @author Brighton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardScalingBenchmark {
+
+    private static final int MAX_OUTSTANDING = 4096;
+
+    @Param({"1", "16"})
+    public int shards;
+
+    @Param({"100000"})
+    public int groupCount;
+
+    @Param({"16"})
+    public int resourceCount;
+
+    private ResourceScheduler scheduler;
+    private Semaphore outstanding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            resources.add(new BenchmarkResource(0));
+        }
+        SchedulerConfig config = new SchedulerConfig();
+        config.setShards(shards);
+        this.scheduler = new ResourceScheduler(ConcurrentLinkedDeque::new, resources, config);
+        this.outstanding = new Semaphore(MAX_OUTSTANDING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void producers01() throws Exception {
+        receive();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void producers04() throws Exception {
+        receive();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void producers16() throws Exception {
+        receive();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void producers64() throws Exception {
+        receive();
+    }
+
+    private void receive() throws Exception {
+        outstanding.acquire();
+        DefaultMessage message = new DefaultMessage(0, ThreadLocalRandom.current().nextInt(groupCount));
+        message.addCompletedAction(outstanding::release);
+        scheduler.receive(message);
+    }
+}
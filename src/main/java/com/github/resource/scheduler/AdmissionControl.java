@@ -0,0 +1,287 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.AdmissionStatus;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.RejectedMessageException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounds the messages waiting in the scheduler, in total and per group. A
+ * message is only counted while it is queued, messages dispatched straight
+ * away are not. Once the total bound, the high watermark, is reached the
+ * scheduler is throttled until the queued messages have dropped to the low
+ * watermark; blocked producers and demand listeners are then resumed.
+ * Without bounds a message is added to its group as before.
+ *
+ * @author Brighton
+ */
+class AdmissionControl {
+
+    private static final Logger LOG = Logger.getLogger(AdmissionControl.class.getName());
+
+    private final long maxQueued;
+    private final int maxPerGroup;
+    private final long lowWatermark;
+    private final AdmissionMode mode;
+    private final long timeoutNanos;
+    private final AtomicLong queued;
+    private final AtomicLong peak;
+    private final LongAdder throttledCount;
+    private final List<Runnable> demandListeners;
+    private volatile boolean throttled;
+    private volatile int waiting;
+
+    AdmissionControl(SchedulerConfig config) {
+        this.maxQueued = Math.max(0, config.getMaxQueuedMessages());
+        this.maxPerGroup = Math.max(0, config.getMaxQueuedMessagesPerGroup());
+        long low = config.getQueueLowWatermark();
+        this.lowWatermark = low < 0 ? maxQueued * 3 / 4 : Math.min(low, Math.max(0, maxQueued - 1));
+        this.mode = config.getAdmissionMode() == null ? AdmissionMode.FAIL_FAST : config.getAdmissionMode();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getAdmissionTimeoutMillis()));
+        this.queued = new AtomicLong();
+        this.peak = new AtomicLong();
+        this.throttledCount = new LongAdder();
+        this.demandListeners = new CopyOnWriteArrayList<>();
+    }
+
+    static RejectedMessageException rejection(AdmissionStatus status, Message message) {
+        String reason;
+        switch (status) {
+            case QUEUE_FULL:
+                reason = "Queue is full";
+                break;
+            case GROUP_FULL:
+                reason = "Queue of group " + message.getGroupId() + " is full";
+                break;
+            case UNSUPPORTED_REQUIREMENTS:
+                reason = "Requirements " + message.getRequirements() + " are not supported";
+                break;
+            case UNSERIALIZABLE:
+                reason = "Message can not be journaled";
+                break;
+            default:
+                reason = "Group " + message.getGroupId() + " is closed";
+        }
+        return new RejectedMessageException(reason + ". Message is rejected " + message, status);
+    }
+
+    boolean isBlocking() {
+        return mode == AdmissionMode.BLOCK;
+    }
+
+    /**
+     * Adds the message to its group if the bounds allow it.
+     *
+     * @param group of the message
+     * @param message to be queued
+     * @param block true to wait for room, up to the admission timeout
+     * @return {@link AdmissionStatus#ACCEPTED} if the message was added
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    AdmissionStatus admit(Group group, Message message, boolean block) throws InterruptedException {
+        long deadline = 0;
+        for (;;) {
+            AdmissionStatus status = tryAdmit(group, message);
+            if (status == AdmissionStatus.ACCEPTED || !block) {
+                return status;
+            }
+            long remaining = 0;
+            if (timeoutNanos > 0) {
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + timeoutNanos;
+                }
+                remaining = deadline - now;
+                if (remaining <= 0) {
+                    return status;
+                }
+            }
+            await(group, status, remaining);
+        }
+    }
+
+    /**
+     * Adds a run of messages of one group, in order, until a bound is
+     * reached. The messages that did not fit are rejected.
+     *
+     * @param group of the messages
+     * @param run of messages
+     * @param rejected collects the messages that did not fit
+     * @return the number of messages added
+     */
+    int admitAll(Group group, List<? extends Message> run, Map<Message, Exception> rejected) {
+        if (maxQueued == 0 && maxPerGroup == 0) {
+            group.addMessages(run);
+            return run.size();
+        }
+        for (int i = 0; i < run.size(); i++) {
+            AdmissionStatus status = tryAdmit(group, run.get(i));
+            if (status != AdmissionStatus.ACCEPTED) {
+                // later messages of the group would overtake the rejected one
+                for (int j = i; j < run.size(); j++) {
+                    rejected.put(run.get(j), rejection(status, run.get(j)));
+                }
+                return i;
+            }
+        }
+        return run.size();
+    }
+
+    private AdmissionStatus tryAdmit(Group group, Message message) {
+        if (maxQueued > 0) {
+            for (;;) {
+                long current = queued.get();
+                if (current >= maxQueued) {
+                    throttle();
+                    return AdmissionStatus.QUEUE_FULL;
+                }
+                if (queued.compareAndSet(current, current + 1)) {
+                    if (current + 1 > peak.get()) {
+                        peak.accumulateAndGet(current + 1, Math::max);
+                    }
+                    break;
+                }
+            }
+        }
+        if (!group.tryAddMessage(message, maxPerGroup)) {
+            if (maxQueued > 0) {
+                released(1);
+            }
+            return AdmissionStatus.GROUP_FULL;
+        }
+        return AdmissionStatus.ACCEPTED;
+    }
+
+    private void throttle() {
+        if (!throttled) {
+            throttled = true;
+            throttledCount.increment();
+            // the queue may have dropped below the low watermark before the
+            // flag was seen by the consumers
+            if (queued.get() <= lowWatermark) {
+                resume();
+            }
+        }
+    }
+
+    private void await(Group group, AdmissionStatus status, long remaining) throws InterruptedException {
+        synchronized (this) {
+            waiting++;
+            try {
+                boolean full = status == AdmissionStatus.QUEUE_FULL ? throttled : group.size() >= maxPerGroup;
+                if (full) {
+                    if (remaining > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } else {
+                        wait();
+                    }
+                }
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    /**
+     * Signalled when queued messages have been dispatched or discarded.
+     *
+     * @param count the number of messages that left the queue
+     */
+    void released(int count) {
+        if (maxQueued > 0 && queued.addAndGet(-count) <= lowWatermark && throttled) {
+            resume();
+        } else if (waiting > 0 && !throttled) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Signalled when messages that were dispatched are put back in the queue
+     * to be retried. They are counted even above the bound, they had been
+     * admitted already.
+     *
+     * @param count the number of messages queued again
+     */
+    void requeued(int count) {
+        if (maxQueued > 0) {
+            queued.addAndGet(count);
+        }
+    }
+
+    private void resume() {
+        synchronized (this) {
+            if (!throttled) {
+                return;
+            }
+            throttled = false;
+            notifyAll();
+        }
+        signalDemand();
+    }
+
+    /**
+     * Runs the demand listeners, signalled when room has been made.
+     */
+    void signalDemand() {
+        if (demandListeners.isEmpty()) {
+            return;
+        }
+        for (Runnable listener : demandListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "demand listener failed", ex);
+            }
+        }
+    }
+
+    void addDemandListener(Runnable listener) {
+        demandListeners.add(listener);
+    }
+
+    void removeDemandListener(Runnable listener) {
+        demandListeners.remove(listener);
+    }
+
+    /**
+     * The number of messages that could be queued before the high watermark
+     * is reached, none while throttled.
+     *
+     * @return the demand, {@link Long#MAX_VALUE} without a total bound
+     */
+    long getDemand() {
+        if (maxQueued == 0) {
+            return Long.MAX_VALUE;
+        }
+        return throttled ? 0 : Math.max(0, maxQueued - queued.get());
+    }
+
+    long getHighWatermark() {
+        return maxQueued;
+    }
+
+    long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    long getPeakQueued() {
+        return peak.get();
+    }
+
+    boolean isThrottled() {
+        return throttled;
+    }
+
+    long getThrottledCount() {
+        return throttledCount.sum();
+    }
+}
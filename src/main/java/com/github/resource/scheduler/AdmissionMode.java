@@ -0,0 +1,21 @@
+package com.github.resource.scheduler;
+
+/**
+ * What {@link ResourceScheduler#receive} does with a message that would
+ * exceed a queue bound.
+ *
+ * @author Brighton
+ */
+public enum AdmissionMode {
+
+    /**
+     * The message is rejected straight away with a
+     * {@link com.github.resource.scheduler.api.RejectedMessageException}.
+     */
+    FAIL_FAST,
+    /**
+     * The producer waits for room, up to the admission timeout, before the
+     * message is rejected.
+     */
+    BLOCK
+}
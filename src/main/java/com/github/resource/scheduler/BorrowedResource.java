@@ -0,0 +1,68 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.ClusterPeer;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Stands in, in the scheduler of a node, for the permits another node of the
+ * cluster has lent it. Its capacity is the number of permits lent with the
+ * same capabilities, its sends go to the lender.
+ *
+ * @author Brighton
+ */
+class BorrowedResource implements Resource, AsyncGateway {
+
+    private final String borrowerId;
+    private final String lenderId;
+    private final ClusterPeer lender;
+    private final Set<String> capabilities;
+    private final int capacity;
+    private volatile boolean removed;
+
+    BorrowedResource(String borrowerId, String lenderId, ClusterPeer lender, Set<String> capabilities, int capacity) {
+        this.borrowerId = borrowerId;
+        this.lenderId = lenderId;
+        this.lender = lender;
+        this.capabilities = capabilities;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(Message msg) {
+        return lender.send(borrowerId, capabilities, msg);
+    }
+
+    @Override
+    public void send(Message msg) {
+        throw new UnsupportedOperationException("sent with sendAsync");
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public void setRemoved() {
+        this.removed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "borrowed from " + lenderId + " " + capabilities;
+    }
+}
@@ -0,0 +1,332 @@
+package com.github.resource.scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Matches groups to the resources that can process them. The groups are
+ * partitioned by the requirements of their messages into requirement classes,
+ * each with its own shards, and the resources by their capability tags into
+ * resource classes, each with its own pool of free permits. A resource class
+ * satisfies a requirement class when its capabilities include every
+ * requirement.
+ * <p>
+ * A bit per requirement class is set while any of its shards has queued
+ * groups. Each resource class keeps the bits of the requirement classes it
+ * satisfies, so a free permit finds compatible work by a word-wise and of the
+ * two bitmaps instead of scanning groups it can not process. A group that
+ * becomes ready takes a free permit from the compatible resource classes,
+ * those with the fewest capabilities first so the versatile resources remain
+ * free for the groups only they can process.
+ * <p>
+ * Without tags there is one class of each and the index reduces to the
+ * shards and pool of before.
+ *
+ * @author Brighton
+ */
+class CapabilityIndex {
+
+    /**
+     * The groups of one set of requirements.
+     */
+    static final class RequirementClass {
+
+        final int id;
+        final Set<String> requirements;
+        final SchedulerShard[] shards;
+        // shards of the class that have queued groups
+        final AtomicInteger readyShards;
+        // resource classes that satisfy the requirements, fewest
+        // capabilities first
+        volatile ResourceClass[] resources;
+
+        RequirementClass(int id, Set<String> requirements, int shardCount) {
+            this.id = id;
+            this.requirements = requirements;
+            this.shards = new SchedulerShard[shardCount];
+            this.readyShards = new AtomicInteger();
+            this.resources = new ResourceClass[0];
+        }
+
+        boolean isSatisfiedBy(ResourceClass resources) {
+            return resources.capabilities.containsAll(requirements);
+        }
+    }
+
+    /**
+     * The resources with the same capabilities and their free permits.
+     */
+    static final class ResourceClass {
+
+        final Set<String> capabilities;
+        final ResourcePool pool;
+        // one bit per requirement class the resources satisfy
+        final AtomicLongArray compatible;
+
+        ResourceClass(Set<String> capabilities, int words) {
+            this.capabilities = capabilities;
+            this.pool = new ResourcePool();
+            this.compatible = new AtomicLongArray(words);
+        }
+    }
+
+    private final Supplier<Queue<Group>> queues;
+    private final int shardCount;
+    private final int maxClasses;
+    private final AtomicLongArray ready;
+    private final Map<Set<String>, RequirementClass> byRequirements;
+    private final Map<Set<String>, ResourceClass> byCapabilities;
+    private volatile RequirementClass[] classes;
+    private volatile ResourceClass[] resourceClasses;
+
+    /**
+     * @param queues creates the queue of each shard of a new requirement
+     * class, a null queue means that no further class is supported
+     * @param first the shards of the class of messages without requirements
+     * @param maxClasses the most requirement classes, rounded up to a
+     * multiple of 64
+     */
+    CapabilityIndex(Supplier<Queue<Group>> queues, Queue<Group>[] first, int maxClasses) {
+        this.queues = queues;
+        this.shardCount = first.length;
+        int words = Math.max(1, (maxClasses + 63) >>> 6);
+        this.maxClasses = words << 6;
+        this.ready = new AtomicLongArray(words);
+        this.byRequirements = new ConcurrentHashMap<>();
+        this.byCapabilities = new ConcurrentHashMap<>();
+        RequirementClass none = new RequirementClass(0, Collections.emptySet(), shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            none.shards[i] = new SchedulerShard(first[i], this, none);
+        }
+        this.byRequirements.put(none.requirements, none);
+        this.classes = new RequirementClass[]{none};
+        this.resourceClasses = new ResourceClass[0];
+    }
+
+    /**
+     * The requirement class of the requirements, created on first use.
+     *
+     * @param requirements of a message
+     * @return the class of the requirements
+     * @throws IllegalArgumentException if there are more distinct
+     * requirements than classes, or no queue for a new class
+     */
+    RequirementClass classOf(Set<String> requirements) {
+        if (requirements.isEmpty()) {
+            return classes[0];
+        }
+        RequirementClass found = byRequirements.get(requirements);
+        return found != null ? found : newClass(requirements);
+    }
+
+    private synchronized RequirementClass newClass(Set<String> requirements) {
+        RequirementClass found = byRequirements.get(requirements);
+        if (found != null) {
+            return found;
+        }
+        RequirementClass[] current = classes;
+        if (current.length == maxClasses) {
+            throw new IllegalArgumentException("More than " + maxClasses + " capability classes, requirements " + requirements);
+        }
+        Set<String> key = Collections.unmodifiableSet(new HashSet<>(requirements));
+        RequirementClass added = new RequirementClass(current.length, key, shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Queue<Group> queue = queues.get();
+            if (queue == null) {
+                throw new IllegalArgumentException("No Queue<Group> for the capability class of requirements " + requirements);
+            }
+            added.shards[i] = new SchedulerShard(queue, this, added);
+        }
+        for (ResourceClass resources : resourceClasses) {
+            if (added.isSatisfiedBy(resources)) {
+                link(added, resources);
+            }
+        }
+        RequirementClass[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[added.id] = added;
+        classes = grown;
+        byRequirements.put(key, added);
+        return added;
+    }
+
+    /**
+     * The resource class of the capabilities, created on first use.
+     *
+     * @param capabilities of a resource
+     * @return the class of the capabilities
+     */
+    ResourceClass resourceClassOf(Set<String> capabilities) {
+        ResourceClass found = byCapabilities.get(capabilities);
+        return found != null ? found : newResourceClass(capabilities);
+    }
+
+    private synchronized ResourceClass newResourceClass(Set<String> capabilities) {
+        ResourceClass found = byCapabilities.get(capabilities);
+        if (found != null) {
+            return found;
+        }
+        Set<String> key = Collections.unmodifiableSet(new HashSet<>(capabilities));
+        ResourceClass added = new ResourceClass(key, ready.length());
+        for (RequirementClass requirements : classes) {
+            if (requirements.isSatisfiedBy(added)) {
+                link(requirements, added);
+            }
+        }
+        ResourceClass[] grown = Arrays.copyOf(resourceClasses, resourceClasses.length + 1);
+        grown[grown.length - 1] = added;
+        resourceClasses = grown;
+        byCapabilities.put(key, added);
+        return added;
+    }
+
+    private static void link(RequirementClass requirements, ResourceClass resources) {
+        ResourceClass[] linked = Arrays.copyOf(requirements.resources, requirements.resources.length + 1);
+        linked[linked.length - 1] = resources;
+        Arrays.sort(linked, (a, b) -> Integer.compare(a.capabilities.size(), b.capabilities.size()));
+        requirements.resources = linked;
+        int id = requirements.id;
+        resources.compatible.getAndAccumulate(id >>> 6, 1L << id, (bits, bit) -> bits | bit);
+    }
+
+    RequirementClass get(int id) {
+        return classes[id];
+    }
+
+    /**
+     * The requirement classes, the class without requirements first.
+     *
+     * @return the classes known so far
+     */
+    RequirementClass[] getClasses() {
+        return classes;
+    }
+
+    ResourceClass[] getResourceClasses() {
+        return resourceClasses;
+    }
+
+    /**
+     * Signalled by a shard whose queue has received its first group.
+     *
+     * @param owner of the shard
+     */
+    void shardReady(RequirementClass owner) {
+        if (owner.readyShards.incrementAndGet() == 1) {
+            set(owner.id);
+        }
+    }
+
+    /**
+     * Signalled by a shard whose queue has drained.
+     *
+     * @param owner of the shard
+     */
+    void shardDrained(RequirementClass owner) {
+        if (owner.readyShards.decrementAndGet() == 0) {
+            clear(owner.id);
+            // a shard may have become ready before the bit was cleared
+            if (owner.readyShards.get() > 0) {
+                set(owner.id);
+            }
+        }
+    }
+
+    private void set(int id) {
+        int word = id >>> 6;
+        long bit = 1L << id;
+        if ((ready.get(word) & bit) == 0) {
+            ready.getAndAccumulate(word, bit, (bits, mask) -> bits | mask);
+        }
+    }
+
+    private void clear(int id) {
+        ready.getAndAccumulate(id >>> 6, ~(1L << id), (bits, mask) -> bits & mask);
+    }
+
+    /**
+     * Finds the next requirement class, from the given one and wrapping
+     * around, that has queued groups and is satisfied by the resources.
+     *
+     * @param resources the class of a free resource
+     * @param from the class to start from
+     * @return the identifier of the class, or -1 if there is no compatible
+     * work
+     */
+    int nextReady(ResourceClass resources, int from) {
+        int words = ready.length();
+        int start = from >= maxClasses ? 0 : from;
+        int first = start >>> 6;
+        for (int k = 0; k <= words; k++) {
+            int word = first + k;
+            if (word >= words) {
+                word -= words;
+            }
+            long bits = ready.get(word) & resources.compatible.get(word);
+            if (bits == 0) {
+                continue;
+            }
+            if (k == 0) {
+                bits &= -1L << (start & 63);
+            } else if (k == words) {
+                bits &= ~(-1L << (start & 63));
+            }
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether any group that the resources can process is queued.
+     *
+     * @param resources the class of a free resource
+     * @return true if there is compatible work
+     */
+    boolean hasReady(ResourceClass resources) {
+        for (int i = 0; i < ready.length(); i++) {
+            if ((ready.get(i) & resources.compatible.get(i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a free permit of a resource that satisfies the requirement class.
+     *
+     * @param requirements of the group to dispatch, null for none
+     * @return the permit, now busy, or null if no compatible permit is free
+     */
+    InFlightSlot acquire(RequirementClass requirements) {
+        ResourceClass[] resources = (requirements != null ? requirements : classes[0]).resources;
+        for (int i = 0; i < resources.length; i++) {
+            InFlightSlot slot = resources[i].pool.acquire();
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The number of free permits over all resources.
+     *
+     * @return the free permits
+     */
+    int idle() {
+        int idle = 0;
+        for (ResourceClass resources : resourceClasses) {
+            idle += resources.pool.idle();
+        }
+        return idle;
+    }
+}
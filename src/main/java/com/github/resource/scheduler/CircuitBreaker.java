@@ -0,0 +1,249 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Takes a failing resource out of rotation. The breaker keeps the outcome of
+ * the last sends of the resource, once the failures among them reach the
+ * threshold it opens: the permits of the resource are parked as they complete
+ * instead of being returned to the pool, so no message is dispatched to it.
+ * After the open time one parked permit is released to probe the resource,
+ * if its send succeeds the breaker closes and the other permits are released,
+ * otherwise the breaker opens again for twice as long, up to the maximum.
+ * <p>
+ * The breaker only decides, the scheduler schedules the probe and releases
+ * the permits it returns.
+ *
+ * @author Brighton
+ */
+class CircuitBreaker {
+
+    /**
+     * The permit continues with the next message.
+     */
+    static final int CONTINUE = 0;
+    /**
+     * The permit has been parked.
+     */
+    static final int PARKED = 1;
+    /**
+     * The permit has been parked and the breaker has opened, a probe is to
+     * be scheduled after {@link #getOpenMillis()}.
+     */
+    static final int OPENED = 2;
+    /**
+     * The probe succeeded, the permit continues and the parked permits are
+     * to be released.
+     */
+    static final int CLOSED = 3;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean[] outcomes;
+    private final int threshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+    private final ArrayDeque<InFlightSlot> parked;
+    private State state;
+    private int position;
+    private int count;
+    private int failures;
+    private long delay;
+    private InFlightSlot probe;
+    private long openedCount;
+    private boolean stopped;
+
+    /**
+     * @param window the number of recent sends considered
+     * @param threshold failures among them that open the breaker
+     * @param openMillis time the breaker stays open before a probe
+     * @param maxOpenMillis longest time the breaker stays open
+     */
+    CircuitBreaker(int window, int threshold, long openMillis, long maxOpenMillis) {
+        this.outcomes = new boolean[Math.max(1, window)];
+        this.threshold = Math.max(1, Math.min(threshold, outcomes.length));
+        this.openMillis = Math.max(1, openMillis);
+        this.maxOpenMillis = Math.max(this.openMillis, maxOpenMillis);
+        this.parked = new ArrayDeque<>();
+        this.state = State.CLOSED;
+        this.delay = this.openMillis;
+    }
+
+    /**
+     * Records the outcome of a send of a permit and parks the permit while
+     * the breaker is open.
+     *
+     * @param slot the permit that has completed
+     * @param failed true if the send failed
+     * @return {@link #CONTINUE}, {@link #PARKED}, {@link #OPENED} or
+     * {@link #CLOSED}
+     */
+    synchronized int completed(InFlightSlot slot, boolean failed) {
+        if (stopped) {
+            return CONTINUE;
+        }
+        switch (state) {
+            case CLOSED:
+                record(failed);
+                if (failures < threshold) {
+                    return CONTINUE;
+                }
+                open();
+                parked.add(slot);
+                return OPENED;
+            case HALF_OPEN:
+                if (slot == probe) {
+                    probe = null;
+                    if (!failed) {
+                        close();
+                        return CLOSED;
+                    }
+                    delay = Math.min(maxOpenMillis, delay * 2);
+                    open();
+                    parked.add(slot);
+                    return OPENED;
+                }
+                parked.add(slot);
+                return PARKED;
+            default:
+                parked.add(slot);
+                return PARKED;
+        }
+    }
+
+    private void record(boolean failed) {
+        if (count == outcomes.length) {
+            if (outcomes[position]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        outcomes[position] = failed;
+        if (failed) {
+            failures++;
+        }
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        delay = openMillis;
+        position = 0;
+        count = 0;
+        failures = 0;
+    }
+
+    /**
+     * Parks a free permit of the resource while the breaker is open.
+     *
+     * @param slot a permit that has been taken from the pool
+     * @return true if the permit was parked, false if the breaker is closed
+     */
+    synchronized boolean park(InFlightSlot slot) {
+        if (stopped || state == State.CLOSED) {
+            return false;
+        }
+        parked.add(slot);
+        return true;
+    }
+
+    /**
+     * Signalled when a permit that completed has been withdrawn from the
+     * resource. A withdrawn probe is replaced.
+     *
+     * @param slot that has been withdrawn
+     * @return true if the slot was the probe and another one is to be taken
+     */
+    synchronized boolean withdrawn(InFlightSlot slot) {
+        if (slot != probe) {
+            return false;
+        }
+        probe = null;
+        state = State.OPEN;
+        return true;
+    }
+
+    /**
+     * Half opens the breaker and takes a parked permit to probe the resource
+     * with. When no permit is parked there is nothing to probe and the
+     * breaker closes.
+     *
+     * @return the permit to release, or null
+     */
+    synchronized InFlightSlot probe() {
+        if (stopped || state == State.CLOSED) {
+            return null;
+        }
+        InFlightSlot slot = parked.poll();
+        if (slot == null) {
+            close();
+            return null;
+        }
+        state = State.HALF_OPEN;
+        probe = slot;
+        return slot;
+    }
+
+    /**
+     * Takes the parked permits, once the breaker has closed.
+     *
+     * @return the permits to release
+     */
+    synchronized List<InFlightSlot> unpark() {
+        List<InFlightSlot> slots = new ArrayList<>(parked);
+        parked.clear();
+        return slots;
+    }
+
+    /**
+     * Stops the breaker of a resource that has been removed, later
+     * completions continue.
+     *
+     * @return the parked permits, to be reclaimed
+     */
+    synchronized List<InFlightSlot> stop() {
+        stopped = true;
+        return unpark();
+    }
+
+    /**
+     * The time the breaker stays open before the next probe.
+     *
+     * @return the open time in milliseconds
+     */
+    synchronized long getOpenMillis() {
+        return delay;
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * The number of times the breaker has opened.
+     *
+     * @return the count of openings
+     */
+    synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /**
+     * The number of permits taken out of rotation.
+     *
+     * @return the number of parked permits
+     */
+    synchronized int getParkedCount() {
+        return parked.size();
+    }
+}
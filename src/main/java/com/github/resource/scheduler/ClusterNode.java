@@ -0,0 +1,613 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Action;
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.ClusterPeer;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.MessageReceiver;
+import com.github.resource.scheduler.api.Resource;
+import com.github.resource.scheduler.api.SendFailedException;
+import com.github.resource.scheduler.api.Transport;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A node of a cluster of schedulers. The groups are owned by the nodes
+ * through a consistent hash ring on their identifiers, a message received for
+ * a group of another node is forwarded to that node. When a node joins or
+ * leaves, the new owner of a group that moved holds it at its first message
+ * and asks the other nodes to hand it over; the previous owner gives up its
+ * waiting messages once its messages in flight have completed, so the group
+ * keeps its order. The previous owner keeps the group held and passes on the
+ * messages that still reach it. A node with a backlog borrows the free
+ * permits of idle nodes with {@link #rebalance()}.
+ *
+ * @author Brighton
+ */
+public class ClusterNode implements MessageReceiver, ClusterPeer {
+
+    private static final Logger LOG = Logger.getLogger(ClusterNode.class.getName());
+
+    static final int VIRTUAL_NODES = 128;
+    private static final CompletableFuture<?> HANDED_OFF = CompletableFuture.completedFuture(null);
+
+    private final String nodeId;
+    private final ResourceScheduler scheduler;
+    private final Transport transport;
+    private final long rebalanceMillis;
+    private final LongAdder forwarded = new LongAdder();
+    // permits borrowed from each lender, by their capabilities
+    private final Map<String, Map<Set<String>, BorrowedResource>> borrowed = new ConcurrentHashMap<>();
+    // permits lent to each borrower
+    private final Map<String, Loan> lent = new ConcurrentHashMap<>();
+    // groups handed over to other nodes, until this node takes them over
+    // again, with the hand-off while it is running
+    private final Map<Long, CompletableFuture<?>> handedOff = new ConcurrentHashMap<>();
+    // groups that received a message after their hand-off, before this node
+    // learnt of their new owner
+    private final Set<Long> stranded = ConcurrentHashMap.newKeySet();
+    private volatile View view;
+    private ScheduledExecutorService rebalancer;
+
+    public ClusterNode(String nodeId, ResourceScheduler scheduler, Transport transport) {
+        this(nodeId, scheduler, transport, 0);
+    }
+
+    /**
+     * @param nodeId unique identifier of the node in the cluster
+     * @param scheduler of the resources of the node
+     * @param transport to the other nodes
+     * @param rebalanceMillis interval at which the node borrows and gives
+     * back permits, 0 to leave it to the callers of {@link #rebalance()}
+     */
+    public ClusterNode(String nodeId, ResourceScheduler scheduler, Transport transport, long rebalanceMillis) {
+        this.nodeId = nodeId;
+        this.scheduler = scheduler;
+        this.transport = transport;
+        this.rebalanceMillis = rebalanceMillis;
+    }
+
+    /**
+     * Joins the cluster of the transport, the node takes over its share of
+     * the groups.
+     *
+     * @throws java.lang.Exception when the node can not join
+     */
+    public void join() throws Exception {
+        transport.join(nodeId, this);
+        synchronized (this) {
+            if (rebalanceMillis > 0 && rebalancer == null) {
+                rebalancer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                    Thread thread = new Thread(runnable, "resource-scheduler-cluster");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                rebalancer.scheduleWithFixedDelay(this::rebalance, rebalanceMillis, rebalanceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Leaves the cluster. The node gives back what it borrowed and no longer
+     * takes groups, it hands over the groups it holds when their new owners
+     * ask and should be closed once its queue is empty.
+     */
+    public void leave() {
+        transport.leave(nodeId);
+    }
+
+    /**
+     * Leaves the cluster, if it has not yet, ends the loans of the node and
+     * disconnects it. The scheduler is not shut down.
+     */
+    public void close() {
+        leave();
+        synchronized (this) {
+            if (rebalancer != null) {
+                rebalancer.shutdownNow();
+            }
+            for (String lenderId : new ArrayList<>(borrowed.keySet())) {
+                returnLoan(lenderId);
+            }
+        }
+        for (String borrowerId : new ArrayList<>(lent.keySet())) {
+            giveBack(borrowerId);
+        }
+        transport.disconnect(nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ResourceScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The node that owns the group in the current membership.
+     *
+     * @param groupId of the group
+     * @return the identifier of the node, null if the node has not joined
+     */
+    public String getOwner(long groupId) {
+        View current = view;
+        return current == null ? null : current.ring.owner(groupId);
+    }
+
+    /**
+     * The members of the cluster as last told by the transport.
+     *
+     * @return the identifiers of the nodes, sorted
+     */
+    public List<String> getMembers() {
+        View current = view;
+        return current == null ? Collections.<String>emptyList() : current.ring.getMembers();
+    }
+
+    /**
+     * The number of messages this node received for groups of other nodes
+     * and forwarded.
+     *
+     * @return the number of forwarded messages
+     */
+    public long getForwardedCount() {
+        return forwarded.sum();
+    }
+
+    /**
+     * The number of permits this node has borrowed from the other nodes.
+     *
+     * @return the capacity of the borrowed resources
+     */
+    public int getBorrowedPermitCount() {
+        int count = 0;
+        for (Map<Set<String>, BorrowedResource> resources : borrowed.values()) {
+            for (BorrowedResource resource : resources.values()) {
+                count += scheduler.getResourceCapacity(resource);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Receives a message from a producer. A message of a group owned by
+     * another node is forwarded to that node.
+     *
+     * @param message received
+     * @throws java.lang.Exception if the message is not accepted by its
+     * owner or the node has not joined a cluster with members
+     */
+    @Override
+    public void receive(Message message) throws Exception {
+        View current = view;
+        String owner = current == null ? null : current.ring.owner(message.getGroupId());
+        if (owner == null) {
+            throw new Exception("Node " + nodeId + " is not in a cluster with members");
+        }
+        if (owner.equals(nodeId)) {
+            forward(message);
+        } else {
+            forwarded.increment();
+            transport.connect(owner).forward(message);
+        }
+    }
+
+    @Override
+    public void forward(Message message) throws Exception {
+        long groupId = message.getGroupId();
+        View current = view;
+        String owner = current == null ? null : current.ring.owner(groupId);
+        if (owner != null && !owner.equals(nodeId)) {
+            // sent before the sender learnt of the last membership change
+            forwarded.increment();
+            transport.connect(owner).forward(message);
+            return;
+        }
+        settle(groupId);
+        scheduler.receive(message);
+        if (handedOff.containsKey(groupId)) {
+            // queued in the group held since it was handed over
+            sweep(groupId);
+        }
+    }
+
+    /**
+     * Forwards the messages a group received after it was handed over to
+     * its owner, once the hand-off has completed. The group waits for the
+     * next membership change while this node still thinks it owns it.
+     *
+     * @param groupId of the group
+     */
+    private void sweep(long groupId) {
+        CompletableFuture<?> handOff = handedOff.get(groupId);
+        if (handOff == null) {
+            return;
+        }
+        handOff.thenRun(() -> {
+            View current = view;
+            String owner = current == null ? null : current.ring.owner(groupId);
+            if (owner == null || owner.equals(nodeId)) {
+                stranded.add(groupId);
+                return;
+            }
+            scheduler.handOffGroup(groupId).thenAccept((waiting) -> {
+                for (Message message : waiting) {
+                    try {
+                        forwarded.increment();
+                        transport.connect(owner).forward(message);
+                    } catch (Exception ex) {
+                        LOG.log(Level.WARNING, message + " not forwarded to " + owner, ex);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Takes over a group that had another owner before the last membership
+     * change, at its first message since. The group is held while the other
+     * nodes hand over what they still have of it.
+     *
+     * @param groupId of the group
+     */
+    private void settle(long groupId) {
+        View current = view;
+        if (current == null || current.previous == null || nodeId.equals(current.previous.owner(groupId))
+                || current.adopted.containsKey(groupId)) {
+            return;
+        }
+        Object claim = new Object();
+        Object claimed = current.adopted.computeIfAbsent(groupId, id -> {
+            // before any message of the group is queued here
+            handedOff.remove(id);
+            scheduler.holdGroup(id);
+            return claim;
+        });
+        if (claimed != claim) {
+            return;
+        }
+        Set<String> nodes = new LinkedHashSet<>(current.previous.getMembers());
+        nodes.addAll(current.ring.getMembers());
+        nodes.remove(nodeId);
+        List<CompletableFuture<List<Message>>> handOffs = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            try {
+                handOffs.add(transport.connect(node).handOff(groupId).toCompletableFuture());
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, node + " did not hand over group " + groupId, ex);
+            }
+        }
+        CompletableFuture.allOf(handOffs.toArray(new CompletableFuture<?>[0])).whenComplete((done, error) -> {
+            List<Message> handedOver = new ArrayList<>();
+            for (CompletableFuture<List<Message>> handOff : handOffs) {
+                if (handOff.isCompletedExceptionally()) {
+                    LOG.log(Level.WARNING, "group {0} not handed over by a node", groupId);
+                } else {
+                    handedOver.addAll(handOff.join());
+                }
+            }
+            scheduler.adoptGroup(groupId, handedOver);
+        });
+    }
+
+    @Override
+    public CompletionStage<List<Message>> handOff(long groupId) {
+        CompletableFuture<List<Message>> handOff = new CompletableFuture<>();
+        // before the group is held, so that a message queued after the
+        // hand-off is swept to the new owner
+        handedOff.put(groupId, handOff);
+        scheduler.handOffGroup(groupId).whenComplete((waiting, error) -> {
+            // the messages handed over are not kept
+            handedOff.replace(groupId, handOff, HANDED_OFF);
+            if (error != null) {
+                handOff.completeExceptionally(error);
+            } else {
+                handOff.complete(waiting);
+            }
+        });
+        return handOff;
+    }
+
+    /**
+     * Borrows the free permits of the other nodes while messages wait here
+     * for a resource and none is free, and gives them back once the queue is
+     * empty or the lender has messages waiting itself. Runs at the interval
+     * given to the node, or whenever called.
+     */
+    public synchronized void rebalance() {
+        View current = view;
+        if (current == null) {
+            return;
+        }
+        long queued = scheduler.getQueuedMessageCount();
+        boolean backlog = queued > 0 && scheduler.getIdleCapacity() == 0;
+        for (String member : current.ring.getMembers()) {
+            if (member.equals(nodeId)) {
+                continue;
+            }
+            try {
+                ClusterPeer peer = transport.connect(member);
+                if (!backlog || peer.getQueuedMessageCount() > 0) {
+                    returnLoan(member);
+                } else if (queued > 0) {
+                    queued -= borrow(member, peer, peer.lend(nodeId, (int) Math.min(queued, Integer.MAX_VALUE)));
+                }
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "permits of " + member + " not rebalanced", ex);
+            }
+        }
+    }
+
+    /**
+     * Adds the permits a lender granted to the resources that stand in for
+     * its permits with the same capabilities.
+     *
+     * @return the number of permits granted
+     */
+    private int borrow(String lenderId, ClusterPeer lender, Map<Set<String>, Integer> granted) throws Exception {
+        int count = 0;
+        Map<Set<String>, BorrowedResource> resources = borrowed.computeIfAbsent(lenderId, id -> new ConcurrentHashMap<>());
+        for (Map.Entry<Set<String>, Integer> entry : granted.entrySet()) {
+            BorrowedResource resource = resources.get(entry.getKey());
+            if (resource == null) {
+                resource = new BorrowedResource(nodeId, lenderId, lender, entry.getKey(), entry.getValue());
+                resources.put(entry.getKey(), resource);
+                scheduler.addResource(resource);
+            } else {
+                scheduler.setResourceCapacity(resource, scheduler.getResourceCapacity(resource) + entry.getValue());
+            }
+            count += entry.getValue();
+        }
+        return count;
+    }
+
+    /**
+     * Removes the resources borrowed from a lender and gives the permits
+     * back, those with a message in flight return once it has completed.
+     * Guarded by the node.
+     *
+     * @param lenderId of the lender
+     */
+    private void returnLoan(String lenderId) {
+        Map<Set<String>, BorrowedResource> resources = borrowed.remove(lenderId);
+        if (resources == null) {
+            return;
+        }
+        for (BorrowedResource resource : resources.values()) {
+            scheduler.removeResource(resource);
+        }
+        try {
+            transport.connect(lenderId).giveBack(nodeId);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "permits not given back to " + lenderId, ex);
+        }
+    }
+
+    @Override
+    public Map<Set<String>, Integer> lend(String borrowerId, int permits) {
+        if (scheduler.getQueuedMessageCount() > 0) {
+            return Collections.emptyMap();
+        }
+        List<InFlightSlot> slots = scheduler.lendPermits(permits);
+        if (slots.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Set<String>, Integer> granted = lent.computeIfAbsent(borrowerId, id -> new Loan()).add(slots);
+        if (granted == null) {
+            // given back meanwhile
+            for (InFlightSlot slot : slots) {
+                scheduler.returnPermit(slot);
+            }
+            return Collections.emptyMap();
+        }
+        return granted;
+    }
+
+    @Override
+    public CompletionStage<Void> send(String borrowerId, Set<String> capabilities, Message message) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        Loan loan = lent.get(borrowerId);
+        InFlightSlot slot = loan == null ? null : loan.take(capabilities);
+        if (slot == null || slot.getResource().isRemoved()) {
+            if (slot != null) {
+                loan.returned(slot);
+            }
+            sent.completeExceptionally(new SendFailedException("No permit lent to " + borrowerId + " by " + nodeId, true));
+            return sent;
+        }
+        Resource resource = slot.getResource();
+        message.setDispatchSlot(new LentSend(loan, slot, sent));
+        try {
+            if (resource instanceof AsyncGateway) {
+                ((AsyncGateway) resource).sendAsync(message).whenComplete((result, error) -> {
+                    if (error == null) {
+                        message.completed();
+                    } else {
+                        Throwable cause = InFlightSlot.unwrap(error);
+                        message.failed(cause, InFlightSlot.isRetryable(cause));
+                    }
+                });
+            } else {
+                resource.send(message);
+            }
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "send failed. " + resource, ex);
+            message.failed(ex, InFlightSlot.isRetryable(ex));
+        }
+        return sent;
+    }
+
+    @Override
+    public void giveBack(String borrowerId) {
+        Loan loan = lent.remove(borrowerId);
+        if (loan != null) {
+            for (InFlightSlot slot : loan.end()) {
+                scheduler.returnPermit(slot);
+            }
+        }
+    }
+
+    @Override
+    public long getQueuedMessageCount() {
+        return scheduler.getQueuedMessageCount();
+    }
+
+    /**
+     * Moves to the ring of the new members. The loans with nodes that left
+     * end, as do all loans once this node has left.
+     *
+     * @param members the identifiers of the nodes in the cluster
+     */
+    @Override
+    public synchronized void membershipChanged(Collection<String> members) {
+        View current = view;
+        HashRing ring = new HashRing(members, VIRTUAL_NODES);
+        HashRing previous = current != null ? current.ring : null;
+        if (previous == null && members.size() > 1) {
+            // a node that joins takes its groups over from the others
+            List<String> others = new ArrayList<>(members);
+            others.remove(nodeId);
+            previous = new HashRing(others, VIRTUAL_NODES);
+        }
+        this.view = new View(ring, previous);
+        boolean member = ring.contains(nodeId);
+        for (String lenderId : new ArrayList<>(borrowed.keySet())) {
+            if (!member || !ring.contains(lenderId)) {
+                returnLoan(lenderId);
+            }
+        }
+        for (String borrowerId : new ArrayList<>(lent.keySet())) {
+            if (!member || !ring.contains(borrowerId)) {
+                giveBack(borrowerId);
+            }
+        }
+        for (Long groupId : new ArrayList<>(stranded)) {
+            stranded.remove(groupId);
+            sweep(groupId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "node " + nodeId;
+    }
+
+    /**
+     * The ring of the current members, the ring before the last membership
+     * change and the groups taken over since.
+     */
+    private static final class View {
+
+        final HashRing ring;
+        final HashRing previous;
+        final ConcurrentHashMap<Long, Object> adopted = new ConcurrentHashMap<>();
+
+        View(HashRing ring, HashRing previous) {
+            this.ring = ring;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * The permits lent to a borrower, the free ones by the capabilities of
+     * their resource.
+     */
+    private final class Loan {
+
+        private final Map<Set<String>, ArrayDeque<InFlightSlot>> free = new HashMap<>();
+        private boolean ended;
+
+        /**
+         * @return the permits added by their capabilities, null if the loan
+         * has ended
+         */
+        synchronized Map<Set<String>, Integer> add(List<InFlightSlot> slots) {
+            if (ended) {
+                return null;
+            }
+            Map<Set<String>, Integer> granted = new HashMap<>();
+            for (InFlightSlot slot : slots) {
+                Set<String> capabilities = slot.getResource().getCapabilities();
+                free.computeIfAbsent(capabilities, key -> new ArrayDeque<>()).add(slot);
+                granted.merge(capabilities, 1, Integer::sum);
+            }
+            return granted;
+        }
+
+        synchronized InFlightSlot take(Set<String> capabilities) {
+            ArrayDeque<InFlightSlot> slots = free.get(capabilities);
+            return slots == null ? null : slots.poll();
+        }
+
+        /**
+         * Takes back a permit after its send, or returns it to rotation if
+         * the loan has ended.
+         */
+        void returned(InFlightSlot slot) {
+            synchronized (this) {
+                if (!ended) {
+                    free.get(slot.getResource().getCapabilities()).add(slot);
+                    return;
+                }
+            }
+            scheduler.returnPermit(slot);
+        }
+
+        synchronized List<InFlightSlot> end() {
+            ended = true;
+            List<InFlightSlot> slots = new ArrayList<>();
+            for (ArrayDeque<InFlightSlot> permits : free.values()) {
+                slots.addAll(permits);
+            }
+            free.clear();
+            return slots;
+        }
+    }
+
+    /**
+     * Completes the stage of a send on a lent permit and takes the permit
+     * back.
+     */
+    private static final class LentSend implements Action {
+
+        private final Loan loan;
+        private final InFlightSlot slot;
+        private final CompletableFuture<Void> sent;
+
+        LentSend(Loan loan, InFlightSlot slot, CompletableFuture<Void> sent) {
+            this.loan = loan;
+            this.slot = slot;
+            this.sent = sent;
+        }
+
+        @Override
+        public void perform() {
+            loan.returned(slot);
+            sent.complete(null);
+        }
+
+        @Override
+        public void failed(Message message, Throwable cause, boolean retryable) {
+            loan.returned(slot);
+            sent.completeExceptionally(cause instanceof SendFailedException ? cause
+                    : new SendFailedException("send failed. " + slot.getResource(), cause, retryable));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+
+/**
+ * Describes a message that a resource has completed. A pooled message is
+ * returned to its pool once it has completed, so only the identifiers
+ * captured in the event remain valid when the event is consumed later.
+ *
+ * @author Brighton
+ */
+public class CompletionEvent {
+
+    private final Message message;
+    private final long groupId;
+    private final Resource resource;
+    private final long latencyNanos;
+    private final long responseNanos;
+
+    CompletionEvent(Message message, Resource resource, long latencyNanos, long responseNanos) {
+        this.message = message;
+        this.groupId = message.getGroupId();
+        this.resource = resource;
+        this.latencyNanos = latencyNanos;
+        this.responseNanos = responseNanos;
+    }
+
+    /**
+     * The completed message. A pooled message may already have been reused.
+     *
+     * @return the message
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    public long getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * The resource that processed the message.
+     *
+     * @return the resource
+     */
+    public Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * The time from the send to the resource to the completion of the
+     * message.
+     *
+     * @return the latency in nanoseconds
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * The time from the message being received by the scheduler to its
+     * completion.
+     *
+     * @return the response time in nanoseconds
+     */
+    public long getResponseNanos() {
+        return responseNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "completed group" + groupId + " on " + resource + " in " + latencyNanos + "ns";
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the completed messages of a scheduler. Events are buffered per
+ * subscriber and delivered in batches, each item being the events that
+ * accumulated since the previous one, up to the maximum batch size. The
+ * completing thread only appends to the buffers; delivery runs on the
+ * executor and honours the demand of each subscriber. When a buffer is full
+ * the newest events are dropped and counted, a slow subscriber never holds up
+ * the resources. No event is created while nobody subscribes.
+ *
+ * @author Brighton
+ */
+public class CompletionPublisher implements Flow.Publisher<List<CompletionEvent>> {
+
+    private static final Logger LOG = Logger.getLogger(CompletionPublisher.class.getName());
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final int bufferSize;
+    private final List<CompletionSubscription> subscriptions;
+    private final LongAdder dropped;
+    private volatile boolean closed;
+
+    CompletionPublisher(Executor executor, int maxBatchSize, int bufferSize) {
+        this.executor = executor;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.bufferSize = Math.max(1, bufferSize);
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.dropped = new LongAdder();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<CompletionEvent>> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber is null");
+        CompletionSubscription subscription = new CompletionSubscription(subscriber);
+        if (closed) {
+            subscription.completed = true;
+        } else {
+            subscriptions.add(subscription);
+        }
+        subscription.schedule();
+    }
+
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * The number of events not delivered because a buffer was full.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    void publish(CompletionEvent event) {
+        for (CompletionSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Completes the subscribers once their buffered events are delivered.
+     */
+    void close() {
+        closed = true;
+        for (CompletionSubscription subscription : subscriptions) {
+            subscription.completed = true;
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * The buffer and demand of one subscriber. Signals to the subscriber are
+     * serialised by the work-in-progress counter, only the thread that raised
+     * it from zero runs the delivery.
+     */
+    private final class CompletionSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super List<CompletionEvent>> subscriber;
+        private final ConcurrentLinkedQueue<CompletionEvent> events;
+        private final AtomicInteger buffered;
+        private final AtomicLong requested;
+        private final AtomicInteger wip;
+        private boolean started;
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        CompletionSubscription(Flow.Subscriber<? super List<CompletionEvent>> subscriber) {
+            this.subscriber = subscriber;
+            this.events = new ConcurrentLinkedQueue<>();
+            this.buffered = new AtomicInteger();
+            this.requested = new AtomicLong();
+            this.wip = new AtomicInteger();
+        }
+
+        void offer(CompletionEvent event) {
+            if (cancelled) {
+                return;
+            }
+            if (buffered.incrementAndGet() > bufferSize) {
+                buffered.decrementAndGet();
+                dropped.increment();
+                return;
+            }
+            events.add(event);
+            schedule();
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    LOG.log(Level.WARNING, "completion events can not be delivered", ex);
+                    terminate();
+                }
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            terminate();
+        }
+
+        private void terminate() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            try {
+                do {
+                    if (!started) {
+                        started = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    if (drain()) {
+                        return;
+                    }
+                    missed = wip.addAndGet(-missed);
+                } while (missed != 0);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "completion subscriber failed, it is cancelled", ex);
+                terminate();
+            }
+        }
+
+        /**
+         * Delivers the buffered events as far as requested.
+         *
+         * @return true once the subscription has terminated
+         */
+        private boolean drain() {
+            if (cancelled) {
+                events.clear();
+                return true;
+            }
+            Throwable failure = error;
+            if (failure != null) {
+                terminate();
+                subscriber.onError(failure);
+                return true;
+            }
+            while (requested.get() > 0 && !events.isEmpty()) {
+                List<CompletionEvent> batch = new ArrayList<>(Math.min(maxBatchSize, Math.max(1, buffered.get())));
+                CompletionEvent event;
+                while (batch.size() < maxBatchSize && (event = events.poll()) != null) {
+                    batch.add(event);
+                }
+                buffered.addAndGet(-batch.size());
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                subscriber.onNext(batch);
+                if (cancelled) {
+                    events.clear();
+                    return true;
+                }
+            }
+            if (completed && events.isEmpty()) {
+                terminate();
+                subscriber.onComplete();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adapts the number of permits of one resource to the latency of its sends.
+ * Every completed send is sampled, the limiter answers with the limit the
+ * resource should have. The samples of the permits of a resource are
+ * serialised on the limiter, which is only used when a
+ * {@link LimitAlgorithm} other than {@link LimitAlgorithm#FIXED} is
+ * configured.
+ *
+ * @author Brighton
+ */
+class ConcurrencyLimiter {
+
+    private static final double AIMD_TOLERANCE = 2.0;
+    private static final double AIMD_BACKOFF = 0.9;
+    private static final int MIN_RTT_WINDOW = 1000;
+    private static final double GRADIENT_TOLERANCE = 1.5;
+    private static final double GRADIENT_SMOOTHING = 0.2;
+    private static final int SHORT_WINDOW = 8;
+
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight;
+    private double limit;
+    private long samples;
+    private long minRtt;
+    private long windowMinRtt = Long.MAX_VALUE;
+    private int sinceBackoff;
+    private double shortRtt;
+    private volatile long smoothedRtt;
+
+    ConcurrencyLimiter(LimitAlgorithm algorithm, int minLimit, int maxLimit, int initialLimit) {
+        this.algorithm = algorithm;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = clamp(initialLimit);
+        this.inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Signalled when a permit of the resource is sent a message or batch.
+     */
+    void dispatched() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Signalled when a permit of the resource has completed.
+     *
+     * @return the number of permits that were in flight, including this one
+     */
+    int completed() {
+        return inFlight.getAndDecrement();
+    }
+
+    /**
+     * The recent latency of the resource, read without the lock.
+     *
+     * @return the smoothed latency in nanoseconds, 0 before the first sample
+     */
+    long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Sets the limit explicitly, the algorithm continues from there.
+     *
+     * @param limit the number of permits
+     */
+    synchronized void setLimit(int limit) {
+        this.limit = clamp(limit);
+    }
+
+    /**
+     * Records the latency of a completed send and adapts the limit.
+     *
+     * @param rtt nanoseconds from the send to the completion
+     * @param inFlight the number of permits in flight when the send completed
+     * @return the new limit of the resource
+     */
+    synchronized int sample(long rtt, int inFlight) {
+        rtt = Math.max(1, rtt);
+        samples++;
+        shortRtt = shortRtt == 0 ? rtt : shortRtt + (rtt - shortRtt) / SHORT_WINDOW;
+        smoothedRtt = (long) shortRtt;
+        // a resource using less than half its permits has not shown whether
+        // it could take more
+        boolean limited = inFlight * 2 >= limit;
+        // the minimum is taken over a window so that the baseline can rise
+        // when the resource gets slower for good
+        windowMinRtt = Math.min(windowMinRtt, rtt);
+        if (minRtt == 0 || rtt < minRtt) {
+            minRtt = rtt;
+        }
+        if (samples % MIN_RTT_WINDOW == 0) {
+            minRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+        }
+        if (algorithm == LimitAlgorithm.AIMD) {
+            aimd(rtt, limited);
+        } else if (algorithm == LimitAlgorithm.GRADIENT) {
+            gradient(limited);
+        }
+        return (int) limit;
+    }
+
+    private void aimd(long rtt, boolean limited) {
+        sinceBackoff++;
+        if (rtt > AIMD_TOLERANCE * minRtt) {
+            // at most one decrease per round of permits
+            if (sinceBackoff >= limit) {
+                limit = clamp(limit * AIMD_BACKOFF);
+                sinceBackoff = 0;
+            }
+        } else if (limited) {
+            limit = clamp(limit + 1 / limit);
+        }
+    }
+
+    private void gradient(boolean limited) {
+        if (!limited) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, GRADIENT_TOLERANCE * minRtt / shortRtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - GRADIENT_SMOOTHING) + target * GRADIENT_SMOOTHING);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -2,7 +2,10 @@ package com.github.resource.scheduler;
 
 import com.github.resource.scheduler.api.Action;
 import com.github.resource.scheduler.api.Message;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Logger;
 
 /**
@@ -15,14 +18,27 @@ public class DefaultMessage implements Message {
 
     private static final Logger LOG = Logger.getLogger(DefaultMessage.class.getName());
 
-    private final ConcurrentLinkedDeque<Action> completedActions;
+    private static final Action[] NO_ACTIONS = new Action[0];
+    private static final AtomicReferenceFieldUpdater<DefaultMessage, Action> DISPATCH_SLOT
+            = AtomicReferenceFieldUpdater.newUpdater(DefaultMessage.class, Action.class, "dispatchSlot");
+
+    private volatile Action[] completedActions;
+    private volatile Action dispatchSlot;
     private Group group;
+    private long receivedNanos;
+    private long journalSequence;
+    private long notBefore;
+    private long deadline;
+    private int attempts;
+    private Set<String> requirements = Collections.emptySet();
+    private String coalesceKey;
     private long groupId;
     private boolean terminationMessage;
+    private int priority;
     private final int id;
 
     public DefaultMessage(int id, int groupId) {
-        this.completedActions = new ConcurrentLinkedDeque<>();
+        this.completedActions = NO_ACTIONS;
         this.id = id;
         this.groupId = groupId;
     }
@@ -33,14 +49,118 @@ public class DefaultMessage implements Message {
 
     @Override
     public void completed() {
-        completedActions.stream().forEach((action) -> {
-            action.perform();
-        });
+        Action[] actions = completedActions;
+        for (int i = 0; i < actions.length; i++) {
+            actions[i].perform();
+        }
+        // taken once, a racing completion or failure finds no slot
+        Action slot = DISPATCH_SLOT.getAndSet(this, null);
+        if (slot != null) {
+            slot.perform();
+        }
+    }
+
+    @Override
+    public void failed(Throwable cause, boolean retryable) {
+        Action slot = DISPATCH_SLOT.getAndSet(this, null);
+        if (slot != null) {
+            slot.failed(this, cause, retryable);
+        }
+    }
+
+    @Override
+    public void coalesced(Message by) {
+        Action[] actions = completedActions;
+        for (int i = 0; i < actions.length; i++) {
+            actions[i].coalesced(this, by);
+        }
+    }
+
+    @Override
+    public synchronized void addCompletedAction(Action action) {
+        Action[] actions = Arrays.copyOf(completedActions, completedActions.length + 1);
+        actions[actions.length - 1] = action;
+        this.completedActions = actions;
+    }
+
+    @Override
+    public void setDispatchSlot(Action slot) {
+        this.dispatchSlot = slot;
+    }
+
+    @Override
+    public int getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public void setReceivedNanos(long nanos) {
+        this.receivedNanos = nanos;
+    }
+
+    @Override
+    public long getReceivedNanos() {
+        return this.receivedNanos;
+    }
+
+    @Override
+    public void setJournalSequence(long sequence) {
+        this.journalSequence = sequence;
+    }
+
+    @Override
+    public long getJournalSequence() {
+        return this.journalSequence;
+    }
+
+    @Override
+    public long getNotBefore() {
+        return this.notBefore;
+    }
+
+    public void setNotBefore(long notBefore) {
+        this.notBefore = notBefore;
+    }
+
+    @Override
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    @Override
+    public Set<String> getRequirements() {
+        return this.requirements;
+    }
+
+    public void setRequirements(Set<String> requirements) {
+        this.requirements = requirements == null ? Collections.<String>emptySet() : requirements;
+    }
+
+    @Override
+    public String getCoalesceKey() {
+        return this.coalesceKey;
+    }
+
+    public void setCoalesceKey(String coalesceKey) {
+        this.coalesceKey = coalesceKey;
+    }
+
+    @Override
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
     }
 
     @Override
-    public void addCompletedAction(Action action) {
-        this.completedActions.add(action);
+    public int getAttempts() {
+        return this.attempts;
     }
 
     @Override
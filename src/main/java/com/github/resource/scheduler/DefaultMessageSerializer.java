@@ -0,0 +1,67 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.MessageSerializer;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Serializer of {@link DefaultMessage}, the identifiers, priority,
+ * termination flag, times, requirements and coalesce key are written.
+ * Completed actions are not restored. A change of the fields written is a
+ * new version of the format of the journal.
+ *
+ * @author Brighton
+ */
+public class DefaultMessageSerializer implements MessageSerializer {
+
+    @Override
+    public void write(Message message, DataOutput out) throws IOException {
+        if (!(message instanceof DefaultMessage)) {
+            throw new IOException("No serializer configured for " + message.getClass().getName());
+        }
+        DefaultMessage defaultMessage = (DefaultMessage) message;
+        out.writeInt(defaultMessage.getId());
+        out.writeLong(defaultMessage.getGroupId());
+        out.writeInt(defaultMessage.getPriority());
+        out.writeBoolean(defaultMessage.isTerminationMessage());
+        out.writeLong(defaultMessage.getNotBefore());
+        out.writeLong(defaultMessage.getDeadline());
+        Set<String> requirements = defaultMessage.getRequirements();
+        out.writeShort(requirements.size());
+        for (String requirement : requirements) {
+            out.writeUTF(requirement);
+        }
+        String coalesceKey = defaultMessage.getCoalesceKey();
+        out.writeBoolean(coalesceKey != null);
+        if (coalesceKey != null) {
+            out.writeUTF(coalesceKey);
+        }
+    }
+
+    @Override
+    public Message read(DataInput in) throws IOException {
+        int id = in.readInt();
+        DefaultMessage message = new DefaultMessage(id, 0);
+        message.setGroupId(in.readLong());
+        message.setPriority(in.readInt());
+        message.setTerminationMessage(in.readBoolean());
+        message.setNotBefore(in.readLong());
+        message.setDeadline(in.readLong());
+        int count = in.readShort();
+        if (count > 0) {
+            Set<String> requirements = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                requirements.add(in.readUTF());
+            }
+            message.setRequirements(requirements);
+        }
+        if (in.readBoolean()) {
+            message.setCoalesceKey(in.readUTF());
+        }
+        return message;
+    }
+}
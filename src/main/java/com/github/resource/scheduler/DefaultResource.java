@@ -2,6 +2,8 @@ package com.github.resource.scheduler;
 
 import com.github.resource.scheduler.api.Message;
 import com.github.resource.scheduler.api.Resource;
+import java.util.Collections;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,8 +17,36 @@ public class DefaultResource implements Resource {
 
     private static final Logger LOG = Logger.getLogger(DefaultResource.class.getName());
 
-    private boolean removed;
-    private long DELAY = 1000L;
+    private volatile boolean removed;
+    private Set<String> capabilities = Collections.emptySet();
+    private final long DELAY;
+
+    public DefaultResource() {
+        this(1000L);
+    }
+
+    /**
+     * Constructor for a resource with an artificial delay.
+     *
+     * @param delay in milliseconds each message takes to be processed
+     */
+    public DefaultResource(long delay) {
+        this.DELAY = delay;
+    }
+
+    @Override
+    public Set<String> getCapabilities() {
+        return this.capabilities;
+    }
+
+    /**
+     * Sets the capability tags, before the resource is added to a scheduler.
+     *
+     * @param capabilities of the resource
+     */
+    public void setCapabilities(Set<String> capabilities) {
+        this.capabilities = capabilities == null ? Collections.<String>emptySet() : capabilities;
+    }
 
     @Override
     public boolean isRemoved() {
@@ -0,0 +1,54 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the sends to the resources on behalf of the scheduler.
+ *
+ * @author Brighton
+ */
+public interface DispatchEngine {
+
+    /**
+     * Creates the engine for the configured dispatch mode.
+     *
+     * @param config tuning parameters of the scheduler
+     * @return the dispatch engine
+     * @throws java.lang.Exception when the mode is not supported by the JVM
+     */
+    public static DispatchEngine create(SchedulerConfig config) throws Exception {
+        DispatchMode mode = config.getDispatchMode();
+        switch (mode) {
+            case VIRTUAL_THREAD:
+                if (!mode.isSupported()) {
+                    throw new Exception("Virtual thread dispatch requires JDK 21 or later");
+                }
+                return new ExecutorDispatchEngine((ExecutorService) DispatchMode.virtualThreadExecutorFactory().invoke(null));
+            case PLATFORM_POOL:
+                final AtomicInteger count = new AtomicInteger();
+                return new ExecutorDispatchEngine(Executors.newFixedThreadPool(config.getDispatchThreads(), (runnable) -> {
+                    Thread thread = new Thread(runnable, "resource-scheduler-dispatch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+            case NON_BLOCKING:
+                return new InlineDispatchEngine();
+            default:
+                throw new Exception("Unknown dispatch mode " + mode);
+        }
+    }
+
+    /**
+     * Runs the send, either immediately or on another thread.
+     *
+     * @param send the task performing the send
+     */
+    public void execute(Runnable send);
+
+    /**
+     * Releases the threads used by the engine.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,61 @@
+package com.github.resource.scheduler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+
+/**
+ * The ways the scheduler can run the sends to the resources.
+ *
+ * @author Brighton
+ */
+public enum DispatchMode {
+
+    /**
+     * Each send runs on its own virtual thread. Requires JDK 21 or later.
+     */
+    VIRTUAL_THREAD,
+    /**
+     * Sends run on a bounded pool of platform threads. A blocking send holds
+     * one of the threads for its whole duration.
+     */
+    PLATFORM_POOL,
+    /**
+     * Sends run on the thread that dispatches the message. Intended for
+     * resources implementing {@link com.github.resource.scheduler.api.AsyncGateway}
+     * or whose send never blocks.
+     */
+    NON_BLOCKING;
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    static Method virtualThreadExecutorFactory() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR;
+    }
+
+    /**
+     * Indicates whether the mode can be used on the running JVM.
+     *
+     * @return true if the mode is supported
+     */
+    public boolean isSupported() {
+        return this != VIRTUAL_THREAD || NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * The mode used when none is configured: virtual threads where available,
+     * otherwise a pool of platform threads.
+     *
+     * @return the default mode
+     */
+    public static DispatchMode defaultMode() {
+        return VIRTUAL_THREAD.isSupported() ? VIRTUAL_THREAD : PLATFORM_POOL;
+    }
+}
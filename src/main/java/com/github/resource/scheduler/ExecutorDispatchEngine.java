@@ -0,0 +1,27 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Dispatch engine running each send as a task of an executor service.
+ *
+ * @author Brighton
+ */
+class ExecutorDispatchEngine implements DispatchEngine {
+
+    private final ExecutorService executor;
+
+    ExecutorDispatchEngine(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable send) {
+        executor.execute(send);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.resource.scheduler;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Shares the resources between the ready groups by deficit round robin. The
+ * group at the head of the round is credited its quantum times its weight in
+ * messages, and goes to the back of the round once the credit is spent or it
+ * has drained. A group with weight two therefore receives twice the messages
+ * of a group with weight one while both have messages waiting.
+ * <p>
+ * A resource stays with its group while the group is at the head of the round,
+ * or has left it with a message in flight, and has credit left, or while no
+ * other group is waiting, so stickiness is
+ * kept without letting a large group hold the resources. The queue is not
+ * thread-safe, the scheduler guards it with its queue lock; only the credit
+ * is updated atomically as sticky resources spend it without the lock.
+ *
+ * @author Brighton
+ */
+public class FairShareGroupQueue extends AbstractQueue<Group> implements SchedulingQueue {
+
+    private static final int DEFAULT_QUANTUM = 8;
+    private static final AtomicIntegerFieldUpdater<Group> DEFICIT = AtomicIntegerFieldUpdater.newUpdater(Group.class, "deficit");
+
+    private final int quantum;
+    private final ArrayDeque<Group> round;
+    private volatile Group head;
+    private volatile int waiting;
+
+    public FairShareGroupQueue() {
+        this(DEFAULT_QUANTUM);
+    }
+
+    /**
+     * Constructor for the fair share group queue.
+     *
+     * @param quantum messages credited per round to a group of weight one
+     */
+    public FairShareGroupQueue(int quantum) {
+        this.quantum = Math.max(1, quantum);
+        this.round = new ArrayDeque<>();
+    }
+
+    int getQuantum() {
+        return quantum;
+    }
+
+    @Override
+    public boolean offer(Group group) {
+        DEFICIT.set(group, 0);
+        round.addLast(group);
+        advance();
+        return true;
+    }
+
+    @Override
+    public Group poll() {
+        Group group = round.pollFirst();
+        if (group != null) {
+            // a group that left the round with a message in flight keeps its
+            // credit for the resource that stays with it, credit is not
+            // carried over once the group has drained
+            if (group.isEmpty()) {
+                DEFICIT.set(group, 0);
+            }
+            advance();
+        }
+        return group;
+    }
+
+    /**
+     * The group at the head of the round. A head whose credit has been spent
+     * by sticky resources goes to the back of the round first.
+     */
+    @Override
+    public Group peek() {
+        Group first = round.peekFirst();
+        if (first != null && first.deficit <= 0 && round.size() > 1) {
+            round.addLast(round.pollFirst());
+            advance();
+            first = round.peekFirst();
+        }
+        return first;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!round.remove(o)) {
+            return false;
+        }
+        DEFICIT.set((Group) o, 0);
+        advance();
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        Group group;
+        while ((group = round.pollFirst()) != null) {
+            DEFICIT.set(group, 0);
+        }
+        advance();
+    }
+
+    @Override
+    public int size() {
+        return round.size();
+    }
+
+    @Override
+    public Iterator<Group> iterator() {
+        return round.iterator();
+    }
+
+    @Override
+    public void groupChanged(Group group) {
+        // a new weight takes effect at the next credit
+    }
+
+    @Override
+    public void messageDispatched(Group group) {
+        if (DEFICIT.decrementAndGet(group) <= 0 && round.peekFirst() == group && round.size() > 1) {
+            round.addLast(round.pollFirst());
+            advance();
+        }
+    }
+
+    @Override
+    public boolean isSticky(Group group) {
+        Group current = head;
+        if (current == null || current == group && waiting == 1) {
+            return true;
+        }
+        if (current != group && group.isQueued()) {
+            return false;
+        }
+        for (;;) {
+            int deficit = group.deficit;
+            if (deficit <= 0) {
+                return false;
+            }
+            if (DEFICIT.compareAndSet(group, deficit, deficit - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Credits the group that has come to the head of the round.
+     */
+    private void advance() {
+        Group first = round.peekFirst();
+        if (first != null && first.deficit <= 0) {
+            DEFICIT.addAndGet(first, (int) Math.min(Integer.MAX_VALUE >> 1, (long) quantum * first.getWeight()));
+        }
+        head = first;
+        waiting = round.size();
+    }
+}
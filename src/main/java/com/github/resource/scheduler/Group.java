@@ -1,8 +1,16 @@
 package com.github.resource.scheduler;
 
 import com.github.resource.scheduler.api.Message;
-import java.util.Queue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -12,27 +20,79 @@ import java.util.logging.Logger;
 public class Group {
 
     private static final Logger LOG = Logger.getLogger(Group.class.getName());
+    private static final AtomicIntegerFieldUpdater<Group> IN_FLIGHT = AtomicIntegerFieldUpdater.newUpdater(Group.class, "inFlight");
+    private static final AtomicIntegerFieldUpdater<Group> THROTTLED = AtomicIntegerFieldUpdater.newUpdater(Group.class, "throttled");
 
-    public static Group getInstance(long groupId, Queue<Group> queue, final Object queueLock) {
-        synchronized (queueLock) {
-            for (Group group : queue) {
-                if (groupId == group.getId()) {
-                    return group;
-                }
-            }
-            Group group = new Group(groupId);
-            queue.add(group);
-            return group;
-        }
+    /**
+     * Finds the group in the registry or creates it.
+     *
+     * @param groupId of the group
+     * @param groups registry of the known groups
+     * @return the group for the identifier
+     */
+    public static Group getInstance(long groupId, GroupRegistry groups) {
+        return groups.getOrCreate(groupId);
+    }
+
+    /**
+     * Creates a group that stands in for a group that has been retired from
+     * the registry. It is not registered and rejects any further message.
+     *
+     * @param groupId of the retired group
+     * @param cancelled true if the group was cancelled, otherwise it had
+     * terminated
+     * @return a detached cancelled or terminated group
+     */
+    static Group retired(long groupId, boolean cancelled) {
+        Group group = new Group(groupId);
+        group.cancelled = cancelled;
+        group.terminated = !cancelled;
+        group.retired = true;
+        return group;
     }
     private final ConcurrentLinkedQueue<Message> messages;
+    private final AtomicInteger size;
+    // messages to be sent again ahead of the queue, guarded by the group
+    private ArrayDeque<Message> retries;
+    private volatile int retryCount;
+    // the waiting message of each coalesce key, guarded by the group
+    private HashMap<Object, Message> pendingByKey;
+    // waiting messages that a later message has superseded, skipped and
+    // released when polled, guarded by the group
+    private Set<Message> superseded;
     private final long id;
-    private boolean cancelled;
-    private boolean terminated;
+    private volatile boolean cancelled;
+    private volatile boolean terminated;
+    private volatile boolean retired;
+    private volatile boolean queued;
+    private volatile int priority;
+    private volatile int weight = 1;
+    private volatile int inFlight;
+    private volatile int maxInFlight = 1;
+    // credit of the group in a FairShareGroupQueue
+    volatile int deficit;
+    private volatile InFlightSlot affinity;
+    private volatile CapabilityIndex.RequirementClass requirements;
+    private volatile RateLimit rateLimit;
+    // 1 while the group waits for a token of its rate limit
+    private volatile int throttled;
+    // true while the group moves between the nodes of a cluster
+    private volatile boolean held;
+    // run when the last message in flight of the group completes
+    private volatile Runnable drained;
+    // messages of the group in the timing wheel, and the termination message
+    // held back until they are queued, guarded by the group
+    private int delayed;
+    private Message termination;
+    // position in a PriorityGroupQueue, guarded by the queue lock
+    int queueIndex = -1;
+    long queueKey;
+    long queueReadyNanos;
 
-    private Group(long id) {
+    Group(long id) {
         this.id = id;
         this.messages = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
     }
 
     public long getId() {
@@ -55,16 +115,464 @@ public class Group {
         this.terminated = terminationMessage;
     }
 
+    /**
+     * Indicates whether the group has left the registry, its termination
+     * message has been sent or it was cancelled. A message of the group that
+     * comes due afterwards is too late to be sent.
+     *
+     * @return true if the group is retired
+     */
+    boolean isRetired() {
+        return retired;
+    }
+
+    void setRetired() {
+        this.retired = true;
+    }
+
+    /**
+     * Indicates whether the group has an entry in the queue of groups that
+     * are ready to be processed. Guarded by the lock of that queue.
+     *
+     * @return true if the group is in the queue
+     */
+    public boolean isQueued() {
+        return queued;
+    }
+
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
+
+    /**
+     * The priority of the group, higher priorities are selected first by a
+     * {@link PriorityGroupQueue}. It is changed through the scheduler so that
+     * the queue can be updated.
+     *
+     * @return the priority of the group
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * The share of the resources the group receives relative to the other
+     * groups in a {@link FairShareGroupQueue}.
+     *
+     * @return the weight of the group, 1 by default
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * The number of messages of the group that have been dispatched and have
+     * not completed yet.
+     *
+     * @return the number of messages in flight
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * The number of messages of the group that may be in flight at the same
+     * time. By default it is one, so the messages of a group are processed
+     * strictly in order, one after the other.
+     *
+     * @return the maximum number of messages in flight
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Claims a place in flight for the next message of the group.
+     *
+     * @return true if the group had fewer messages in flight than its maximum
+     */
+    boolean tryStartDispatch() {
+        for (;;) {
+            int current = inFlight;
+            if (current >= maxInFlight) {
+                return false;
+            }
+            if (IN_FLIGHT.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back the place in flight of a message that has completed, or that
+     * was not dispatched after all.
+     */
+    void endDispatch() {
+        if (IN_FLIGHT.decrementAndGet(this) == 0) {
+            Runnable listener = drained;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the group is held while it moves to or from another
+     * node of a cluster. A held group keeps its messages but none is sent.
+     *
+     * @return true if the group is held
+     */
+    boolean isHeld() {
+        return held;
+    }
+
+    void setHeld(boolean held) {
+        this.held = held;
+    }
+
+    /**
+     * Sets the listener that is told when the group has no message in flight
+     * any more. It runs on the thread that completed the message and must not
+     * block.
+     *
+     * @param drained listener, or null to remove it
+     */
+    void setDrained(Runnable drained) {
+        this.drained = drained;
+    }
+
+    /**
+     * Counts a message of the group that the timing wheel holds back.
+     */
+    synchronized void delay() {
+        delayed++;
+    }
+
+    /**
+     * Counts a message of the group that the timing wheel released.
+     *
+     * @return the termination message that was held back until the last
+     * delayed message of the group was due, or null
+     */
+    synchronized Message undelay() {
+        if (--delayed > 0 || termination == null) {
+            return null;
+        }
+        Message released = termination;
+        termination = null;
+        return released;
+    }
+
+    /**
+     * Indicates whether no message of the group is in the timing wheel and
+     * no termination message is held back.
+     *
+     * @return true if nothing of the group waits to be released
+     */
+    synchronized boolean isUndelayed() {
+        return delayed == 0 && termination == null;
+    }
+
+    /**
+     * Holds back the termination message while messages of the group that
+     * were received before it are in the timing wheel, so that it is queued
+     * after them.
+     *
+     * @param termination message of the group
+     * @return true if the message is held back
+     */
+    synchronized boolean holdTermination(Message termination) {
+        if (delayed == 0) {
+            return false;
+        }
+        this.termination = termination;
+        return true;
+    }
+
+    /**
+     * The slot of the resource that was sent the last message of the group.
+     *
+     * @return the slot or null
+     */
+    InFlightSlot getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * The requirement class of the messages of the group.
+     *
+     * @return the class, or null until the group received its first message
+     */
+    CapabilityIndex.RequirementClass getRequirementClass() {
+        return requirements;
+    }
+
+    /**
+     * Sets the requirement class of the group unless it has one already.
+     *
+     * @param requirements of the first message of the group
+     */
+    void classify(CapabilityIndex.RequirementClass requirements) {
+        synchronized (this) {
+            if (this.requirements == null) {
+                this.requirements = requirements;
+            }
+        }
+    }
+
+    void setAffinity(InFlightSlot affinity) {
+        this.affinity = affinity;
+    }
+
+    /**
+     * The token bucket that limits the sends of the group.
+     *
+     * @return the rate limit or null if the group is not limited
+     */
+    RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    void setRateLimit(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Indicates whether the group has run out of tokens. A throttled group
+     * is not selectable until its next token is due.
+     *
+     * @return true if the group waits for a token
+     */
+    boolean isThrottled() {
+        return throttled != 0;
+    }
+
+    /**
+     * Marks the group as waiting for a token.
+     *
+     * @return true if the group was not throttled yet, the caller schedules
+     * the end of the throttle
+     */
+    boolean throttle() {
+        return THROTTLED.compareAndSet(this, 0, 1);
+    }
+
+    void unthrottle() {
+        throttled = 0;
+    }
+
     public void addMessage(Message message) {
-        messages.add(message);
+        append(message);
+        size.incrementAndGet();
+    }
+
+    private void append(Message message) {
+        Object key = coalesceKey(message);
+        if (key == null) {
+            messages.add(message);
+            return;
+        }
+        synchronized (this) {
+            messages.add(message);
+            if (pendingByKey == null) {
+                pendingByKey = new HashMap<>();
+            }
+            pendingByKey.put(key, message);
+        }
+    }
+
+    private static Object coalesceKey(Message message) {
+        return message.isTerminationMessage() ? null : message.getCoalesceKey();
+    }
+
+    /**
+     * Replaces the waiting message with the same coalesce key by the
+     * message. The message is merged with the waiting one and appended in
+     * its place, the number of waiting messages does not change.
+     *
+     * @param message with a coalesce key
+     * @return the superseded message, or null if no message with the key is
+     * waiting and the message is to be added as usual
+     */
+    Message supersede(Message message) {
+        Object key = coalesceKey(message);
+        if (key == null) {
+            return null;
+        }
+        synchronized (this) {
+            Message previous = pendingByKey == null ? null : pendingByKey.get(key);
+            if (previous == null) {
+                return null;
+            }
+            message.merge(previous);
+            if (superseded == null) {
+                superseded = Collections.newSetFromMap(new IdentityHashMap<>());
+            }
+            superseded.add(previous);
+            pendingByKey.put(key, message);
+            messages.add(message);
+            return previous;
+        }
+    }
+
+    /**
+     * Appends the message unless the group already holds as many waiting
+     * messages as it may.
+     *
+     * @param message to be appended
+     * @param maxSize maximum number of waiting messages, 0 for no limit
+     * @return true if the message was appended
+     */
+    boolean tryAddMessage(Message message, int maxSize) {
+        if (maxSize <= 0) {
+            addMessage(message);
+            return true;
+        }
+        for (;;) {
+            int current = size.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                append(message);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Appends a run of messages, keeping their order.
+     *
+     * @param run of messages belonging to the group
+     */
+    public void addMessages(Collection<? extends Message> run) {
+        boolean keyed = false;
+        for (Message message : run) {
+            if (coalesceKey(message) != null) {
+                keyed = true;
+                break;
+            }
+        }
+        if (keyed) {
+            for (Message message : run) {
+                append(message);
+            }
+        } else {
+            messages.addAll(run);
+        }
+        size.addAndGet(run.size());
+    }
+
+    /**
+     * Discards and releases the messages that are waiting to be processed.
+     *
+     * @return the number of messages discarded
+     */
+    public int clear() {
+        return clear(null);
+    }
+
+    /**
+     * Puts messages that failed back ahead of the waiting messages, in their
+     * order, to be sent again.
+     *
+     * @param failed messages of the group to be retried
+     */
+    void retry(Collection<? extends Message> failed) {
+        synchronized (this) {
+            if (retries == null) {
+                retries = new ArrayDeque<>();
+            }
+            retries.addAll(failed);
+            size.addAndGet(failed.size());
+            retryCount += failed.size();
+        }
+    }
+
+    /**
+     * Discards and releases the messages that are waiting to be processed.
+     *
+     * @param discarded told of each message before it is released, may be
+     * null
+     * @return the number of messages discarded
+     */
+    int clear(Consumer<? super Message> discarded) {
+        int count = 0;
+        Message message;
+        while ((message = poll()) != null) {
+            if (discarded != null) {
+                discarded.accept(message);
+            }
+            message.release();
+            count++;
+        }
+        return count;
     }
 
     public boolean isEmpty() {
-        return messages.isEmpty();
+        return retryCount == 0 && messages.isEmpty();
     }
 
     public Message poll() {
-        return messages.poll();
+        if (retryCount != 0) {
+            synchronized (this) {
+                Message message = retries.poll();
+                if (message != null) {
+                    retryCount--;
+                    size.decrementAndGet();
+                    return message;
+                }
+            }
+        }
+        Message message;
+        while ((message = messages.poll()) != null && isSuperseded(message)) {
+            // its place was taken by the message that superseded it
+            message.release();
+        }
+        if (message != null) {
+            size.decrementAndGet();
+        }
+        return message;
+    }
+
+    /**
+     * Takes a polled message with a coalesce key out of the index, or tells
+     * that it has been superseded.
+     */
+    private boolean isSuperseded(Message message) {
+        Object key = coalesceKey(message);
+        if (key == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (superseded != null && superseded.remove(message)) {
+                return true;
+            }
+            pendingByKey.remove(key, message);
+            return false;
+        }
+    }
+
+    /**
+     * The number of messages waiting to be processed. Unlike the size of the
+     * underlying queue it is read in constant time.
+     *
+     * @return the number of pending messages
+     */
+    public int size() {
+        return size.get();
     }
 
     @Override
@@ -0,0 +1,266 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * An index of the known groups keyed by the primitive group identifier. Lookups
+ * of existing groups are lock-free, only the creation or removal of a group
+ * takes the lock of the segment the identifier hashes to. Groups that have
+ * been cancelled or have terminated are retired from the index and remembered
+ * in a tombstone set for the configured window.
+ *
+ * @author Brighton
+ */
+public class GroupRegistry {
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final long DEFAULT_TOMBSTONE_WINDOW = TimeUnit.MINUTES.toNanos(10);
+
+    static int hash(long groupId) {
+        long h = groupId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public GroupRegistry() {
+        this(DEFAULT_CONCURRENCY_LEVEL, DEFAULT_TOMBSTONE_WINDOW);
+    }
+
+    /**
+     * Constructor for the group registry.
+     *
+     * @param concurrencyLevel the number of independently locked segments,
+     * rounded up to a power of two.
+     * @param tombstoneWindowNanos minimum time a retired group identifier
+     * keeps being rejected.
+     */
+    public GroupRegistry(int concurrencyLevel, long tombstoneWindowNanos) {
+        int count = 1;
+        int bits = 0;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+            bits++;
+        }
+        this.segments = new Segment[count];
+        this.segmentShift = 32 - bits;
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(tombstoneWindowNanos);
+        }
+    }
+
+    /**
+     * Finds the group without taking any lock. A group that is being moved
+     * while another group is retired may be missed, so a null result is only
+     * authoritative when confirmed by {@link #find(long)} or
+     * {@link #getOrCreate(long)}.
+     *
+     * @param groupId of the group
+     * @return the registered group or null if the group was not found
+     */
+    public Group get(long groupId) {
+        int hash = hash(groupId);
+        return segmentFor(hash).get(groupId, hash);
+    }
+
+    /**
+     * Finds the group without registering it. A miss of the lock-free lookup
+     * is confirmed under the lock of the segment, so a null result means
+     * that the group is not registered.
+     *
+     * @param groupId of the group
+     * @return the registered group or null if there is none
+     */
+    public Group find(long groupId) {
+        int hash = hash(groupId);
+        Segment segment = segmentFor(hash);
+        Group group = segment.get(groupId, hash);
+        return group == null ? segment.find(groupId, hash) : group;
+    }
+
+    /**
+     * Finds the group or registers a new one. For an identifier that has been
+     * retired a detached group is returned that is either cancelled or
+     * terminated, so no further messages will be accepted for it.
+     *
+     * @param groupId of the group
+     * @return the group for the identifier
+     */
+    public Group getOrCreate(long groupId) {
+        int hash = hash(groupId);
+        Segment segment = segmentFor(hash);
+        Group group = segment.get(groupId, hash);
+        return group == null ? segment.getOrCreate(groupId, hash) : group;
+    }
+
+    /**
+     * Removes a cancelled or terminated group and records a tombstone for its
+     * identifier.
+     *
+     * @param group to be removed
+     */
+    public void retire(Group group) {
+        int hash = hash(group.getId());
+        segmentFor(hash).retire(group, hash);
+    }
+
+    /**
+     * The number of registered groups. The value is only a snapshot while
+     * groups are being added concurrently.
+     *
+     * @return the number of registered groups
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /**
+     * The number of retired group identifiers still remembered.
+     *
+     * @return the number of tombstones
+     */
+    public int tombstoneCount() {
+        long now = System.nanoTime();
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.tombstoneCount(now);
+        }
+        return size;
+    }
+
+    /**
+     * Visits the registered groups without taking any lock. Groups registered
+     * or retired during the visit may or may not be seen, and a group moved
+     * by a concurrent retirement may be seen twice.
+     *
+     * @param action performed for each group
+     */
+    public void forEach(Consumer<? super Group> action) {
+        for (Segment segment : segments) {
+            AtomicReferenceArray<Group> tab = segment.table;
+            for (int i = 0; i < tab.length(); i++) {
+                Group group = tab.get(i);
+                if (group != null) {
+                    action.accept(group);
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(int hash) {
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    /**
+     * Open addressing table with linear probing. Readers probe the published
+     * table without locking; writers hold the segment lock and publish a
+     * resized table through the volatile field.
+     */
+    private static final class Segment {
+
+        private volatile AtomicReferenceArray<Group> table;
+        private volatile int count;
+        private final TombstoneSet tombstones;
+
+        Segment(long tombstoneWindowNanos) {
+            this.table = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+            this.tombstones = new TombstoneSet(tombstoneWindowNanos, System.nanoTime());
+        }
+
+        Group get(long groupId, int hash) {
+            AtomicReferenceArray<Group> tab = table;
+            int mask = tab.length() - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                Group group = tab.get(i);
+                if (group == null || group.getId() == groupId) {
+                    return group;
+                }
+            }
+        }
+
+        synchronized Group find(long groupId, int hash) {
+            return get(groupId, hash);
+        }
+
+        synchronized Group getOrCreate(long groupId, int hash) {
+            Group group = get(groupId, hash);
+            if (group != null) {
+                return group;
+            }
+            byte state = tombstones.get(groupId, System.nanoTime());
+            if (state != TombstoneSet.NONE) {
+                return Group.retired(groupId, state == TombstoneSet.CANCELLED);
+            }
+            if ((count + 1) << 1 > table.length()) {
+                resize();
+            }
+            group = new Group(groupId);
+            insert(table, group, hash);
+            count++;
+            return group;
+        }
+
+        synchronized void retire(Group group, int hash) {
+            group.setRetired();
+            tombstones.add(group.getId(), group.isCancelled() ? TombstoneSet.CANCELLED : TombstoneSet.TERMINATED, System.nanoTime());
+            AtomicReferenceArray<Group> tab = table;
+            int mask = tab.length() - 1;
+            int i = hash & mask;
+            for (Group current = tab.get(i); current != group; current = tab.get(i)) {
+                if (current == null) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift the following entries back so that no probe sequence is
+            // broken by the free slot
+            for (int j = (i + 1) & mask;; j = (j + 1) & mask) {
+                Group next = tab.get(j);
+                if (next == null) {
+                    break;
+                }
+                int k = hash(next.getId()) & mask;
+                boolean inPlace = i <= j ? i < k && k <= j : i < k || k <= j;
+                if (!inPlace) {
+                    tab.set(i, next);
+                    i = j;
+                }
+            }
+            tab.set(i, null);
+            count--;
+        }
+
+        synchronized int tombstoneCount(long now) {
+            return tombstones.size(now);
+        }
+
+        private void resize() {
+            AtomicReferenceArray<Group> old = table;
+            AtomicReferenceArray<Group> tab = new AtomicReferenceArray<>(old.length() << 1);
+            for (int i = 0; i < old.length(); i++) {
+                Group group = old.get(i);
+                if (group != null) {
+                    insert(tab, group, hash(group.getId()));
+                }
+            }
+            table = tab;
+        }
+
+        private static void insert(AtomicReferenceArray<Group> tab, Group group, int hash) {
+            int mask = tab.length() - 1;
+            int i = hash & mask;
+            while (tab.get(i) != null) {
+                i = (i + 1) & mask;
+            }
+            tab.set(i, group);
+        }
+    }
+}
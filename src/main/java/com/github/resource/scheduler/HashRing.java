@@ -0,0 +1,85 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A consistent hash ring that maps a group to the node that owns it. Each
+ * node is placed on the ring at a number of virtual points and a group is
+ * owned by the node of the first point at or after the hash of its
+ * identifier, so a node that joins or leaves only moves the groups next to
+ * its own points. The ring is immutable, a membership change builds a new
+ * one.
+ *
+ * @author Brighton
+ */
+class HashRing {
+
+    private final List<String> members;
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param members identifiers of the nodes
+     * @param virtualNodes points of each node on the ring
+     */
+    HashRing(Collection<String> members, int virtualNodes) {
+        List<String> sorted = new ArrayList<>(members);
+        Collections.sort(sorted);
+        this.members = Collections.unmodifiableList(sorted);
+        int count = sorted.size() * virtualNodes;
+        long[][] placed = new long[count][];
+        int i = 0;
+        for (int node = 0; node < sorted.size(); node++) {
+            long seed = (long) sorted.get(node).hashCode() << 32;
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                placed[i++] = new long[]{mix(seed | replica), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (i = 0; i < count; i++) {
+            points[i] = placed[i][0];
+            owners[i] = sorted.get((int) placed[i][1]);
+        }
+    }
+
+    /**
+     * The node that owns the group.
+     *
+     * @param groupId of the group
+     * @return the identifier of the node, null if the ring has no members
+     */
+    String owner(long groupId) {
+        if (points.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(points, mix(groupId));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    List<String> getMembers() {
+        return members;
+    }
+
+    boolean contains(String nodeId) {
+        return members.contains(nodeId);
+    }
+
+    /**
+     * The finalizer of SplitMix64, spreads consecutive identifiers over the
+     * ring.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.resource.scheduler;
+
+/**
+ * A point in time copy of a {@link LatencyHistogram}. All values are in
+ * nanoseconds and accurate to the bucket they were recorded in.
+ *
+ * @author Brighton
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    HistogramSnapshot(long[] counts, long sum) {
+        long total = 0;
+        for (long bucket : counts) {
+            total += bucket;
+        }
+        this.counts = counts;
+        this.count = total;
+        this.sum = sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMax() {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    public long getP50() {
+        return getValueAtPercentile(50.0);
+    }
+
+    public long getP90() {
+        return getValueAtPercentile(90.0);
+    }
+
+    public long getP99() {
+        return getValueAtPercentile(99.0);
+    }
+
+    public long getP999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * The value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile between 0 and 100
+     * @return the value in nanoseconds, 0 when nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + getMean() + "ns p50=" + getP50() + "ns p99=" + getP99() + "ns max=" + getMax() + "ns";
+    }
+}
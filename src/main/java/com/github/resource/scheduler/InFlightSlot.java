@@ -0,0 +1,465 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Action;
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.BatchGateway;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import com.github.resource.scheduler.api.SendFailedException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Binds a resource to the message, or batch of messages, it is processing.
+ * One slot is created per permit of a resource and reused for every dispatch,
+ * so a resource with a capacity of K has K slots that are dispatched to
+ * independently. The slot is the task handed to the dispatch engine and the
+ * action signalled when a message completes, so the dispatch and completion
+ * path does not allocate.
+ * <p>
+ * A message that fails, because the send threw, its stage completed
+ * exceptionally or the gateway called {@link Message#failed}, is not
+ * completed. The slot still finishes once every message has been accounted
+ * for, so a failure never holds on to the permit, and leaves the failed
+ * messages to the scheduler.
+ *
+ * @author Brighton
+ */
+class InFlightSlot implements Runnable, Action, BiConsumer<Void, Throwable> {
+
+    private static final Logger LOG = Logger.getLogger(InFlightSlot.class.getName());
+
+    private final ResourceScheduler scheduler;
+    private final SchedulerMetrics metrics;
+    private final CompletionPublisher completions;
+    private final MessageJournal journal;
+    private final Resource resource;
+    private final List<Message> batch;
+    private final List<Group> batchGroups;
+    private final AtomicInteger remaining;
+    // failed messages and whether they may be retried, guarded by itself
+    private final Map<Message, Boolean> failed;
+    private final List<Message> failures;
+    private volatile Throwable failureCause;
+    private volatile Message message;
+    private volatile Group lastGroup;
+    private int consecutive;
+    private int homeShard;
+    private ConcurrencyLimiter limiter;
+    private CircuitBreaker breaker;
+    private volatile RateLimit rateLimit;
+    private CapabilityIndex.ResourceClass resourceClass;
+    private int classCursor;
+    private long sendNanos;
+    // membership of the ResourcePool
+    volatile int poolState;
+    volatile int poolStacked;
+    int poolIndex;
+    private final long createdNanos;
+    private volatile long dispatchedNanos;
+    private volatile long completedNanos;
+    private volatile long busyNanos;
+
+    InFlightSlot(ResourceScheduler scheduler, SchedulerMetrics metrics, Resource resource) {
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.completions = scheduler != null ? scheduler.getCompletions() : null;
+        this.journal = scheduler != null ? scheduler.getJournal() : null;
+        this.resource = resource;
+        this.batch = resource instanceof BatchGateway ? new ArrayList<>() : null;
+        this.batchGroups = batch != null ? new ArrayList<>() : null;
+        this.remaining = new AtomicInteger();
+        this.failed = new IdentityHashMap<>(2);
+        this.failures = new ArrayList<>(1);
+        this.createdNanos = System.nanoTime();
+    }
+
+    Resource getResource() {
+        return resource;
+    }
+
+    boolean isBatch() {
+        return batch != null;
+    }
+
+    /**
+     * The messages of the next batch are collected in this list. It is only
+     * modified while the slot is not in flight.
+     *
+     * @return the batch of the slot
+     */
+    List<Message> getBatch() {
+        return batch;
+    }
+
+    /**
+     * The groups that have a message in flight in the batch, once for each
+     * place in flight claimed. The list outlives the batch so that the places
+     * can be given back when the batch has completed.
+     *
+     * @return the groups of the batch
+     */
+    List<Group> getBatchGroups() {
+        return batchGroups;
+    }
+
+    /**
+     * The message being processed, for slots of resources without batches.
+     *
+     * @return the message in flight
+     */
+    Message getMessage() {
+        return message;
+    }
+
+    /**
+     * The group of the last message in the batch being processed.
+     *
+     * @return the group the resource should continue with
+     */
+    Group getLastGroup() {
+        return lastGroup;
+    }
+
+    /**
+     * Indicates whether the slot has a message or batch in flight.
+     *
+     * @return true if the resource is processing messages of the slot
+     */
+    boolean isInFlight() {
+        return dispatchedNanos != 0;
+    }
+
+    /**
+     * The fraction of time since the slot was created that the resource has
+     * spent processing messages.
+     *
+     * @param now current value of {@link System#nanoTime()}
+     * @return the busy ratio between 0 and 1
+     */
+    double getBusyRatio(long now) {
+        long dispatched = dispatchedNanos;
+        long busy = busyNanos + (dispatched == 0 ? 0 : now - dispatched);
+        long elapsed = now - createdNanos;
+        return elapsed <= 0 ? 0 : Math.min(1.0, (double) busy / elapsed);
+    }
+
+    /**
+     * The shard the resource selects from before it steals from the others.
+     *
+     * @return index of the home shard
+     */
+    int getHomeShard() {
+        return homeShard;
+    }
+
+    void setHomeShard(int homeShard) {
+        this.homeShard = homeShard;
+    }
+
+    /**
+     * The adaptive limit of the resource the slot is a permit of.
+     *
+     * @return the limiter or null if the capacity is fixed
+     */
+    ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    void setLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * The class of the capabilities of the resource, its pool holds the slot
+     * while it is free.
+     *
+     * @return the resource class
+     */
+    CapabilityIndex.ResourceClass getResourceClass() {
+        return resourceClass;
+    }
+
+    void setResourceClass(CapabilityIndex.ResourceClass resourceClass) {
+        this.resourceClass = resourceClass;
+    }
+
+    /**
+     * The requirement class the resource looks for work in first, the one
+     * after the class it last took work from.
+     *
+     * @return identifier of the requirement class
+     */
+    int getClassCursor() {
+        return classCursor;
+    }
+
+    void setClassCursor(int classCursor) {
+        this.classCursor = classCursor;
+    }
+
+    /**
+     * The circuit breaker of the resource the slot is a permit of.
+     *
+     * @return the breaker or null if disabled
+     */
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    void setBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * The token bucket of the resource the slot is a permit of, shared by
+     * its permits.
+     *
+     * @return the rate limit or null if the resource is not limited
+     */
+    RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    void setRateLimit(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * The messages of the last dispatch that failed, in dispatch order. They
+     * have not been released, the list is cleared by
+     * {@link #clearFailures()}.
+     *
+     * @return the failed messages
+     */
+    List<Message> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Indicates whether a failed message may be sent again.
+     *
+     * @param message one of the failures
+     * @return true if the failure was not permanent
+     */
+    boolean isRetryable(Message message) {
+        return Boolean.TRUE.equals(failed.get(message));
+    }
+
+    /**
+     * The cause of the last failure of the dispatch.
+     *
+     * @return the cause or null
+     */
+    Throwable getFailureCause() {
+        return failureCause;
+    }
+
+    void clearFailures() {
+        failures.clear();
+        failed.clear();
+        failureCause = null;
+    }
+
+    /**
+     * The time the last message or batch took from the send to its
+     * completion.
+     *
+     * @return the send time in nanoseconds
+     */
+    long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * The number of messages of the last group the resource has been sent in
+     * a row.
+     *
+     * @return the number of consecutive messages of the last group
+     */
+    int getConsecutive() {
+        return consecutive;
+    }
+
+    /**
+     * Prepares the slot to send a single message.
+     *
+     * @param message to be sent
+     */
+    void bind(Message message) {
+        Group group = message.getGroup();
+        this.consecutive = group == lastGroup ? consecutive + 1 : 1;
+        this.message = message;
+        this.lastGroup = group;
+        // the send holds a share so the slot finishes after it returns
+        this.remaining.set(2);
+        long now = dispatching();
+        metrics.dispatched(message, now);
+        message.setDispatchSlot(this);
+    }
+
+    /**
+     * Prepares the slot to send the collected batch.
+     */
+    void bindBatch() {
+        Group group = batch.get(batch.size() - 1).getGroup();
+        this.consecutive = group == lastGroup ? consecutive + batch.size() : batch.size();
+        this.message = null;
+        this.lastGroup = group;
+        this.remaining.set(batch.size() + 1);
+        long now = dispatching();
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            metrics.dispatched(message, now);
+            message.setDispatchSlot(this);
+        }
+    }
+
+    private long dispatching() {
+        long now = System.nanoTime();
+        if (completedNanos != 0) {
+            metrics.dispatchGap(now - completedNanos);
+        }
+        dispatchedNanos = now;
+        if (limiter != null) {
+            limiter.dispatched();
+        }
+        return now;
+    }
+
+    /**
+     * Sends the bound message or batch to the resource. A send that throws
+     * fails the messages it has not completed.
+     */
+    @Override
+    public void run() {
+        try {
+            if (batch != null) {
+                ((BatchGateway) resource).send(batch);
+            } else if (resource instanceof AsyncGateway) {
+                ((AsyncGateway) resource).sendAsync(message).whenComplete(this);
+            } else {
+                resource.send(message);
+            }
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "send failed. " + resource, ex);
+            boolean retryable = isRetryable(ex);
+            if (batch != null) {
+                // the batch is not released before the share of the send
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).failed(ex, retryable);
+                }
+            } else {
+                message.failed(ex, retryable);
+            }
+        }
+        perform();
+    }
+
+    /**
+     * Completes the message once a non-blocking send has finished.
+     */
+    @Override
+    public void accept(Void result, Throwable error) {
+        Message sent = message;
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            LOG.log(Level.WARNING, "send failed. " + sent, cause);
+            sent.failed(cause, isRetryable(cause));
+        } else {
+            sent.completed();
+        }
+    }
+
+    static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * A failure is retryable unless the gateway said otherwise.
+     *
+     * @param cause of the failure
+     * @return false for a permanent {@link SendFailedException}
+     */
+    static boolean isRetryable(Throwable cause) {
+        return !(cause instanceof SendFailedException) || ((SendFailedException) cause).isRetryable();
+    }
+
+    /**
+     * Signalled by a message of the slot that could not be processed.
+     */
+    @Override
+    public void failed(Message message, Throwable cause, boolean retryable) {
+        synchronized (failed) {
+            failed.put(message, retryable);
+        }
+        failureCause = cause;
+        perform();
+    }
+
+    /**
+     * Signalled by each message of the slot once it has completed, and by
+     * the send once it has returned.
+     */
+    @Override
+    public void perform() {
+        if (remaining.decrementAndGet() == 0) {
+            long now = System.nanoTime();
+            long sent = now - dispatchedNanos;
+            busyNanos += sent;
+            sendNanos = sent;
+            dispatchedNanos = 0;
+            completedNanos = now;
+            // every failure was recorded before its share was given back
+            boolean failures = !failed.isEmpty();
+            if (batch != null) {
+                int count = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    Message completed = batch.get(i);
+                    if (failures && failed.containsKey(completed)) {
+                        this.failures.add(completed);
+                    } else {
+                        completed(completed, sent, now);
+                        count++;
+                    }
+                }
+                batch.clear();
+                if (count > 0) {
+                    metrics.completed(count, sent);
+                }
+            } else {
+                Message completed = message;
+                message = null;
+                if (failures) {
+                    this.failures.add(completed);
+                } else {
+                    completed(completed, sent, now);
+                    metrics.completed(1, sent);
+                }
+            }
+            scheduler.slotCompleted(this);
+        }
+    }
+
+    private void completed(Message completed, long sent, long now) {
+        if (completions != null && completions.hasSubscribers()) {
+            completions.publish(new CompletionEvent(completed, resource, sent, now - completed.getReceivedNanos()));
+        }
+        if (journal != null) {
+            journal.completed(completed);
+        }
+        completed.release();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatch engine running each send on the calling thread. A send that
+ * completes synchronously triggers the next dispatch from within the send, so
+ * nested sends are queued and run by the outermost call instead of growing the
+ * stack.
+ *
+ * @author Brighton
+ */
+class InlineDispatchEngine implements DispatchEngine {
+
+    private static final Logger LOG = Logger.getLogger(InlineDispatchEngine.class.getName());
+
+    private final ThreadLocal<Trampoline> trampolines = ThreadLocal.withInitial(Trampoline::new);
+
+    @Override
+    public void execute(Runnable send) {
+        Trampoline trampoline = trampolines.get();
+        if (trampoline.running) {
+            trampoline.sends.add(send);
+            return;
+        }
+        trampoline.running = true;
+        try {
+            for (Runnable next = send; next != null; next = trampoline.sends.poll()) {
+                try {
+                    next.run();
+                } catch (RuntimeException ex) {
+                    LOG.log(Level.SEVERE, ex.getMessage(), ex);
+                }
+            }
+        } finally {
+            trampoline.running = false;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * The sends queued on one thread while an outer send is running.
+     */
+    private static final class Trampoline {
+
+        private final ArrayDeque<Runnable> sends = new ArrayDeque<>();
+        private boolean running;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets, each power
+ * of two is split in sixteen buckets so a recorded value is off by at most
+ * 1/16th. Recording is spread over several stripes so concurrent threads
+ * rarely update the same counter, a snapshot adds the stripes up.
+ *
+ * @author Brighton
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+
+    static int index(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * The largest value that falls into the bucket.
+     */
+    static long highestValue(int index) {
+        int shift = Math.max(0, index / SUB_BUCKET_HALF - 1);
+        long sub = index - shift * SUB_BUCKET_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public LatencyHistogram() {
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        this.stripes = new AtomicLongArray[count];
+        this.mask = count - 1;
+        for (int i = 0; i < count; i++) {
+            // the last slot of each stripe holds the sum of the values
+            this.stripes[i] = new AtomicLongArray(BUCKET_COUNT + 1);
+        }
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(index(nanos));
+        stripe.addAndGet(BUCKET_COUNT, Math.max(0, nanos));
+    }
+
+    /**
+     * Takes a copy of the recorded values. Values recorded while the snapshot
+     * is taken may or may not be included.
+     *
+     * @return the snapshot
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(BUCKET_COUNT);
+        }
+        return new HistogramSnapshot(counts, sum);
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.resource.scheduler;
+
+/**
+ * The ways the scheduler can adapt the capacity of each resource to the
+ * latency it observes between a send and the completion of the message.
+ *
+ * @author Brighton
+ */
+public enum LimitAlgorithm {
+
+    /**
+     * The capacity of a resource only changes through
+     * {@link ResourceScheduler#setResourceCapacity}.
+     */
+    FIXED,
+    /**
+     * Additive increase, multiplicative decrease. The limit grows by one
+     * permit per round of completions while the latency stays within a
+     * tolerance of the lowest latency seen recently, and is cut by a tenth
+     * once per round when it does not.
+     */
+    AIMD,
+    /**
+     * The limit follows the gradient between the lowest recent latency and
+     * the current latency, plus a small headroom that probes for more
+     * capacity. It backs off smoothly as a queue builds up in the resource.
+     */
+    GRADIENT
+}
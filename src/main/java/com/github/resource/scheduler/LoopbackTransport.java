@@ -0,0 +1,158 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.ClusterPeer;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.MessageSerializer;
+import com.github.resource.scheduler.api.SendFailedException;
+import com.github.resource.scheduler.api.Transport;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A transport between the nodes of a cluster in one process, for tests and
+ * benchmarks of several nodes on one machine. Requests are calls on the
+ * thread of the sender. A forwarded message is handed to its owner as it is,
+ * the owner completes it; a message sent on a lent permit stays with its
+ * borrower, so the lender is given a copy written and read by the
+ * serializer, as a transport between processes would.
+ *
+ * @author Brighton
+ */
+public class LoopbackTransport implements Transport {
+
+    private final MessageSerializer serializer;
+    private final Map<String, ClusterPeer> peers = new ConcurrentHashMap<>();
+    // guarded by the transport
+    private final Set<String> members = new LinkedHashSet<>();
+
+    public LoopbackTransport() {
+        this(new DefaultMessageSerializer());
+    }
+
+    /**
+     * @param serializer copies the messages sent on lent permits
+     */
+    public LoopbackTransport(MessageSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public synchronized void join(String nodeId, ClusterPeer peer) throws Exception {
+        if (peers.putIfAbsent(nodeId, new Loopback(peer)) != null) {
+            throw new Exception("Node " + nodeId + " is already connected");
+        }
+        members.add(nodeId);
+        announce(members);
+    }
+
+    @Override
+    public synchronized void leave(String nodeId) {
+        if (members.remove(nodeId)) {
+            Set<String> told = new LinkedHashSet<>(members);
+            told.add(nodeId);
+            announce(told);
+        }
+    }
+
+    @Override
+    public synchronized void disconnect(String nodeId) {
+        leave(nodeId);
+        peers.remove(nodeId);
+    }
+
+    @Override
+    public ClusterPeer connect(String nodeId) throws Exception {
+        ClusterPeer peer = peers.get(nodeId);
+        if (peer == null) {
+            throw new Exception("Node " + nodeId + " is not connected");
+        }
+        return peer;
+    }
+
+    /**
+     * Tells the nodes the current members. Guarded by the transport.
+     *
+     * @param told the nodes to tell
+     */
+    private void announce(Collection<String> told) {
+        List<String> snapshot = new ArrayList<>(members);
+        for (String nodeId : told) {
+            peers.get(nodeId).membershipChanged(snapshot);
+        }
+    }
+
+    private Message copy(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            serializer.write(message, out);
+        }
+        return serializer.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Delivers the requests to a node of the process.
+     */
+    private final class Loopback implements ClusterPeer {
+
+        private final ClusterPeer peer;
+
+        Loopback(ClusterPeer peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void forward(Message message) throws Exception {
+            peer.forward(message);
+        }
+
+        @Override
+        public CompletionStage<List<Message>> handOff(long groupId) {
+            return peer.handOff(groupId);
+        }
+
+        @Override
+        public Map<Set<String>, Integer> lend(String borrowerId, int permits) {
+            return peer.lend(borrowerId, permits);
+        }
+
+        @Override
+        public CompletionStage<Void> send(String borrowerId, Set<String> capabilities, Message message) {
+            Message copy;
+            try {
+                copy = copy(message);
+            } catch (IOException ex) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new SendFailedException("message not copied to the lender", ex, false));
+                return failed;
+            }
+            return peer.send(borrowerId, capabilities, copy);
+        }
+
+        @Override
+        public void giveBack(String borrowerId) {
+            peer.giveBack(borrowerId);
+        }
+
+        @Override
+        public long getQueuedMessageCount() {
+            return peer.getQueuedMessageCount();
+        }
+
+        @Override
+        public void membershipChanged(Collection<String> members) {
+            peer.membershipChanged(members);
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.MessageSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of the messages accepted by a scheduler, their
+ * completion and the cancellation and termination of their groups. The log is
+ * split into segment files named after the first sequence they hold. Records
+ * are appended through a buffer to the active segment, which is rolled once it
+ * exceeds the segment size.
+ * <p>
+ * Forcing the log to disk is a group commit: a receiver waiting for its
+ * record forces everything appended so far, and the receivers that append
+ * while the force is running share the next one. With a sync interval the
+ * receivers do not wait and the log is forced in the background.
+ * <p>
+ * A segment is deleted once it and every older segment hold no message that
+ * is still queued or in flight. Each new segment starts with the groups that
+ * are closed, so their state survives the deletion of the segments that
+ * recorded it. A record is framed by its length and checksum, recovery stops
+ * at the first torn record.
+ * <p>
+ * Each segment starts with a marker and the version of the format of its
+ * records, including the fields the {@link DefaultMessageSerializer} writes.
+ * Recovery refuses a segment of another version rather than misread it.
+ *
+ * @author Brighton
+ */
+class MessageJournal {
+
+    private static final Logger LOG = Logger.getLogger(MessageJournal.class.getName());
+
+    static final byte ACCEPTED = 1;
+    static final byte COMPLETED = 2;
+    static final byte CANCELLED = 3;
+    static final byte TERMINATED = 4;
+
+    static final byte VERSION = 1;
+    private static final int MAGIC = 0x52534a4c;
+    // marker and version
+    private static final int SEGMENT_HEADER = 5;
+
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    // length and checksum, then type, sequence and group
+    private static final int FRAME = 8;
+    private static final int HEADER = FRAME + 17;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long BACKGROUND_SYNC_MILLIS = 100;
+
+    private final Path directory;
+    private final MessageSerializer serializer;
+    private final long segmentBytes;
+    private final long syncIntervalMillis;
+    private final long closedWindowNanos;
+    private final ThreadLocal<Encoder> encoders;
+    private final TreeMap<Long, Segment> segments;
+    private final Map<Long, Closed> closed;
+    private final ByteBuffer buffer;
+    private final CRC32 crc;
+    private final Encoder snapshot;
+    private final Object syncLock;
+    private ScheduledExecutorService flusher;
+    private Segment active;
+    private long nextSequence;
+    private long appended;
+    private volatile long durable;
+
+    /**
+     * @param directory of the segment files
+     * @param serializer of the messages
+     * @param segmentBytes size after which a segment is rolled
+     * @param syncIntervalMillis interval of the background force, or 0 for
+     * receivers to wait for their records to be forced
+     * @param closedWindowNanos how long a closed group is remembered, the
+     * tombstone window of the scheduler
+     */
+    MessageJournal(Path directory, MessageSerializer serializer, long segmentBytes, long syncIntervalMillis, long closedWindowNanos) {
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentBytes = Math.max(HEADER, segmentBytes);
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.closedWindowNanos = closedWindowNanos;
+        this.encoders = ThreadLocal.withInitial(Encoder::new);
+        this.segments = new TreeMap<>();
+        this.closed = new LinkedHashMap<>();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.crc = new CRC32();
+        this.snapshot = new Encoder();
+        this.syncLock = new Object();
+        this.nextSequence = 1;
+    }
+
+    /**
+     * Reads the segments in the directory and opens a new segment for
+     * appending. The messages that had not completed are returned in the
+     * order they were accepted, with their sequence set.
+     *
+     * @return the state to be restored
+     * @throws IOException if the directory can not be read, or holds a
+     * segment of another format version
+     */
+    synchronized Recovery recover() throws IOException {
+        Files.createDirectories(directory);
+        LinkedHashMap<Long, Message> live = new LinkedHashMap<>();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        long now = System.nanoTime();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            Segment segment = new Segment(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+            segments.put(segment.firstSequence, segment);
+            read(segment, i == files.size() - 1, live, now);
+        }
+        for (Message message : live.values()) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(message.getJournalSequence());
+            if (entry != null) {
+                entry.getValue().live++;
+            }
+        }
+        roll();
+        compact();
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "resource-scheduler-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = syncIntervalMillis > 0 ? syncIntervalMillis : BACKGROUND_SYNC_MILLIS;
+            flusher.scheduleWithFixedDelay(this::syncAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        Map<Long, Boolean> groups = new LinkedHashMap<>();
+        for (Map.Entry<Long, Closed> entry : closed.entrySet()) {
+            groups.put(entry.getKey(), entry.getValue().cancelled);
+        }
+        return new Recovery(new ArrayList<>(live.values()), groups);
+    }
+
+    private void read(Segment segment, boolean last, Map<Long, Message> live, long now) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < SEGMENT_HEADER) {
+                // created but its header never reached the disk
+                segment.size = 0;
+                if (size > 0 && last) {
+                    channel.truncate(0);
+                }
+                return;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt(0) != MAGIC) {
+                throw new IOException(segment.path + " is not a journal segment");
+            }
+            byte version = mapped.get(4);
+            if (version != VERSION) {
+                throw new IOException(segment.path + " has journal format version " + version + ", version " + VERSION + " is supported");
+            }
+            int position = SEGMENT_HEADER;
+            while (size - position >= HEADER) {
+                int length = mapped.getInt(position);
+                int checksum = mapped.getInt(position + 4);
+                if (length < HEADER || length > size - position) {
+                    break;
+                }
+                byte[] record = new byte[length - FRAME];
+                mapped.get(position + FRAME, record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(record, live, now);
+                position += length;
+            }
+            segment.size = position;
+            if (position < size) {
+                LOG.log(Level.WARNING, "{0} is torn at {1} of {2} bytes", new Object[]{segment.path, position, size});
+                if (last) {
+                    channel.truncate(position);
+                }
+            }
+        }
+    }
+
+    private void apply(byte[] record, Map<Long, Message> live, long now) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(record);
+        byte type = header.get();
+        long sequence = header.getLong();
+        long groupId = header.getLong();
+        switch (type) {
+            case ACCEPTED:
+                Message message = serializer.read(new DataInputStream(new ByteArrayInputStream(record, header.position(), header.remaining())));
+                message.setJournalSequence(sequence);
+                live.put(sequence, message);
+                closed.remove(groupId);
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                break;
+            case COMPLETED:
+                live.remove(sequence);
+                break;
+            case CANCELLED:
+                live.values().removeIf((queued) -> queued.getGroupId() == groupId);
+                closed.put(groupId, new Closed(true, now));
+                break;
+            case TERMINATED:
+                closed.putIfAbsent(groupId, new Closed(false, now));
+                break;
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    /**
+     * Appends a message that has been accepted and sets its sequence.
+     *
+     * @param message accepted
+     * @return the position the log has to be forced to for the message to be
+     * durable
+     * @throws IOException if the serializer can not write the message,
+     * nothing has been appended then
+     */
+    long accepted(Message message) throws IOException {
+        Encoder encoder = encoders.get();
+        encoder.begin(ACCEPTED, message.getGroupId());
+        serializer.write(message, encoder.out);
+        synchronized (this) {
+            // the segment of the message is the one its sequence falls in
+            rollIfFull(encoder.size());
+            long sequence = nextSequence++;
+            message.setJournalSequence(sequence);
+            if (!closed.isEmpty()) {
+                closed.remove(message.getGroupId());
+            }
+            long position = append(encoder.seal(sequence));
+            active.live++;
+            return position;
+        }
+    }
+
+    /**
+     * Records that a message has completed, or will not be processed after
+     * all.
+     *
+     * @param message that has completed
+     */
+    void completed(Message message) {
+        long sequence = message.getJournalSequence();
+        if (sequence == 0) {
+            return;
+        }
+        Encoder encoder = encoders.get();
+        encoder.begin(COMPLETED, message.getGroupId());
+        synchronized (this) {
+            if (active == null) {
+                // closed, the message is recovered again
+                return;
+            }
+            append(encoder.seal(sequence));
+            released(sequence);
+        }
+    }
+
+    /**
+     * Forgets a message discarded with its cancelled group, the cancellation
+     * record covers it.
+     *
+     * @param message discarded
+     */
+    synchronized void discarded(Message message) {
+        long sequence = message.getJournalSequence();
+        if (sequence != 0) {
+            released(sequence);
+        }
+    }
+
+    void cancelled(long groupId) {
+        closed(CANCELLED, groupId);
+    }
+
+    void terminated(long groupId) {
+        closed(TERMINATED, groupId);
+    }
+
+    private void closed(byte type, long groupId) {
+        Encoder encoder = encoders.get();
+        encoder.begin(type, groupId);
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            append(encoder.seal(0));
+            Closed previous = closed.get(groupId);
+            if (previous == null || !previous.cancelled) {
+                closed.put(groupId, new Closed(type == CANCELLED, System.nanoTime()));
+            }
+        }
+    }
+
+    private void released(long sequence) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        if (entry != null && --entry.getValue().live == 0) {
+            compact();
+        }
+    }
+
+    /**
+     * Waits until the log has been forced up to the position, unless a sync
+     * interval is configured.
+     *
+     * @param position returned by {@link #accepted}
+     */
+    void sync(long position) {
+        if (syncIntervalMillis == 0 && durable < position) {
+            force(position);
+        }
+    }
+
+    private void syncAll() {
+        long position;
+        synchronized (this) {
+            position = appended;
+        }
+        if (durable < position) {
+            try {
+                force(position);
+            } catch (UncheckedIOException ex) {
+                LOG.log(Level.SEVERE, "journal can not be forced", ex);
+            }
+        }
+    }
+
+    private void force(long position) {
+        synchronized (syncLock) {
+            if (durable >= position) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                if (active == null) {
+                    return;
+                }
+                flush();
+                target = appended;
+                channel = active.channel;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException ex) {
+                // the segment was forced when it was rolled or closed
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Journal can not be forced", ex);
+            }
+            durable = target;
+        }
+    }
+
+    /**
+     * Forces the log and closes the active segment.
+     */
+    void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            try {
+                flush();
+                active.channel.force(false);
+                active.channel.close();
+            } catch (IOException ex) {
+                LOG.log(Level.SEVERE, "journal can not be closed", ex);
+            }
+            active = null;
+        }
+    }
+
+    /**
+     * The number of segment files, for the tests of the compaction.
+     *
+     * @return the number of segments
+     */
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private long append(byte[] record, int length) {
+        try {
+            rollIfFull(length);
+            if (buffer.remaining() < length) {
+                flush();
+            }
+            if (length > buffer.capacity()) {
+                ByteBuffer direct = ByteBuffer.wrap(record, 0, length);
+                while (direct.hasRemaining()) {
+                    active.channel.write(direct);
+                }
+            } else {
+                buffer.put(record, 0, length);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Journal can not be written", ex);
+        }
+        active.size += length;
+        appended += length;
+        return appended;
+    }
+
+    /**
+     * Rolls the active segment if the record does not fit. A segment that has
+     * not accepted a message is not rolled, segments are named after their
+     * first sequence.
+     *
+     * @param length of the record
+     */
+    private void rollIfFull(int length) {
+        if (active == null) {
+            throw new UncheckedIOException(new ClosedChannelException());
+        }
+        if (active.size + length > segmentBytes && active.firstSequence < nextSequence) {
+            try {
+                roll();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Journal segment can not be rolled", ex);
+            }
+        }
+    }
+
+    private long append(Encoder encoder) {
+        return append(encoder.bytes(), encoder.size());
+    }
+
+    private void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                active.channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Journal can not be written", ex);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Seals the active segment and starts a new one with the closed groups.
+     */
+    private void roll() throws IOException {
+        if (active != null) {
+            flush();
+            active.channel.force(false);
+            active.channel.close();
+            active.channel = null;
+        }
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, nextSequence, SUFFIX));
+        Segment segment = new Segment(nextSequence, path);
+        segment.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment.size = segment.channel.size();
+        segments.put(segment.firstSequence, segment);
+        active = segment;
+        if (segment.size == 0) {
+            buffer.putInt(MAGIC).put(VERSION);
+            active.size += SEGMENT_HEADER;
+            appended += SEGMENT_HEADER;
+        }
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Long, Closed>> i = closed.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Long, Closed> entry = i.next();
+            if (now - entry.getValue().nanos > closedWindowNanos) {
+                i.remove();
+                continue;
+            }
+            snapshot.begin(entry.getValue().cancelled ? CANCELLED : TERMINATED, entry.getKey());
+            snapshot.seal(0);
+            if (buffer.remaining() < snapshot.size()) {
+                flush();
+            }
+            buffer.put(snapshot.bytes(), 0, snapshot.size());
+            active.size += snapshot.size();
+            appended += snapshot.size();
+        }
+    }
+
+    /**
+     * Deletes the oldest segments while they hold no live message.
+     */
+    private void compact() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.live > 0) {
+                return;
+            }
+            segments.pollFirstEntry();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "journal segment can not be deleted " + oldest.path, ex);
+            }
+        }
+    }
+
+    /**
+     * The messages and closed groups read from the journal.
+     */
+    static final class Recovery {
+
+        private final List<Message> messages;
+        private final Map<Long, Boolean> closedGroups;
+
+        Recovery(List<Message> messages, Map<Long, Boolean> closedGroups) {
+            this.messages = messages;
+            this.closedGroups = closedGroups;
+        }
+
+        /**
+         * The messages that had not completed, in the order accepted.
+         *
+         * @return the messages to be received again
+         */
+        List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * The groups that had been closed.
+         *
+         * @return true for a cancelled group, false for a terminated one, by
+         * group identifier
+         */
+        Map<Long, Boolean> getClosedGroups() {
+            return closedGroups;
+        }
+    }
+
+    private static final class Segment {
+
+        final long firstSequence;
+        final Path path;
+        FileChannel channel;
+        long size;
+        int live;
+
+        Segment(long firstSequence, Path path) {
+            this.firstSequence = firstSequence;
+            this.path = path;
+        }
+    }
+
+    private static final class Closed {
+
+        final boolean cancelled;
+        final long nanos;
+
+        Closed(boolean cancelled, long nanos) {
+            this.cancelled = cancelled;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Encodes a record outside the lock of the journal. The sequence and
+     * checksum are filled in once the sequence has been assigned.
+     */
+    private static final class Encoder extends ByteArrayOutputStream {
+
+        final DataOutputStream out;
+        private final CRC32 crc;
+
+        Encoder() {
+            super(256);
+            this.out = new DataOutputStream(this);
+            this.crc = new CRC32();
+        }
+
+        void begin(byte type, long groupId) {
+            reset();
+            try {
+                out.writeLong(0);
+                out.writeByte(type);
+                out.writeLong(0);
+                out.writeLong(groupId);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        Encoder seal(long sequence) {
+            ByteBuffer record = ByteBuffer.wrap(buf, 0, count);
+            record.putLong(FRAME + 1, sequence);
+            crc.reset();
+            crc.update(buf, FRAME, count - FRAME);
+            record.putInt(0, count);
+            record.putInt(4, (int) crc.getValue());
+            return this;
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
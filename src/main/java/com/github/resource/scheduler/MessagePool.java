@@ -0,0 +1,174 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of recyclable messages. Each thread keeps a small cache of free
+ * messages; a thread whose cache is full, typically a completion thread, hands
+ * messages over to one of several shared stripes, from which a thread with an
+ * empty cache, typically a producer, takes them again. Neither path allocates
+ * once the pool has warmed up.
+ * <p>
+ * In debug mode, enabled by the system property
+ * {@code resource.scheduler.pool.debug} or the constructor, a recycled message
+ * throws when it is used or released again.
+ *
+ * @author Brighton
+ */
+public class MessagePool {
+
+    private static final boolean DEBUG = Boolean.getBoolean("resource.scheduler.pool.debug");
+
+    private final boolean debug;
+    private final int cacheCapacity;
+    private final Stripe[] stripes;
+    private final ThreadLocal<Cache> caches;
+    private final AtomicInteger nextStripe;
+    private final LongAdder allocated;
+
+    public MessagePool() {
+        this(64, Runtime.getRuntime().availableProcessors(), 1024, DEBUG);
+    }
+
+    /**
+     * Constructor for the message pool.
+     *
+     * @param cacheCapacity free messages kept per thread
+     * @param stripeCount number of shared stripes, rounded up to a power of two
+     * @param stripeCapacity free messages kept per stripe, further messages are
+     * left to the garbage collector
+     * @param debug true to detect messages used after they were recycled
+     */
+    public MessagePool(int cacheCapacity, int stripeCount, int stripeCapacity, boolean debug) {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        this.debug = debug;
+        this.cacheCapacity = cacheCapacity;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe(stripeCapacity);
+        }
+        this.nextStripe = new AtomicInteger();
+        this.caches = ThreadLocal.withInitial(() -> new Cache(cacheCapacity, nextStripe.getAndIncrement() & (stripes.length - 1)));
+        this.allocated = new LongAdder();
+    }
+
+    /**
+     * Takes a message from the pool, or creates one when the pool is empty.
+     *
+     * @param id of the message
+     * @param groupId of the group the message belongs to
+     * @return a message ready to be used
+     */
+    public PooledMessage acquire(long id, long groupId) {
+        Cache cache = caches.get();
+        PooledMessage message = cache.pop();
+        if (message == null) {
+            message = takeShared(cache.stripe);
+        }
+        if (message == null) {
+            allocated.increment();
+            message = new PooledMessage(this);
+        }
+        message.reuse(id, groupId);
+        return message;
+    }
+
+    /**
+     * The number of messages created because the pool was empty.
+     *
+     * @return the number of allocated messages
+     */
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+
+    boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Returns a message that has been recycled.
+     *
+     * @param message no longer in use
+     */
+    void release(PooledMessage message) {
+        Cache cache = caches.get();
+        if (!cache.push(message)) {
+            stripes[cache.stripe].push(message);
+        }
+    }
+
+    private PooledMessage takeShared(int home) {
+        for (int i = 0; i < stripes.length; i++) {
+            PooledMessage message = stripes[(home + i) & (stripes.length - 1)].pop();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The free messages of one thread.
+     */
+    private static final class Cache {
+
+        private final PooledMessage[] messages;
+        private final int stripe;
+        private int size;
+
+        Cache(int capacity, int stripe) {
+            this.messages = new PooledMessage[capacity];
+            this.stripe = stripe;
+        }
+
+        PooledMessage pop() {
+            if (size == 0) {
+                return null;
+            }
+            PooledMessage message = messages[--size];
+            messages[size] = null;
+            return message;
+        }
+
+        boolean push(PooledMessage message) {
+            if (size == messages.length) {
+                return false;
+            }
+            messages[size++] = message;
+            return true;
+        }
+    }
+
+    /**
+     * A bounded stack of free messages shared between threads.
+     */
+    private static final class Stripe {
+
+        private final PooledMessage[] messages;
+        private int size;
+
+        Stripe(int capacity) {
+            this.messages = new PooledMessage[capacity];
+        }
+
+        synchronized PooledMessage pop() {
+            if (size == 0) {
+                return null;
+            }
+            PooledMessage message = messages[--size];
+            messages[size] = null;
+            return message;
+        }
+
+        synchronized void push(PooledMessage message) {
+            if (size < messages.length) {
+                messages[size++] = message;
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Action;
+import com.github.resource.scheduler.api.Message;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A recyclable message taken from a {@link MessagePool}. The scheduler
+ * releases it back to its pool once it has been completed and every completed
+ * action has run, after which it must not be used by the producer any more.
+ *
+ * @author Brighton
+ */
+public class PooledMessage implements Message {
+
+    private static final AtomicReferenceFieldUpdater<PooledMessage, Action> DISPATCH_SLOT
+            = AtomicReferenceFieldUpdater.newUpdater(PooledMessage.class, Action.class, "dispatchSlot");
+
+    private final MessagePool pool;
+    private final boolean debug;
+    private Action[] completedActions;
+    private int completedActionCount;
+    private volatile Action dispatchSlot;
+    private Group group;
+    private long receivedNanos;
+    private long journalSequence;
+    private long notBefore;
+    private long deadline;
+    private int attempts;
+    private Set<String> requirements = Collections.emptySet();
+    private Object coalesceKey;
+    private long id;
+    private long groupId;
+    private boolean terminationMessage;
+    private int priority;
+    private Object payload;
+    private volatile boolean recycled;
+
+    PooledMessage(MessagePool pool) {
+        this.pool = pool;
+        this.debug = pool.isDebug();
+        this.completedActions = new Action[2];
+    }
+
+    void reuse(long id, long groupId) {
+        this.id = id;
+        this.groupId = groupId;
+        this.recycled = false;
+    }
+
+    public long getId() {
+        checkLive();
+        return id;
+    }
+
+    /**
+     * Application data carried by the message.
+     *
+     * @return the payload
+     */
+    public Object getPayload() {
+        checkLive();
+        return payload;
+    }
+
+    public void setPayload(Object payload) {
+        checkLive();
+        this.payload = payload;
+    }
+
+    @Override
+    public void completed() {
+        checkLive();
+        Action[] actions = completedActions;
+        for (int i = 0; i < completedActionCount; i++) {
+            actions[i].perform();
+        }
+        // taken once, a racing completion or failure finds no slot
+        Action slot = DISPATCH_SLOT.getAndSet(this, null);
+        if (slot != null) {
+            slot.perform();
+        }
+    }
+
+    @Override
+    public void failed(Throwable cause, boolean retryable) {
+        checkLive();
+        Action slot = DISPATCH_SLOT.getAndSet(this, null);
+        if (slot != null) {
+            slot.failed(this, cause, retryable);
+        }
+    }
+
+    @Override
+    public void coalesced(Message by) {
+        checkLive();
+        Action[] actions = completedActions;
+        for (int i = 0; i < completedActionCount; i++) {
+            actions[i].coalesced(this, by);
+        }
+    }
+
+    @Override
+    public synchronized void addCompletedAction(Action action) {
+        checkLive();
+        if (completedActionCount == completedActions.length) {
+            completedActions = Arrays.copyOf(completedActions, completedActionCount << 1);
+        }
+        completedActions[completedActionCount++] = action;
+    }
+
+    @Override
+    public void setDispatchSlot(Action slot) {
+        checkLive();
+        this.dispatchSlot = slot;
+    }
+
+    @Override
+    public int getPriority() {
+        checkLive();
+        return this.priority;
+    }
+
+    public void setPriority(int priority) {
+        checkLive();
+        this.priority = priority;
+    }
+
+    @Override
+    public void setReceivedNanos(long nanos) {
+        checkLive();
+        this.receivedNanos = nanos;
+    }
+
+    @Override
+    public long getReceivedNanos() {
+        return this.receivedNanos;
+    }
+
+    @Override
+    public void setJournalSequence(long sequence) {
+        checkLive();
+        this.journalSequence = sequence;
+    }
+
+    @Override
+    public long getJournalSequence() {
+        return this.journalSequence;
+    }
+
+    @Override
+    public long getNotBefore() {
+        return this.notBefore;
+    }
+
+    public void setNotBefore(long notBefore) {
+        checkLive();
+        this.notBefore = notBefore;
+    }
+
+    @Override
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        checkLive();
+        this.deadline = deadline;
+    }
+
+    @Override
+    public Set<String> getRequirements() {
+        return this.requirements;
+    }
+
+    public void setRequirements(Set<String> requirements) {
+        checkLive();
+        this.requirements = requirements == null ? Collections.<String>emptySet() : requirements;
+    }
+
+    @Override
+    public Object getCoalesceKey() {
+        return this.coalesceKey;
+    }
+
+    public void setCoalesceKey(Object coalesceKey) {
+        checkLive();
+        this.coalesceKey = coalesceKey;
+    }
+
+    @Override
+    public void setAttempts(int attempts) {
+        checkLive();
+        this.attempts = attempts;
+    }
+
+    @Override
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    @Override
+    public void setGroup(Group group) {
+        checkLive();
+        this.group = group;
+    }
+
+    @Override
+    public Group getGroup() {
+        checkLive();
+        return this.group;
+    }
+
+    @Override
+    public long getGroupId() {
+        checkLive();
+        return this.groupId;
+    }
+
+    public void setTerminationMessage(boolean terminationMessage) {
+        checkLive();
+        this.terminationMessage = terminationMessage;
+    }
+
+    @Override
+    public boolean isTerminationMessage() {
+        checkLive();
+        return this.terminationMessage;
+    }
+
+    /**
+     * Clears the message and returns it to its pool.
+     */
+    @Override
+    public synchronized void release() {
+        if (debug && recycled) {
+            throw new IllegalStateException("message" + id + " (group" + groupId + ") has already been recycled");
+        }
+        Arrays.fill(completedActions, 0, completedActionCount, null);
+        completedActionCount = 0;
+        dispatchSlot = null;
+        group = null;
+        receivedNanos = 0;
+        journalSequence = 0;
+        notBefore = 0;
+        deadline = 0;
+        attempts = 0;
+        requirements = Collections.emptySet();
+        coalesceKey = null;
+        payload = null;
+        terminationMessage = false;
+        priority = 0;
+        recycled = true;
+        pool.release(this);
+    }
+
+    private void checkLive() {
+        if (debug && recycled) {
+            throw new IllegalStateException("message" + id + " (group" + groupId + ") used after it was recycled");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "message" + id + " (group" + groupId + ")";
+    }
+}
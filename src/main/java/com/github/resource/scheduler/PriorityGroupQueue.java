@@ -0,0 +1,244 @@
+package com.github.resource.scheduler;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the ready groups by priority. Groups of equal priority are served in
+ * the order they became ready and a group goes behind its peers each time one
+ * of its messages is dispatched. To prevent starvation, a group gains one
+ * priority level for every aging quantum it has been waiting: the sort key is
+ * the time the group became ready less its priority times the quantum, so the
+ * key never has to be updated while the group waits.
+ * <p>
+ * The groups are kept in a binary heap that records the position of each
+ * group, a change of priority or a dispatch repositions the group in
+ * O(log n). The queue is not thread-safe, the scheduler guards it with its
+ * queue lock.
+ *
+ * @author Brighton
+ */
+public class PriorityGroupQueue extends AbstractQueue<Group> implements SchedulingQueue {
+
+    private static final long DEFAULT_AGING_QUANTUM = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BOOST = Long.MAX_VALUE >> 2;
+
+    private final long agingQuantumNanos;
+    private final long origin;
+    private Group[] heap;
+    private int size;
+    private volatile long headKey;
+
+    public PriorityGroupQueue() {
+        this(DEFAULT_AGING_QUANTUM);
+    }
+
+    /**
+     * Constructor for the priority group queue.
+     *
+     * @param agingQuantumNanos waiting time worth one priority level
+     */
+    public PriorityGroupQueue(long agingQuantumNanos) {
+        this.agingQuantumNanos = Math.max(1, agingQuantumNanos);
+        this.origin = System.nanoTime();
+        this.heap = new Group[16];
+        this.headKey = Long.MAX_VALUE;
+    }
+
+    long getAgingQuantumNanos() {
+        return agingQuantumNanos;
+    }
+
+    /**
+     * The sort key of a group that becomes ready now, relative to the
+     * creation of the queue so that it cannot overflow.
+     */
+    private long key(Group group, long readyNanos) {
+        long priority = group.getPriority();
+        long boost = priority * agingQuantumNanos;
+        if (Math.multiplyHigh(priority, agingQuantumNanos) != boost >> 63 || Math.abs(boost) > MAX_BOOST) {
+            boost = priority > 0 ? MAX_BOOST : -MAX_BOOST;
+        }
+        return readyNanos - boost;
+    }
+
+    @Override
+    public boolean offer(Group group) {
+        if (group.queueIndex >= 0) {
+            return false;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size << 1);
+        }
+        group.queueReadyNanos = System.nanoTime() - origin;
+        group.queueKey = key(group, group.queueReadyNanos);
+        group.queueIndex = size;
+        heap[size++] = group;
+        siftUp(group.queueIndex);
+        headChanged();
+        return true;
+    }
+
+    @Override
+    public Group poll() {
+        if (size == 0) {
+            return null;
+        }
+        Group head = heap[0];
+        removeAt(0);
+        return head;
+    }
+
+    @Override
+    public Group peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        removeAt(((Group) o).queueIndex);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Group)) {
+            return false;
+        }
+        int index = ((Group) o).queueIndex;
+        return index >= 0 && index < size && heap[index] == o;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i].queueIndex = -1;
+            heap[i] = null;
+        }
+        size = 0;
+        headChanged();
+    }
+
+    /**
+     * Iterates over the groups in no particular order. The iterator does not
+     * support removal.
+     *
+     * @return iterator over the queued groups
+     */
+    @Override
+    public Iterator<Group> iterator() {
+        return new Iterator<Group>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Group next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return heap[next++];
+            }
+        };
+    }
+
+    @Override
+    public void groupChanged(Group group) {
+        if (contains(group)) {
+            group.queueKey = key(group, group.queueReadyNanos);
+            reposition(group.queueIndex);
+        }
+    }
+
+    @Override
+    public void messageDispatched(Group group) {
+        if (contains(group)) {
+            group.queueReadyNanos = System.nanoTime() - origin;
+            group.queueKey = key(group, group.queueReadyNanos);
+            reposition(group.queueIndex);
+        }
+    }
+
+    /**
+     * A resource stays with the group while the group would be at the head
+     * of the queue if it became ready now.
+     */
+    @Override
+    public boolean isSticky(Group group) {
+        return key(group, System.nanoTime() - origin) <= headKey;
+    }
+
+    private void removeAt(int index) {
+        Group removed = heap[index];
+        removed.queueIndex = -1;
+        Group last = heap[--size];
+        heap[size] = null;
+        if (index < size) {
+            heap[index] = last;
+            last.queueIndex = index;
+            reposition(index);
+        }
+        headChanged();
+    }
+
+    private void reposition(int index) {
+        siftDown(siftUp(index));
+        headChanged();
+    }
+
+    private int siftUp(int index) {
+        Group group = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Group p = heap[parent];
+            if (p.queueKey <= group.queueKey) {
+                break;
+            }
+            heap[index] = p;
+            p.queueIndex = index;
+            index = parent;
+        }
+        heap[index] = group;
+        group.queueIndex = index;
+        return index;
+    }
+
+    private void siftDown(int index) {
+        Group group = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < size && heap[right].queueKey < heap[child].queueKey) {
+                child = right;
+            }
+            Group c = heap[child];
+            if (group.queueKey <= c.queueKey) {
+                break;
+            }
+            heap[index] = c;
+            c.queueIndex = index;
+            index = child;
+        }
+        heap[index] = group;
+        group.queueIndex = index;
+    }
+
+    private void headChanged() {
+        headKey = size == 0 ? Long.MAX_VALUE : heap[0].queueKey;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A token bucket of a resource or a group, kept as the generic cell rate
+ * algorithm: the only state is the theoretical arrival time of the next
+ * send, which a token moves on by the emission interval. A send conforms
+ * while that time is no more than the burst tolerance ahead of the clock.
+ * Taking a token is a single compare and set, so the bucket is shared by the
+ * permits of a resource without a lock.
+ *
+ * @author Brighton
+ */
+class RateLimit {
+
+    private static final AtomicLongFieldUpdater<RateLimit> TAT = AtomicLongFieldUpdater.newUpdater(RateLimit.class, "tat");
+
+    private final double perSecond;
+    private final int burst;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // theoretical arrival time of the next send, in System.nanoTime
+    private volatile long tat;
+
+    /**
+     * @param perSecond sustained sends per second, must be positive
+     * @param burst sends that may go back to back after an idle period
+     */
+    RateLimit(double perSecond, int burst) {
+        this.perSecond = perSecond;
+        this.burst = Math.max(1, burst);
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = (this.burst - 1) * intervalNanos;
+        this.tat = Long.MIN_VALUE;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now the current System.nanoTime
+     * @return 0 if the token was taken, otherwise the nanoseconds until the
+     * next token is available
+     */
+    long tryAcquire(long now) {
+        for (;;) {
+            long current = tat;
+            long base = Math.max(current, now);
+            long ahead = base - now - toleranceNanos;
+            if (ahead > 0) {
+                return ahead;
+            }
+            if (TAT.compareAndSet(this, current, base + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token that was taken but not used. A bucket that has been
+     * idle meanwhile does not gain more than its burst.
+     */
+    void refund() {
+        TAT.getAndAdd(this, -intervalNanos);
+    }
+
+    double getPerSecond() {
+        return perSecond;
+    }
+
+    int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return perSecond + "/s burst " + burst;
+    }
+}
@@ -0,0 +1,264 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The slots of the resources that are free to be sent a message. Each slot is
+ * given an index in a table, the free slots form a lock-free stack threaded
+ * through the table by index, so acquiring or releasing a slot does not
+ * allocate. The head of the stack carries a version that is incremented on
+ * every change, which rules out the ABA problem of reused indices.
+ * <p>
+ * A released slot goes on the preferred or on the secondary stack, a slot is
+ * only taken from the secondary stack when no preferred slot is free.
+ * <p>
+ * Removal is lazy and O(1): a removed slot is only marked, it is discarded
+ * and its index reused once it is popped from the stack. A removed slot that
+ * is still processing a message is pushed one last time when it completes.
+ *
+ * @author Brighton
+ */
+class ResourcePool {
+
+    static final int BUSY = 0;
+    static final int AVAILABLE = 1;
+    static final int REMOVED_BUSY = 2;
+    static final int REMOVED = 3;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 12;
+    private static final int EMPTY = 0;
+    private static final AtomicIntegerFieldUpdater<InFlightSlot> STATE = AtomicIntegerFieldUpdater.newUpdater(InFlightSlot.class, "poolState");
+    private static final AtomicIntegerFieldUpdater<InFlightSlot> STACKED = AtomicIntegerFieldUpdater.newUpdater(InFlightSlot.class, "poolStacked");
+
+    private final AtomicReferenceArray<Chunk> chunks;
+    private final AtomicInteger nextIndex;
+    private final AtomicLong available;
+    private final AtomicLong secondary;
+    private final AtomicLong freeIndices;
+    private final AtomicInteger size;
+    private final LongAdder idle;
+
+    ResourcePool() {
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.nextIndex = new AtomicInteger();
+        this.available = new AtomicLong();
+        this.secondary = new AtomicLong();
+        this.freeIndices = new AtomicLong();
+        this.size = new AtomicInteger();
+        this.idle = new LongAdder();
+    }
+
+    /**
+     * Registers the slot of a new resource. The slot is busy until it is
+     * released.
+     *
+     * @param slot of the resource
+     * @throws java.lang.Exception if the table is full
+     */
+    void add(InFlightSlot slot) throws Exception {
+        int index = pop(freeIndices);
+        if (index < 0) {
+            index = nextIndex.getAndIncrement();
+            if (index >= MAX_CHUNKS * CHUNK_SIZE) {
+                nextIndex.decrementAndGet();
+                throw new Exception("No more than " + MAX_CHUNKS * CHUNK_SIZE + " resources are supported");
+            }
+        }
+        slot.poolIndex = index;
+        slot.poolState = BUSY;
+        slot.poolStacked = 0;
+        chunk(index).slots[index & (CHUNK_SIZE - 1)] = slot;
+        size.incrementAndGet();
+    }
+
+    /**
+     * Marks the slot as removed. It is not handed out again.
+     *
+     * @param slot of the removed resource
+     */
+    void remove(InFlightSlot slot) {
+        for (;;) {
+            int state = slot.poolState;
+            if (state == REMOVED_BUSY || state == REMOVED) {
+                return;
+            }
+            int removed = state == AVAILABLE ? REMOVED : REMOVED_BUSY;
+            if (STATE.compareAndSet(slot, state, removed)) {
+                size.decrementAndGet();
+                if (state == AVAILABLE) {
+                    idle.decrement();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the slot has been removed from the pool.
+     *
+     * @param slot of a resource
+     * @return true if the slot has been removed
+     */
+    boolean isRemoved(InFlightSlot slot) {
+        int state = slot.poolState;
+        return state == REMOVED_BUSY || state == REMOVED;
+    }
+
+    /**
+     * Returns a busy slot to the preferred free slots, or lets a removed slot
+     * be reclaimed.
+     *
+     * @param slot that has nothing to process
+     */
+    void release(InFlightSlot slot) {
+        release(slot, true);
+    }
+
+    /**
+     * Returns a busy slot to the free slots, or lets a removed slot be
+     * reclaimed.
+     *
+     * @param slot that has nothing to process
+     * @param preferred false if the slot should only be taken when no
+     * preferred slot is free
+     */
+    void release(InFlightSlot slot, boolean preferred) {
+        for (;;) {
+            int state = slot.poolState;
+            int released;
+            if (state == BUSY) {
+                released = AVAILABLE;
+            } else if (state == REMOVED_BUSY) {
+                released = REMOVED;
+            } else {
+                return;
+            }
+            if (STATE.compareAndSet(slot, state, released)) {
+                if (released == AVAILABLE) {
+                    idle.increment();
+                }
+                break;
+            }
+        }
+        // a slot taken directly may still be on the stack
+        if (STACKED.compareAndSet(slot, 0, 1)) {
+            push(preferred ? available : secondary, slot.poolIndex);
+        }
+    }
+
+    /**
+     * Takes a free slot, a preferred one if there is one.
+     *
+     * @return the slot, now busy, or null if no slot is free
+     */
+    InFlightSlot acquire() {
+        InFlightSlot slot = take(available);
+        return slot != null ? slot : take(secondary);
+    }
+
+    private InFlightSlot take(AtomicLong head) {
+        for (;;) {
+            int index = pop(head);
+            if (index < 0) {
+                return null;
+            }
+            InFlightSlot slot = chunk(index).slots[index & (CHUNK_SIZE - 1)];
+            slot.poolStacked = 0;
+            if (STATE.compareAndSet(slot, AVAILABLE, BUSY)) {
+                idle.decrement();
+                return slot;
+            }
+            if (slot.poolState == REMOVED && STACKED.compareAndSet(slot, 0, 1)) {
+                // the slot is never pushed again, its index can be reused
+                chunk(index).slots[index & (CHUNK_SIZE - 1)] = null;
+                push(freeIndices, index);
+            }
+            // otherwise the slot was taken directly, it is pushed again when
+            // it is released
+        }
+    }
+
+    /**
+     * Takes the given slot if it is free, wherever it is in the stack.
+     *
+     * @param slot preferred slot
+     * @return true if the slot is now busy
+     */
+    boolean acquire(InFlightSlot slot) {
+        if (slot.poolState == AVAILABLE && STATE.compareAndSet(slot, AVAILABLE, BUSY)) {
+            idle.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The number of resources that have not been removed.
+     *
+     * @return the number of resources
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * The number of free slots, a moment's estimate under concurrent use.
+     *
+     * @return the number of slots that can be acquired
+     */
+    int idle() {
+        return (int) Math.max(0, idle.sum());
+    }
+
+    private void push(AtomicLong head, int index) {
+        int[] next = chunk(index).next;
+        for (;;) {
+            long current = head.get();
+            next[index & (CHUNK_SIZE - 1)] = (int) current;
+            if (head.compareAndSet(current, stamp(current, index + 1))) {
+                return;
+            }
+        }
+    }
+
+    private int pop(AtomicLong head) {
+        for (;;) {
+            long current = head.get();
+            int top = (int) current;
+            if (top == EMPTY) {
+                return -1;
+            }
+            int index = top - 1;
+            int next = chunk(index).next[index & (CHUNK_SIZE - 1)];
+            if (head.compareAndSet(current, stamp(current, next))) {
+                return index;
+            }
+        }
+    }
+
+    private static long stamp(long current, int top) {
+        return ((current >>> 32) + 1) << 32 | (top & 0xFFFFFFFFL);
+    }
+
+    private Chunk chunk(int index) {
+        int i = index >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(i);
+        if (chunk == null) {
+            chunks.compareAndSet(i, null, new Chunk());
+            chunk = chunks.get(i);
+        }
+        return chunk;
+    }
+
+    private static final class Chunk {
+
+        final InFlightSlot[] slots = new InFlightSlot[CHUNK_SIZE];
+        final int[] next = new int[CHUNK_SIZE];
+    }
+}
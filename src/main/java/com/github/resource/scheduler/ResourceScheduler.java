@@ -1,13 +1,38 @@
 package com.github.resource.scheduler;
 
+import com.github.resource.scheduler.api.AdmissionStatus;
+import com.github.resource.scheduler.api.BatchGateway;
+import com.github.resource.scheduler.api.DeadLetterReason;
+import com.github.resource.scheduler.api.DeadLetterSink;
 import com.github.resource.scheduler.api.Message;
 import com.github.resource.scheduler.api.MessageReceiver;
+import com.github.resource.scheduler.api.RejectedMessageException;
 import com.github.resource.scheduler.api.Resource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -20,49 +45,327 @@ public class ResourceScheduler implements MessageReceiver {
 
     private static final Logger LOG = Logger.getLogger(ResourceScheduler.class.getName());
 
-    private static boolean isSelectable(Group group) {
-        return !group.isCancelled() && !group.isTerminated() && !group.isEmpty();
+    /**
+     * A group can be selected while it has messages, has not been cancelled,
+     * has fewer messages in flight than it allows, is not waiting for a
+     * token of its rate limit and is not held while it moves to another node
+     * of a cluster. A terminated group
+     * remains selectable until its messages, including the termination
+     * message, have been dispatched.
+     */
+    static boolean isSelectable(Group group) {
+        return !group.isCancelled() && !group.isEmpty() && group.getInFlight() < group.getMaxInFlight()
+                && !group.isThrottled() && !group.isHeld();
     }
 
-    private final Object queueLock;
-    private final Queue<Group> queue;
-    private final ConcurrentLinkedQueue<Resource> resources;
-    private final ConcurrentLinkedQueue<Resource> resourcesAvailable;
-    private final ExecutorService pool;
+    private final CapabilityIndex capabilities;
+    private final int shardCount;
+    private final int shardMask;
+    private final GroupRegistry groups;
+    private final ConcurrentHashMap<Resource, CopyOnWriteArrayList<InFlightSlot>> resources;
+    private final DispatchEngine engine;
+    private final SchedulerMetrics metrics;
+    private final ScheduledExecutorService timer;
+    private final LongAdder queuedMessages;
+    private final AdmissionControl admission;
+    private final CompletionPublisher completions;
+    private final MessageJournal journal;
+    private final TimingWheel<Object> timers;
+    private final LongAdder delayed;
+    private final DeadLetterSink deadLetterSink;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private final int circuitWindow;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenMillis;
+    private final long maxCircuitOpenMillis;
+    private final int rateLimitBurst;
+    // set while the journal is replayed, the messages are journaled already
+    private boolean replaying;
+    private final boolean mixedGroupBatches;
+    private final long batchLingerNanos;
+    private final int maxConsecutiveMessages;
+    private final boolean resourceAffinity;
+    private final LimitAlgorithm limitAlgorithm;
+    private final int minResourceLimit;
+    private final int maxResourceLimit;
+    // smoothed send time over all resources, lossy updates are acceptable
+    private volatile long meanSendNanos;
+    private final AtomicInteger nextHomeShard;
 
     /**
      * Constructor for the resource scheduler class. It enables different queue
      * strategy by passing a different queue as a parameter to the constructor.
      *
-     * @param queue used to store messages that can not be immediately
-     * processed.
+     * @param queue used to order the groups that have messages which could not
+     * be immediately processed. Only groups with pending messages are kept in
+     * the queue. A {@link SchedulingQueue}, such as the
+     * {@link PriorityGroupQueue}, is told about changes to the queued groups.
+     * Each capability class gets a new queue of the same kind; a queue of
+     * another kind than the queues of this package or a
+     * {@link ConcurrentLinkedDeque} orders only the groups without
+     * requirements, and messages with requirements are rejected.
      * @param resources objects used to communicate with the external objects.
      * one connection will be provided for each available external resource.
      * @throws java.lang.Exception
      */
     public ResourceScheduler(Queue<Group> queue, List<Resource> resources) throws Exception {
+        this(queue, resources, new SchedulerConfig());
+    }
+
+    /**
+     * Constructor for the resource scheduler class with explicit tuning
+     * parameters.
+     *
+     * @param queue used to order the groups that have messages which could not
+     * be immediately processed.
+     * @param resources objects used to communicate with the external objects.
+     * @param config tuning parameters of the scheduler
+     * @throws java.lang.Exception
+     */
+    public ResourceScheduler(Queue<Group> queue, List<Resource> resources, SchedulerConfig config) throws Exception {
+        this(likeQueue(queue), resources, single(queue, config));
+    }
+
+    /**
+     * Constructor for a resource scheduler that partitions the groups into
+     * the number of shards configured. Each shard has its own queue and lock,
+     * a group always belongs to the same shard so its messages keep their
+     * order. A free resource selects from its home shard first and steals from
+     * the other shards when its home shard has no ready groups, so queue order
+     * and priorities apply within a shard.
+     *
+     * @param queues creates the queue of each shard
+     * @param resources objects used to communicate with the external objects.
+     * @param config tuning parameters of the scheduler
+     * @throws java.lang.Exception
+     */
+    public ResourceScheduler(Supplier<Queue<Group>> queues, List<Resource> resources, SchedulerConfig config) throws Exception {
+        if (queues == null) {
+            throw new Exception("Supplier<Queue<Group>> is null");
+        }
+        if (config == null) {
+            throw new Exception("SchedulerConfig is null");
+        }
+        int count = 1;
+        while (count < config.getShards()) {
+            count <<= 1;
+        }
+        this.shardCount = count;
+        this.shardMask = count - 1;
+        this.nextHomeShard = new AtomicInteger();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<Group>[] first = new Queue[count];
+        for (int i = 0; i < count; i++) {
+            first[i] = queues.get();
+            if (first[i] == null) {
+                throw new Exception("Queue<Group> is null");
+            }
+        }
+        this.capabilities = new CapabilityIndex(queues, first, config.getMaxCapabilityClasses());
+        this.groups = new GroupRegistry(config.getConcurrencyLevel(),
+                TimeUnit.MILLISECONDS.toNanos(config.getTombstoneWindowMillis()));
+        this.resources = new ConcurrentHashMap<>();
+        this.metrics = new SchedulerMetrics(this);
+        this.completions = new CompletionPublisher(ForkJoinPool.commonPool(),
+                config.getCompletionBatchSize(), config.getCompletionBufferSize());
+        this.timers = new TimingWheel<>(config.getTimerTickMillis(), this::timerDue);
+        this.delayed = new LongAdder();
+        this.deadLetterSink = config.getDeadLetterSink();
+        this.maxRetries = Math.max(0, config.getMaxRetries());
+        this.retryBackoffMillis = Math.max(1, config.getRetryBackoffMillis());
+        this.maxRetryBackoffMillis = Math.max(retryBackoffMillis, config.getMaxRetryBackoffMillis());
+        this.circuitWindow = config.getCircuitWindow();
+        this.circuitFailureThreshold = config.getCircuitFailureThreshold();
+        this.circuitOpenMillis = config.getCircuitOpenMillis();
+        this.maxCircuitOpenMillis = config.getMaxCircuitOpenMillis();
+        this.rateLimitBurst = config.getRateLimitBurst();
+        this.journal = config.getJournalDirectory() == null ? null
+                : new MessageJournal(Paths.get(config.getJournalDirectory()),
+                        config.getMessageSerializer() == null ? new DefaultMessageSerializer() : config.getMessageSerializer(),
+                        config.getJournalSegmentBytes(), config.getJournalSyncMillis(),
+                        TimeUnit.MILLISECONDS.toNanos(config.getTombstoneWindowMillis()));
+        this.limitAlgorithm = config.getLimitAlgorithm() == null ? LimitAlgorithm.FIXED : config.getLimitAlgorithm();
+        this.minResourceLimit = config.getMinResourceLimit();
+        this.maxResourceLimit = config.getMaxResourceLimit();
+        for (Resource resource : resources) {
+            CopyOnWriteArrayList<InFlightSlot> permits = newPermits(resource);
+            this.resources.put(resource, permits);
+            for (InFlightSlot slot : permits) {
+                pool(slot).add(slot);
+                pool(slot).release(slot);
+            }
+        }
+        this.engine = DispatchEngine.create(config);
+        this.queuedMessages = new LongAdder();
+        this.admission = new AdmissionControl(config);
+        this.mixedGroupBatches = config.isMixedGroupBatches();
+        this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getBatchLingerMillis());
+        this.maxConsecutiveMessages = config.getMaxConsecutiveMessages();
+        this.resourceAffinity = config.isResourceAffinity();
+        this.timer = batchLingerNanos > 0 ? Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "resource-scheduler-timer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (config.getJmxName() != null) {
+            this.metrics.register(config.getJmxName());
+        }
+        if (this.journal != null) {
+            recover();
+        }
+    }
+
+    /**
+     * Receives the messages of the journal that had not completed again and
+     * closes the groups that had been cancelled or had terminated. A message
+     * that no longer fits in a bounded queue is lost.
+     *
+     * @throws java.lang.Exception if the journal can not be read
+     */
+    private void recover() throws Exception {
+        MessageJournal.Recovery recovery = journal.recover();
+        replaying = true;
+        try {
+            for (Message message : recovery.getMessages()) {
+                AdmissionStatus status = tryReceive(message);
+                if (status != AdmissionStatus.ACCEPTED) {
+                    LOG.log(Level.WARNING, "{0} could not be recovered: {1}", new Object[]{message, status});
+                    journal.completed(message);
+                }
+            }
+            for (Map.Entry<Long, Boolean> entry : recovery.getClosedGroups().entrySet()) {
+                if (entry.getValue()) {
+                    cancelGroup(entry.getKey());
+                } else {
+                    Group group = Group.getInstance(entry.getKey(), groups);
+                    if (!group.isTerminated() && !group.isCancelled()) {
+                        group.setTerminated(true);
+                        if (group.isEmpty() && group.getInFlight() == 0) {
+                            groups.retire(group);
+                        }
+                    }
+                }
+            }
+        } finally {
+            replaying = false;
+        }
+        if (!recovery.getMessages().isEmpty()) {
+            LOG.log(Level.INFO, "{0} messages recovered from the journal", recovery.getMessages().size());
+        }
+    }
+
+    /**
+     * Hands out the queue of a single queue constructor to the groups without
+     * requirements, and a new queue of the same kind to each requirement
+     * class. A queue of an unknown kind cannot be copied, no queue is handed
+     * out for the other classes so that their messages are rejected rather
+     * than ordered differently.
+     */
+    private static Supplier<Queue<Group>> likeQueue(Queue<Group> queue) {
+        AtomicBoolean given = new AtomicBoolean();
+        return () -> {
+            if (!given.getAndSet(true)) {
+                return queue;
+            }
+            if (queue instanceof PriorityGroupQueue) {
+                return new PriorityGroupQueue(((PriorityGroupQueue) queue).getAgingQuantumNanos());
+            }
+            if (queue instanceof FairShareGroupQueue) {
+                return new FairShareGroupQueue(((FairShareGroupQueue) queue).getQuantum());
+            }
+            return queue.getClass() == ConcurrentLinkedDeque.class ? new ConcurrentLinkedDeque<>() : null;
+        };
+    }
+
+    private static SchedulerConfig single(Queue<Group> queue, SchedulerConfig config) throws Exception {
         if (queue == null) {
             throw new Exception("Queue<Group> is null");
         }
-        this.queueLock = new Object();
-        this.queue = queue;
-        this.resources = new ConcurrentLinkedQueue<>();
-        this.resourcesAvailable = new ConcurrentLinkedQueue<>();
-        this.resources.addAll(resources);
-        this.resourcesAvailable.addAll(resources);
-        this.pool = Executors.newWorkStealingPool();
+        if (config != null && config.getShards() > 1) {
+            throw new Exception("A queue for each of the " + config.getShards() + " shards is required");
+        }
+        return config;
+    }
+
+    private InFlightSlot newSlot(Resource resource, ConcurrencyLimiter limiter, CircuitBreaker breaker, RateLimit rateLimit) {
+        InFlightSlot slot = new InFlightSlot(this, metrics, resource);
+        slot.setResourceClass(capabilities.resourceClassOf(resource.getCapabilities()));
+        slot.setHomeShard(nextHomeShard.getAndIncrement() & shardMask);
+        slot.setLimiter(limiter);
+        slot.setBreaker(breaker);
+        slot.setRateLimit(rateLimit);
+        return slot;
+    }
+
+    private CopyOnWriteArrayList<InFlightSlot> newPermits(Resource resource) {
+        ConcurrencyLimiter limiter = null;
+        int capacity = Math.max(1, resource.getCapacity());
+        if (limitAlgorithm != LimitAlgorithm.FIXED) {
+            limiter = new ConcurrencyLimiter(limitAlgorithm, minResourceLimit, maxResourceLimit, capacity);
+            capacity = limiter.getLimit();
+        }
+        CircuitBreaker breaker = circuitFailureThreshold > 0
+                ? new CircuitBreaker(circuitWindow, circuitFailureThreshold, circuitOpenMillis, maxCircuitOpenMillis) : null;
+        RateLimit rateLimit = resource.getRateLimit() > 0 ? new RateLimit(resource.getRateLimit(), rateLimitBurst) : null;
+        CopyOnWriteArrayList<InFlightSlot> permits = new CopyOnWriteArrayList<>();
+        for (int i = capacity; i > 0; i--) {
+            permits.add(newSlot(resource, limiter, breaker, rateLimit));
+        }
+        return permits;
+    }
+
+    private SchedulerShard shardOf(Group group) {
+        CapabilityIndex.RequirementClass requirements = group.getRequirementClass();
+        SchedulerShard[] shards = (requirements != null ? requirements : capabilities.get(0)).shards;
+        return shards[GroupRegistry.hash(group.getId()) & shardMask];
+    }
+
+    private static ResourcePool pool(InFlightSlot slot) {
+        return slot.getResourceClass().pool;
+    }
+
+    /**
+     * Sets the requirement class of a group from its first message.
+     *
+     * @param group of the message
+     * @param message received
+     * @return false if the requirements need a class that is not supported
+     */
+    private boolean classify(Group group, Message message) {
+        if (group.getRequirementClass() == null) {
+            try {
+                group.classify(capabilities.classOf(message.getRequirements()));
+            } catch (IllegalArgumentException ex) {
+                LOG.log(Level.WARNING, ex.getMessage());
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Should be call to release thread pool used by the resource scheduler
+     * Should be call to release the threads used by the resource scheduler
      * before a graceful shutdown.
      */
     public void shutdown() {
-        this.pool.shutdownNow();
+        this.metrics.unregister();
+        this.completions.close();
+        this.timers.stop();
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        this.engine.shutdown();
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+        }
     }
 
     /**
-     * Enables new resources to be added at runtime.
+     * Enables new resources to be added at runtime. A resource that has
+     * been removed cannot be added again. The resource is given as many
+     * permits as its capacity.
      *
      * @param resource an additional resource
      * @throws java.lang.Exception
@@ -71,122 +374,1799 @@ public class ResourceScheduler implements MessageReceiver {
         if (resource == null) {
             throw new Exception("Resource is null");
         }
-        this.resources.add(resource);
-        processNextGroup(resource);
+        if (resource.isRemoved()) {
+            throw new Exception("Resource has been removed from service " + resource);
+        }
+        CopyOnWriteArrayList<InFlightSlot> permits = newPermits(resource);
+        if (this.resources.putIfAbsent(resource, permits) == null) {
+            synchronized (permits) {
+                for (InFlightSlot slot : permits) {
+                    pool(slot).add(slot);
+                }
+            }
+            for (InFlightSlot slot : permits) {
+                processNextGroup(slot);
+            }
+        }
+    }
+
+    /**
+     * Changes the number of messages a resource may process at the same
+     * time. New permits are put to work immediately; permits beyond the new
+     * capacity are withdrawn, those with a message in flight once it has
+     * completed.
+     *
+     * @param resource a resource of the scheduler
+     * @param capacity the number of permits of the resource
+     * @throws java.lang.Exception
+     */
+    public void setResourceCapacity(Resource resource, int capacity) throws Exception {
+        if (capacity < 1) {
+            throw new Exception("Capacity of resource " + resource + " must be positive");
+        }
+        CopyOnWriteArrayList<InFlightSlot> permits = resources.get(resource);
+        if (permits == null) {
+            throw new Exception("Resource is not in service " + resource);
+        }
+        ConcurrencyLimiter limiter = permits.get(0).getLimiter();
+        if (limiter != null) {
+            // the adaptive limit continues from the new capacity
+            limiter.setLimit(capacity);
+        }
+        resize(resource, permits, capacity);
+    }
+
+    private void resize(Resource resource, CopyOnWriteArrayList<InFlightSlot> permits, int capacity) throws Exception {
+        List<InFlightSlot> added = null;
+        synchronized (permits) {
+            if (resources.get(resource) != permits) {
+                throw new Exception("Resource has been removed from service " + resource);
+            }
+            ConcurrencyLimiter limiter = permits.get(0).getLimiter();
+            CircuitBreaker breaker = permits.get(0).getBreaker();
+            RateLimit rateLimit = permits.get(0).getRateLimit();
+            while (permits.size() < capacity) {
+                InFlightSlot slot = newSlot(resource, limiter, breaker, rateLimit);
+                pool(slot).add(slot);
+                permits.add(slot);
+                if (added == null) {
+                    added = new ArrayList<>();
+                }
+                added.add(slot);
+            }
+            while (permits.size() > capacity) {
+                InFlightSlot slot = permits.remove(permits.size() - 1);
+                pool(slot).remove(slot);
+            }
+        }
+        if (added != null) {
+            for (InFlightSlot slot : added) {
+                // a permit added while the resource is out of rotation waits
+                // with the others
+                CircuitBreaker breaker = slot.getBreaker();
+                if (breaker == null || !breaker.park(slot)) {
+                    processNextGroup(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Feeds the send time of a completed slot to the adaptive limit of its
+     * resource and applies the limit it answers with.
+     *
+     * @param slot that has completed
+     * @param limiter of the resource of the slot
+     */
+    private void adapt(InFlightSlot slot, ConcurrencyLimiter limiter) {
+        long sent = slot.getSendNanos();
+        long mean = meanSendNanos;
+        meanSendNanos = mean == 0 ? sent : mean + (sent - mean) / 16;
+        int limit = limiter.sample(sent, limiter.completed());
+        Resource resource = slot.getResource();
+        CopyOnWriteArrayList<InFlightSlot> permits = resources.get(resource);
+        if (permits != null && permits.size() != limit && !resource.isRemoved()) {
+            try {
+                resize(resource, permits, limit);
+            } catch (Exception ex) {
+                LOG.log(Level.FINE, "capacity of " + resource + " not adapted", ex);
+            }
+        }
+    }
+
+    /**
+     * The number of permits of a resource.
+     *
+     * @param resource a resource of the scheduler
+     * @return the capacity of the resource, 0 if it is not in service
+     */
+    public int getResourceCapacity(Resource resource) {
+        List<InFlightSlot> permits = resources.get(resource);
+        return permits == null ? 0 : permits.size();
+    }
+
+    /**
+     * The number of permits of a resource that have a message, or a batch,
+     * in flight.
+     *
+     * @param resource a resource of the scheduler
+     * @return the number of outstanding permits of the resource
+     */
+    public int getInFlightCount(Resource resource) {
+        List<InFlightSlot> permits = resources.get(resource);
+        int count = 0;
+        if (permits != null) {
+            for (InFlightSlot slot : permits) {
+                if (slot.isInFlight()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Limits the sends to a resource, shared by all its permits. A permit
+     * of a resource that has run out of tokens waits on a timer for the next
+     * one, meanwhile the messages go to the other resources.
+     *
+     * @param resource a resource of the scheduler
+     * @param perSecond sustained sends per second, 0 removes the limit
+     * @param burst sends that may go back to back after an idle period
+     * @throws java.lang.Exception
+     */
+    public void setResourceRateLimit(Resource resource, double perSecond, int burst) throws Exception {
+        if (perSecond < 0 || burst < 1) {
+            throw new Exception("Rate limit of resource " + resource + " must not be negative and its burst must be positive");
+        }
+        CopyOnWriteArrayList<InFlightSlot> permits = resources.get(resource);
+        if (permits == null) {
+            throw new Exception("Resource is not in service " + resource);
+        }
+        RateLimit rateLimit = perSecond > 0 ? new RateLimit(perSecond, burst) : null;
+        synchronized (permits) {
+            for (InFlightSlot slot : permits) {
+                slot.setRateLimit(rateLimit);
+            }
+        }
+    }
+
+    /**
+     * Limits the sends of the messages of a group. A group that has run out
+     * of tokens leaves the queue until the next one is due, meanwhile the
+     * resources take the other groups.
+     *
+     * @param groupId of the group
+     * @param perSecond sustained sends per second, 0 removes the limit
+     * @param burst sends that may go back to back after an idle period
+     * @throws java.lang.Exception
+     */
+    public void setGroupRateLimit(long groupId, double perSecond, int burst) throws Exception {
+        if (perSecond < 0 || burst < 1) {
+            throw new Exception("Rate limit of group " + groupId + " must not be negative and its burst must be positive");
+        }
+        Group group = Group.getInstance(groupId, groups);
+        group.setRateLimit(perSecond > 0 ? new RateLimit(perSecond, burst) : null);
+    }
+
+    /**
+     * Holds a group that a {@link ClusterNode} takes over from another node.
+     * The messages it receives wait until {@link #adoptGroup} releases it.
+     *
+     * @param groupId of the group
+     */
+    void holdGroup(long groupId) {
+        Group.getInstance(groupId, groups).setHeld(true);
+    }
+
+    /**
+     * Puts the messages handed over by the previous owner of a held group
+     * ahead of those it received meanwhile, and releases the group.
+     *
+     * @param groupId of the group
+     * @param handedOver waiting messages of the previous owner, in order
+     */
+    void adoptGroup(long groupId, List<Message> handedOver) {
+        Group group = Group.getInstance(groupId, groups);
+        if (group.isCancelled()) {
+            for (Message message : handedOver) {
+                message.release();
+            }
+            return;
+        }
+        if (!handedOver.isEmpty()) {
+            List<Message> adopted = new ArrayList<>(handedOver.size());
+            for (Message message : handedOver) {
+                if (!classify(group, message)) {
+                    deadLetter(message, DeadLetterReason.REJECTED);
+                    message.release();
+                    continue;
+                }
+                message.setGroup(group);
+                if (journal != null && !replaying) {
+                    try {
+                        journal.accepted(message);
+                    } catch (IOException ex) {
+                        LOG.log(Level.WARNING, "{0} can not be journaled: {1}", new Object[]{message, ex.getMessage()});
+                        deadLetter(message, DeadLetterReason.REJECTED);
+                        message.release();
+                        continue;
+                    }
+                }
+                adopted.add(message);
+            }
+            group.retry(adopted);
+            queuedMessages.add(adopted.size());
+            admission.requeued(adopted.size());
+        }
+        group.setHeld(false);
+        requeue(group);
+    }
+
+    /**
+     * Holds a group that has moved to another node and hands over its
+     * waiting messages once its messages in flight have completed, so that
+     * the new owner sends them in order after those. The group stays held
+     * until {@link #adoptGroup} takes it over again, a message it receives
+     * meanwhile waits to be handed over as well.
+     *
+     * @param groupId of the group
+     * @return the waiting messages of the group in their order, none if the
+     * scheduler does not hold the group
+     */
+    CompletableFuture<List<Message>> handOffGroup(long groupId) {
+        CompletableFuture<List<Message>> handedOver = new CompletableFuture<>();
+        Group group = groups.find(groupId);
+        if (group == null || group.isCancelled()) {
+            handedOver.complete(Collections.emptyList());
+            return handedOver;
+        }
+        group.setHeld(true);
+        // off the thread that completed the message, which may hold a lock
+        group.setDrained(() -> timers.schedule((Runnable) () -> handOff(group, handedOver), 0));
+        handOff(group, handedOver);
+        return handedOver;
+    }
+
+    private void handOff(Group group, CompletableFuture<List<Message>> handedOver) {
+        synchronized (handedOver) {
+            if (handedOver.isDone() || group.getInFlight() != 0) {
+                return;
+            }
+            group.setDrained(null);
+            List<Message> waiting = new ArrayList<>(group.size());
+            Message message;
+            while ((message = group.poll()) != null) {
+                if (journal != null) {
+                    // no longer processed here
+                    journal.completed(message);
+                }
+                waiting.add(message);
+            }
+            queuedMessages.add(-waiting.size());
+            admission.released(waiting.size());
+            handedOver.complete(waiting);
+        }
+    }
+
+    /**
+     * Takes up to the given number of free permits out of rotation for
+     * another node of a cluster to send on. Permits of rate limited
+     * resources are not lent.
+     *
+     * @param count the most permits to take
+     * @return the permits taken, possibly none
+     */
+    List<InFlightSlot> lendPermits(int count) {
+        List<InFlightSlot> lent = new ArrayList<>();
+        List<InFlightSlot> limited = null;
+        InFlightSlot slot;
+        while (lent.size() < count && (slot = capabilities.acquire(capabilities.get(0))) != null) {
+            if (slot.getRateLimit() == null) {
+                lent.add(slot);
+            } else {
+                if (limited == null) {
+                    limited = new ArrayList<>();
+                }
+                limited.add(slot);
+            }
+        }
+        if (limited != null) {
+            for (InFlightSlot permit : limited) {
+                resume(permit);
+            }
+        }
+        return lent;
+    }
+
+    /**
+     * Returns a permit taken by {@link #lendPermits} to rotation.
+     *
+     * @param slot that was lent
+     */
+    void returnPermit(InFlightSlot slot) {
+        resume(slot);
+        admission.signalDemand();
     }
 
     /**
      * Enables an existing resources to be removed at runtime. If resource is
      * currently processing a message it will be allowed to complete the current
-     * task but it will not be allocated any further messages.
+     * task but it will not be allocated any further messages. The removal
+     * takes constant time, the resource is marked as removed.
      *
      * @param resource an additional resource
      */
     public void removeResource(Resource resource) {
-        this.resources.remove(resource);
-        this.resourcesAvailable.remove(resource);
+        List<InFlightSlot> permits = this.resources.remove(resource);
+        if (permits != null) {
+            synchronized (permits) {
+                for (InFlightSlot slot : permits) {
+                    pool(slot).remove(slot);
+                }
+            }
+            resource.setRemoved();
+            CircuitBreaker breaker = permits.get(0).getBreaker();
+            if (breaker != null) {
+                for (InFlightSlot slot : breaker.stop()) {
+                    pool(slot).release(slot);
+                }
+            }
+        }
     }
 
     /**
      * Tells the scheduler that a group of messages has been cancelled. Once
      * cancelled, no further messages from that group should be sent to the
-     * gateway.
+     * gateway. The queued messages are discarded and the group is removed,
+     * only its identifier is remembered to reject late messages.
      *
      * @param groupId of the group that has been cancelled
      */
     public void cancelGroup(long groupId) {
-        Group group = Group.getInstance(groupId, queue, queueLock);
+        Group group = Group.getInstance(groupId, groups);
+        if (group.isCancelled() || group.isTerminated() && group.isEmpty() && group.isUndelayed()) {
+            // already retired, or the termination message has been dispatched
+            return;
+        }
         group.setCancelled(true);
+        if (journal != null && !replaying) {
+            journal.cancelled(groupId);
+        }
+        discard(group);
+        groups.retire(group);
     }
 
     /**
-     * Receives message from internal connections and dispatches to the external
-     * resource. Messages are stored in a queue when no free resource is
-     * available.
+     * Discards the messages waiting in a cancelled group.
      *
-     * @param message received
+     * @param group that has been cancelled
+     */
+    private void discard(Group group) {
+        int cleared = journal != null ? group.clear(journal::discarded) : group.clear();
+        queuedMessages.add(-cleared);
+        admission.released(cleared);
+    }
+
+    /**
+     * Changes the priority of a group. Only a {@link SchedulingQueue} takes
+     * the priority into account.
+     *
+     * @param groupId of the group
+     * @param priority new priority, higher priorities are selected first
+     */
+    public void setGroupPriority(long groupId, int priority) {
+        Group group = Group.getInstance(groupId, groups);
+        SchedulerShard shard = shardOf(group);
+        synchronized (shard) {
+            group.setPriority(priority);
+            shard.groupChanged(group);
+        }
+    }
+
+    /**
+     * Changes the weight of a group. Only a {@link FairShareGroupQueue} takes
+     * the weight into account.
+     *
+     * @param groupId of the group
+     * @param weight share of the resources relative to the other groups
      * @throws java.lang.Exception
      */
-    @Override
-    public void receive(Message message) throws Exception {
-        Group group = Group.getInstance(message.getGroupId(), queue, queueLock);
-        if (group.isTerminated()) {
-            throw new Exception("Group has terminated. No further message will be processed from group " + message.getGroupId());
+    public void setGroupWeight(long groupId, int weight) throws Exception {
+        if (weight < 1) {
+            throw new Exception("Weight of group " + groupId + " must be positive");
         }
-        if (group.isCancelled()) {
-            throw new Exception("Group was cancelled. No further message will be processed from group " + message.getGroupId());
+        Group group = Group.getInstance(groupId, groups);
+        SchedulerShard shard = shardOf(group);
+        synchronized (shard) {
+            group.setWeight(weight);
+            shard.groupChanged(group);
         }
-        group.setTerminated(message.isTerminationMessage());
-        message.setGroup(group);
+    }
 
-        Resource resource = resourcesAvailable.poll();
-        if (resource == null) {
-            group.addMessage(message);
-        } else {
-            processNextGroup(message, resource);
+    /**
+     * Changes the number of messages of a group that may be in flight at the
+     * same time. By default a group has one message in flight, so its
+     * messages are processed strictly in order; a group that opts in to more
+     * may have its messages processed by several resources concurrently.
+     *
+     * @param groupId of the group
+     * @param maxInFlight maximum number of messages in flight
+     * @throws java.lang.Exception
+     */
+    public void setGroupMaxInFlight(long groupId, int maxInFlight) throws Exception {
+        if (maxInFlight < 1) {
+            throw new Exception("Maximum in flight of group " + groupId + " must be positive");
         }
+        Group group = Group.getInstance(groupId, groups);
+        group.setMaxInFlight(maxInFlight);
+        requeue(group);
     }
 
     /**
-     * Processes the next message in the same group as the previously completed
-     * message. If there are no more messages in the same group it will proceed
-     * to the next group or return the resource to the collection of available
-     * resources.
+     * The number of groups currently held by the scheduler.
      *
-     * @param completedMessage message that was processed
-     * @param resource that has become available due to process completed
+     * @return the number of live groups
      */
-    private void messageCompleted(Message completedMessage, Resource resource) {
-        if (resource.isRemoved()) {
-            return;
-        }
-        Group group = completedMessage.getGroup();
-        if (group.isEmpty()) {
-            processNextGroup(resource);
-        } else {
-            processNextGroup(group.poll(), resource);
-        }
+    public int getLiveGroupCount() {
+        return groups.size();
     }
 
-    private void addMessageCompletedAction(final Message message, final Resource resource) {
-        message.addCompletedAction(() -> {
-            messageCompleted(message, resource);
-        });
+    /**
+     * The number of cancelled or terminated groups that have been removed but
+     * whose identifiers are still rejected.
+     *
+     * @return the number of tombstoned group identifiers
+     */
+    public int getTombstonedGroupCount() {
+        return groups.tombstoneCount();
     }
 
     /**
-     * Incorporates a resource that has recently become available. Either is was
-     * add as a new resource to the system or the resource has completed
-     * processing the previous message.
+     * The number of messages waiting in the queue for a free resource.
      *
-     * @param resource the recently available resource
+     * @return the number of queued messages
      */
-    private void processNextGroup(Resource resource) {
-        Group nextGroup = null;
-        Message message = null;
-        // synchronize when performing queue operations, just in case 
-        // the queue provided is not thread-safe
-        synchronized (queueLock) {
-            for (Group group : queue) {
-                if (isSelectable(group)) {
-                    nextGroup = group;
-                    message = nextGroup.poll();
-                    break;
-                }
-            }
-        }
-        if (nextGroup == null || message == null) {
-            resourcesAvailable.add(resource);
-        } else {
-            processNextGroup(message, resource);
-        }
+    public long getQueuedMessageCount() {
+        return queuedMessages.sum();
+    }
+
+    /**
+     * The counters and latency histograms of the scheduler.
+     *
+     * @return the metrics of the scheduler
+     */
+    public SchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The number of messages the scheduler can take before its queue reaches
+     * the high watermark. Producers that pull messages, rather than being
+     * pushed them, should not request more than this.
+     *
+     * @return the demand, {@link Long#MAX_VALUE} if the queue is not bounded
+     */
+    public long getDemand() {
+        return admission.getDemand();
+    }
+
+    /**
+     * The number of permits of the resources that are free, a message
+     * received now would be dispatched straight away.
+     *
+     * @return the free capacity of the resources
+     */
+    public int getIdleCapacity() {
+        return capabilities.idle();
+    }
+
+    /**
+     * Publishes an event for every message a resource completes, in batches.
+     * Subscribers that fall behind by more than
+     * {@link SchedulerConfig#getCompletionBufferSize()} events miss the
+     * excess, the resources are never held up.
+     *
+     * @return the publisher of completion events
+     */
+    public CompletionPublisher getCompletions() {
+        return completions;
     }
 
-    private void processNextGroup(Message message, Resource resource) {
-        addMessageCompletedAction(message, resource);
-        pool.submit(() -> {
-            resource.send(message);
-        });
+    /**
+     * Creates an ingest adapter that requests messages from a publisher as
+     * far as the free resources and the room in the queue allow.
+     *
+     * @return a new subscriber that receives into this scheduler
+     */
+    public SchedulerSubscriber newSubscriber() {
+        return new SchedulerSubscriber(this);
+    }
+
+    /**
+     * Registers a listener that is run when a scheduler that had reached its
+     * high watermark drops to its low watermark and accepts messages again,
+     * and whenever a resource completes. The listener runs on the thread that
+     * dispatched or completed the message and should be cheap and not block.
+     *
+     * @param listener signalled when demand resumes
+     */
+    public void addDemandListener(Runnable listener) {
+        admission.addDemandListener(listener);
+    }
+
+    public void removeDemandListener(Runnable listener) {
+        admission.removeDemandListener(listener);
+    }
+
+    /**
+     * The journal of the scheduler.
+     *
+     * @return the journal or null if none is configured
+     */
+    MessageJournal getJournal() {
+        return journal;
+    }
+
+    AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    Collection<? extends List<InFlightSlot>> getPermits() {
+        return resources.values();
+    }
+
+    void forEachGroup(Consumer<? super Group> action) {
+        groups.forEach(action);
+    }
+
+    /**
+     * Receives message from internal connections and dispatches to the external
+     * resource. Messages are stored in a queue when no free resource is
+     * available. When the queue is bounded a message that does not fit is
+     * rejected, or waits for room with {@link AdmissionMode#BLOCK}.
+     *
+     * @param message received
+     * @throws RejectedMessageException if the message is not accepted
+     * @throws java.lang.Exception
+     */
+    @Override
+    public void receive(Message message) throws Exception {
+        AdmissionStatus status = receive(message, admission.isBlocking());
+        if (status != AdmissionStatus.ACCEPTED) {
+            Exception rejection = status == AdmissionStatus.GROUP_CLOSED
+                    ? rejection(Group.getInstance(message.getGroupId(), groups), message)
+                    : null;
+            throw rejection != null ? rejection : AdmissionControl.rejection(status, message);
+        }
+    }
+
+    /**
+     * Offers a message without blocking and without throwing when it is not
+     * accepted.
+     *
+     * @param message received
+     * @return {@link AdmissionStatus#ACCEPTED} or the reason the message was
+     * rejected
+     */
+    public AdmissionStatus tryReceive(Message message) {
+        try {
+            return receive(message, false);
+        } catch (InterruptedException ex) {
+            // only a blocking admission waits
+            Thread.currentThread().interrupt();
+            return AdmissionStatus.QUEUE_FULL;
+        }
+    }
+
+    private AdmissionStatus receive(Message message, boolean block) throws InterruptedException {
+        metrics.received(1);
+        Group group = Group.getInstance(message.getGroupId(), groups);
+        if (rejection(group, message) != null) {
+            metrics.rejected();
+            return AdmissionStatus.GROUP_CLOSED;
+        }
+        if (!classify(group, message)) {
+            metrics.rejected();
+            return AdmissionStatus.UNSUPPORTED_REQUIREMENTS;
+        }
+        message.setReceivedNanos(System.nanoTime());
+        message.setGroup(group);
+        // journaled before it can be dispatched and completed
+        long journaled = 0;
+        if (journal != null && !replaying) {
+            try {
+                journaled = journal.accepted(message);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "{0} can not be journaled: {1}", new Object[]{message, ex.getMessage()});
+                metrics.rejected();
+                return AdmissionStatus.UNSERIALIZABLE;
+            }
+        }
+        if (timed(group, message)) {
+            return durable(journaled);
+        }
+        AdmissionStatus status = enqueue(group, message, block, true);
+        if (status != AdmissionStatus.ACCEPTED) {
+            if (journaled != 0) {
+                journal.completed(message);
+            }
+            return status;
+        }
+        return durable(journaled);
+    }
+
+    /**
+     * Dispatches the message or queues it in its group.
+     *
+     * @param group of the message
+     * @param message to be processed
+     * @param block true to wait for room in a bounded queue
+     * @param apply true to apply the attributes of the message to its group
+     * @return {@link AdmissionStatus#ACCEPTED} or the reason the message did
+     * not fit in the queue
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    private AdmissionStatus enqueue(Group group, Message message, boolean block, boolean apply) throws InterruptedException {
+        // dispatch immediately unless earlier messages of the group are
+        // waiting or as many as the group allows are in flight
+        if (group.isEmpty() && !group.isThrottled() && !group.isHeld() && group.tryStartDispatch()) {
+            RateLimit groupLimit = group.getRateLimit();
+            boolean token = groupLimit != null && takeToken(group, groupLimit);
+            InFlightSlot slot = groupLimit == null || token ? acquire(group) : null;
+            while (slot != null && !takeToken(slot)) {
+                // parked until its resource has a token, try another one
+                slot = acquire(group);
+            }
+            if (slot != null) {
+                if (apply) {
+                    accepted(group, message);
+                }
+                processNextGroup(message, slot);
+                return AdmissionStatus.ACCEPTED;
+            }
+            if (token) {
+                groupLimit.refund();
+            }
+            group.endDispatch();
+        }
+        Message superseded = group.supersede(message);
+        if (superseded != null) {
+            // takes the place of the waiting message, no room is needed
+            if (apply) {
+                accepted(group, message);
+            }
+            coalesced(superseded, message);
+            return AdmissionStatus.ACCEPTED;
+        }
+        AdmissionStatus status = admission.admit(group, message, block);
+        if (status != AdmissionStatus.ACCEPTED) {
+            metrics.rejected();
+            return status;
+        }
+        if (apply) {
+            accepted(group, message);
+        }
+        queuedMessages.increment();
+        ready(group);
+        // a resource may have been released while the message was queued
+        InFlightSlot slot = capabilities.acquire(group.getRequirementClass());
+        if (slot != null) {
+            processNextGroup(slot);
+        }
+        return AdmissionStatus.ACCEPTED;
+    }
+
+    /**
+     * Holds back a message that is not due yet and gives up on one whose
+     * deadline has passed. The clock is only read for messages with a time.
+     * A termination message is also held back while messages of its group
+     * are in the timing wheel, so that it is queued after them.
+     *
+     * @param group of the message
+     * @param message received
+     * @return true if the message is not to be queued now
+     */
+    private boolean timed(Group group, Message message) {
+        if (message.isTerminationMessage() && group.holdTermination(message)) {
+            accepted(group, message);
+            delayed.increment();
+            return true;
+        }
+        long notBefore = message.getNotBefore();
+        long deadline = message.getDeadline();
+        if (notBefore == 0 && deadline == 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (deadline != 0 && deadline <= now) {
+            expire(message);
+            return true;
+        }
+        if (notBefore > now) {
+            accepted(group, message);
+            delayed.increment();
+            group.delay();
+            if (!timers.schedule(message, notBefore)) {
+                delayed.decrement();
+                abandon(message);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Signalled by the timing wheel with a message or a task that is due.
+     *
+     * @param timer the payload that is due
+     */
+    private void timerDue(Object timer) {
+        if (timer instanceof Message) {
+            due((Message) timer);
+        } else {
+            ((Runnable) timer).run();
+        }
+    }
+
+    /**
+     * Signalled by the timing wheel when a delayed message is due. A
+     * termination message waits for the delayed messages of its group that
+     * are due later, the termination message held back until this one was
+     * due is queued after it.
+     *
+     * @param message that is due
+     */
+    private void due(Message message) {
+        Group group = message.getGroup();
+        Message termination = group.undelay();
+        if (message.isTerminationMessage() && !group.isCancelled() && group.holdTermination(message)) {
+            return;
+        }
+        released(message);
+        if (termination == null) {
+            return;
+        }
+        long notBefore = termination.getNotBefore();
+        if (notBefore > System.currentTimeMillis() && !group.isCancelled()) {
+            group.delay();
+            if (!timers.schedule(termination, notBefore)) {
+                delayed.decrement();
+                abandon(termination);
+            }
+        } else {
+            released(termination);
+        }
+    }
+
+    /**
+     * Queues a message that the timing wheel released, or gives up on it if
+     * its deadline has passed or its group has gone in the meantime.
+     *
+     * @param message released
+     */
+    private void released(Message message) {
+        delayed.decrement();
+        Group group = message.getGroup();
+        if (group.isCancelled()) {
+            if (journal != null) {
+                journal.discarded(message);
+            }
+            message.release();
+            return;
+        }
+        long deadline = message.getDeadline();
+        if (deadline != 0 && deadline <= System.currentTimeMillis()) {
+            expire(message);
+            return;
+        }
+        if (group.isRetired()) {
+            // received before its group terminated but due after the
+            // termination message was sent
+            if (journal != null) {
+                journal.completed(message);
+            }
+            metrics.rejected();
+            deadLetter(message, DeadLetterReason.REJECTED);
+            message.release();
+            return;
+        }
+        AdmissionStatus status;
+        try {
+            status = enqueue(group, message, false, false);
+        } catch (InterruptedException ex) {
+            // only a blocking admission waits
+            Thread.currentThread().interrupt();
+            status = AdmissionStatus.QUEUE_FULL;
+        }
+        if (status != AdmissionStatus.ACCEPTED) {
+            if (journal != null) {
+                journal.completed(message);
+            }
+            deadLetter(message, DeadLetterReason.REJECTED);
+            message.release();
+        }
+    }
+
+    /**
+     * Gives up on a message whose deadline has passed.
+     *
+     * @param message expired
+     */
+    private void expire(Message message) {
+        metrics.expired();
+        if (journal != null) {
+            journal.completed(message);
+        }
+        if (message.isTerminationMessage()) {
+            Group group = message.getGroup();
+            group.setTerminated(true);
+            groups.retire(group);
+        }
+        deadLetter(message, DeadLetterReason.EXPIRED);
+        message.release();
+    }
+
+    /**
+     * Completes a waiting message that a later message with the same
+     * coalesce key has superseded. Its group releases it once it has polled
+     * past it.
+     *
+     * @param superseded the waiting message, not sent
+     * @param by the message that took its place
+     */
+    private void coalesced(Message superseded, Message by) {
+        metrics.coalesced();
+        if (journal != null) {
+            journal.completed(superseded);
+        }
+        try {
+            superseded.coalesced(by);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "completed action of coalesced " + superseded + " failed", ex);
+        }
+    }
+
+    /**
+     * Gives up on a message that was to wait in the timing wheel after the
+     * scheduler was shut down. A journal recovers it on the next start,
+     * otherwise it goes to the dead-letter sink.
+     *
+     * @param message not held
+     */
+    private void abandon(Message message) {
+        if (journal == null) {
+            deadLetter(message, DeadLetterReason.REJECTED);
+        }
+        message.release();
+    }
+
+    private void deadLetter(Message message, DeadLetterReason reason) {
+        if (deadLetterSink == null) {
+            LOG.log(Level.FINE, "{0} dropped: {1}", new Object[]{message, reason});
+            return;
+        }
+        try {
+            deadLetterSink.deadLetter(message, reason);
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "dead-letter sink failed for " + message, ex);
+        }
+    }
+
+    /**
+     * The number of messages held back until they are due.
+     *
+     * @return the number of delayed messages
+     */
+    public int getDelayedMessageCount() {
+        return delayed.intValue();
+    }
+
+    /**
+     * The number of resources taken out of rotation by their circuit
+     * breaker.
+     *
+     * @return the number of open circuits
+     */
+    public int getOpenCircuitCount() {
+        int count = 0;
+        for (List<InFlightSlot> permits : resources.values()) {
+            CircuitBreaker breaker = permits.get(0).getBreaker();
+            if (breaker != null && breaker.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits for the journal to be forced up to an accepted message.
+     *
+     * @param journaled position of the message in the journal, 0 if it was
+     * not journaled
+     * @return {@link AdmissionStatus#ACCEPTED}
+     */
+    private AdmissionStatus durable(long journaled) {
+        if (journaled != 0) {
+            journal.sync(journaled);
+        }
+        return AdmissionStatus.ACCEPTED;
+    }
+
+    /**
+     * Applies the attributes of an accepted message to its group.
+     *
+     * @param group of the message
+     * @param message accepted
+     */
+    private void accepted(Group group, Message message) {
+        if (message.isTerminationMessage()) {
+            group.setTerminated(true);
+            if (journal != null && !replaying) {
+                journal.terminated(group.getId());
+            }
+        }
+        if (message.getPriority() > group.getPriority()) {
+            raisePriority(group, message.getPriority());
+        }
+    }
+
+    /**
+     * Receives a batch of messages. Each group is resolved once, its messages
+     * are appended as a run and the groups are queued with a single lock
+     * acquisition per shard. The free resources are then handed out in one
+     * pass. A receive of a batch never blocks, the messages of a group that
+     * do not fit in a bounded queue are rejected.
+     *
+     * @param messages received, in the order they were produced
+     * @return the messages that were rejected together with the reason
+     */
+    @Override
+    public Map<Message, Exception> receiveAll(Collection<? extends Message> messages) {
+        Map<Message, Exception> rejected = new LinkedHashMap<>();
+        long journaled = 0;
+        metrics.received(messages.size());
+        long now = System.nanoTime();
+        Map<Long, List<Message>> runs = new LinkedHashMap<>();
+        for (Message message : messages) {
+            runs.computeIfAbsent(message.getGroupId(), (groupId) -> new ArrayList<>()).add(message);
+        }
+        List<Group> received = new ArrayList<>(runs.size());
+        for (Map.Entry<Long, List<Message>> entry : runs.entrySet()) {
+            Group group = Group.getInstance(entry.getKey(), groups);
+            List<Message> run = entry.getValue();
+            int accepted = 0;
+            Message termination = null;
+            List<Message> trailing = null;
+            for (Message message : run) {
+                if (termination != null) {
+                    // rejected once the termination message has been admitted
+                    if (trailing == null) {
+                        trailing = new ArrayList<>();
+                    }
+                    trailing.add(message);
+                    continue;
+                }
+                Exception rejection = rejection(group, message);
+                if (rejection != null) {
+                    metrics.rejected();
+                    rejected.put(message, rejection);
+                    continue;
+                }
+                if (!classify(group, message)) {
+                    metrics.rejected();
+                    rejected.put(message, AdmissionControl.rejection(AdmissionStatus.UNSUPPORTED_REQUIREMENTS, message));
+                    continue;
+                }
+                message.setReceivedNanos(now);
+                message.setGroup(group);
+                if (journal != null) {
+                    try {
+                        journaled = journal.accepted(message);
+                    } catch (IOException ex) {
+                        LOG.log(Level.WARNING, "{0} can not be journaled: {1}", new Object[]{message, ex.getMessage()});
+                        metrics.rejected();
+                        rejected.put(message, AdmissionControl.rejection(AdmissionStatus.UNSERIALIZABLE, message));
+                        continue;
+                    }
+                }
+                if (message.isTerminationMessage()) {
+                    termination = message;
+                }
+                if (timed(group, message)) {
+                    continue;
+                }
+                Message superseded = group.supersede(message);
+                if (superseded != null) {
+                    accepted(group, message);
+                    coalesced(superseded, message);
+                    continue;
+                }
+                run.set(accepted++, message);
+            }
+            if (accepted > 0) {
+                int admitted = admission.admitAll(group, run.subList(0, accepted), rejected);
+                for (int i = 0; i < accepted; i++) {
+                    if (i < admitted) {
+                        accepted(group, run.get(i));
+                    } else {
+                        metrics.rejected();
+                        if (journal != null) {
+                            journal.completed(run.get(i));
+                        }
+                    }
+                }
+                if (admitted > 0) {
+                    queuedMessages.add(admitted);
+                    received.add(group);
+                }
+            }
+            if (trailing != null) {
+                // behind a termination message that did not fit, the later
+                // messages would overtake it, otherwise the group is closed
+                Exception refused = rejected.get(termination);
+                AdmissionStatus status = refused instanceof RejectedMessageException
+                        ? ((RejectedMessageException) refused).getStatus() : AdmissionStatus.GROUP_CLOSED;
+                for (Message message : trailing) {
+                    metrics.rejected();
+                    rejected.put(message, status == AdmissionStatus.GROUP_CLOSED
+                            ? terminated(message) : AdmissionControl.rejection(status, message));
+                }
+            }
+        }
+        if (!received.isEmpty()) {
+            if (shardCount > 1 || capabilities.getClasses().length > 1) {
+                received.sort(Comparator.comparingInt((Group group) -> group.getRequirementClass().id)
+                        .thenComparingInt((group) -> GroupRegistry.hash(group.getId()) & shardMask));
+            }
+            for (int i = 0; i < received.size();) {
+                SchedulerShard shard = shardOf(received.get(i));
+                synchronized (shard) {
+                    long locked = System.nanoTime();
+                    do {
+                        shard.ready(received.get(i++));
+                    } while (i < received.size() && shardOf(received.get(i)) == shard);
+                    metrics.queueLockReleased(locked);
+                }
+            }
+            for (CapabilityIndex.ResourceClass resources : capabilities.getResourceClasses()) {
+                InFlightSlot slot = resources.pool.acquire();
+                while (slot != null && processNextGroup(slot)) {
+                    slot = resources.pool.acquire();
+                }
+            }
+        }
+        durable(journaled);
+        return rejected;
+    }
+
+    /**
+     * Checks whether the group accepts the message.
+     *
+     * @param group the message belongs to
+     * @param message received
+     * @return the reason the message is rejected or null if it is accepted
+     */
+    private static Exception rejection(Group group, Message message) {
+        if (group.isTerminated()) {
+            return terminated(message);
+        }
+        if (group.isCancelled()) {
+            return new RejectedMessageException("Group was cancelled. No further message will be processed from group " + message.getGroupId(), AdmissionStatus.GROUP_CLOSED);
+        }
+        return null;
+    }
+
+    private static Exception terminated(Message message) {
+        return new RejectedMessageException("Group has terminated. No further message will be processed from group " + message.getGroupId(), AdmissionStatus.GROUP_CLOSED);
+    }
+
+    private void raisePriority(Group group, int priority) {
+        SchedulerShard shard = shardOf(group);
+        synchronized (shard) {
+            if (priority > group.getPriority()) {
+                group.setPriority(priority);
+                shard.groupChanged(group);
+            }
+        }
+    }
+
+    /**
+     * Adds the group to the queue of groups that are ready to be processed,
+     * unless it is already there.
+     *
+     * @param group that has received a message
+     */
+    private void ready(Group group) {
+        if (group.isQueued()) {
+            return;
+        }
+        SchedulerShard shard = shardOf(group);
+        synchronized (shard) {
+            long locked = System.nanoTime();
+            shard.ready(group);
+            metrics.queueLockReleased(locked);
+        }
+    }
+
+    /**
+     * Queues a group that has become selectable again, after a message in
+     * flight completed or its limit was raised, and wakes a free resource
+     * for it.
+     *
+     * @param group that may be selected
+     */
+    private void requeue(Group group) {
+        if (isSelectable(group) && !group.isQueued()) {
+            ready(group);
+            InFlightSlot slot = capabilities.acquire(group.getRequirementClass());
+            if (slot != null) {
+                processNextGroup(slot);
+            }
+        }
+    }
+
+    private void dispatchEnded(Group group) {
+        group.endDispatch();
+        requeue(group);
+    }
+
+    /**
+     * Signalled by the slot of a resource once its message, or every message
+     * of its batch, has completed.
+     *
+     * @param slot of the resource that has become available
+     */
+    void slotCompleted(InFlightSlot slot) {
+        ConcurrencyLimiter limiter = slot.getLimiter();
+        if (limiter != null) {
+            adapt(slot, limiter);
+        }
+        boolean failed = false;
+        boolean held = false;
+        if (!slot.getFailures().isEmpty()) {
+            failed = isRetryableFailure(slot);
+            held = failed(slot);
+        }
+        CircuitBreaker breaker = slot.getBreaker();
+        if (slot.getResource().isRemoved() || pool(slot).isRemoved(slot)) {
+            // lets the pool reclaim the slot of the resource or withdrawn permit
+            pool(slot).remove(slot);
+            pool(slot).release(slot);
+            endDispatches(slot, held);
+            if (breaker != null && breaker.withdrawn(slot)) {
+                probe(breaker);
+            }
+            admission.signalDemand();
+            return;
+        }
+        int circuit = breaker == null ? CircuitBreaker.CONTINUE : breaker.completed(slot, failed);
+        if (circuit == CircuitBreaker.PARKED || circuit == CircuitBreaker.OPENED) {
+            if (circuit == CircuitBreaker.OPENED) {
+                // before the groups are requeued, which would wake a permit
+                opened(slot.getResource(), breaker);
+            }
+            endDispatches(slot, held);
+        } else {
+            // the group of a message that is retried keeps its place
+            messageCompleted(held ? null : slot.getLastGroup(), slot);
+            if (circuit == CircuitBreaker.CLOSED) {
+                for (InFlightSlot parked : breaker.unpark()) {
+                    resume(parked);
+                }
+            }
+        }
+        admission.signalDemand();
+    }
+
+    /**
+     * Gives back the places in flight of the groups of the completed slot.
+     *
+     * @param slot that has completed
+     * @param held true if the group of a single message keeps its place
+     */
+    private void endDispatches(InFlightSlot slot, boolean held) {
+        if (slot.isBatch()) {
+            List<Group> started = slot.getBatchGroups();
+            while (!started.isEmpty()) {
+                dispatchEnded(started.remove(started.size() - 1));
+            }
+        } else if (!held) {
+            dispatchEnded(slot.getLastGroup());
+        }
+    }
+
+    /**
+     * A dispatch counts as a failure of the resource if a message failed in
+     * a way a retry may fix. A permanent failure is the message's fault.
+     */
+    private static boolean isRetryableFailure(InFlightSlot slot) {
+        for (Message message : slot.getFailures()) {
+            if (slot.isRetryable(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Schedules the retry of the failed messages of a slot and gives up on
+     * those that failed permanently or have no retry left. The group of a
+     * retried message keeps its place in flight until the retry is due, so
+     * later messages of the group do not overtake it.
+     *
+     * @param slot with failed messages
+     * @return true if the group of the last message of the slot keeps its
+     * place
+     */
+    private boolean failed(InFlightSlot slot) {
+        Map<Group, List<Message>> retries = null;
+        for (Message message : slot.getFailures()) {
+            Group group = message.getGroup();
+            int attempts = message.getAttempts() + 1;
+            message.setAttempts(attempts);
+            boolean retryable = slot.isRetryable(message);
+            // a message that does not keep the count is not retried
+            if (retryable && attempts <= maxRetries && message.getAttempts() == attempts && !group.isCancelled()) {
+                if (retries == null) {
+                    retries = new LinkedHashMap<>();
+                }
+                retries.computeIfAbsent(group, (key) -> new ArrayList<>(1)).add(message);
+                continue;
+            }
+            metrics.failed();
+            LOG.log(Level.WARNING, "{0} failed after {1} attempts: {2}",
+                    new Object[]{message, attempts, slot.getFailureCause()});
+            if (journal != null) {
+                journal.completed(message);
+            }
+            deadLetter(message, retryable ? DeadLetterReason.RETRIES_EXHAUSTED : DeadLetterReason.FAILED);
+            message.release();
+        }
+        slot.clearFailures();
+        if (retries == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Group, List<Message>> entry : retries.entrySet()) {
+            Group group = entry.getKey();
+            List<Message> messages = entry.getValue();
+            metrics.retried(messages.size());
+            if (slot.isBatch()) {
+                // one place in flight of the group stays with the retry
+                slot.getBatchGroups().remove(group);
+            }
+            long delay = retryDelay(messages.get(0).getAttempts());
+            if (!timers.schedule((Runnable) () -> retryDue(group, messages), now + delay)) {
+                for (Message message : messages) {
+                    abandon(message);
+                }
+            }
+        }
+        return retries.containsKey(slot.getLastGroup());
+    }
+
+    /**
+     * Backs off exponentially with the attempts. The delay is drawn from the
+     * upper half of the backoff so the retries of messages that failed
+     * together spread out.
+     *
+     * @param attempts the number of failed attempts
+     * @return the delay in milliseconds
+     */
+    private long retryDelay(int attempts) {
+        long backoff = Math.min(maxRetryBackoffMillis, retryBackoffMillis << Math.min(attempts - 1, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Puts the messages back at the head of their group once their backoff
+     * has passed and gives back the place in flight they held.
+     *
+     * @param group of the messages
+     * @param messages to be retried
+     */
+    private void retryDue(Group group, List<Message> messages) {
+        group.retry(messages);
+        queuedMessages.add(messages.size());
+        admission.requeued(messages.size());
+        if (group.isCancelled()) {
+            discard(group);
+        }
+        dispatchEnded(group);
+    }
+
+    /**
+     * Takes the free permits of a resource whose breaker has opened out of
+     * rotation and schedules the probe.
+     *
+     * @param resource out of rotation
+     * @param breaker of the resource
+     */
+    private void opened(Resource resource, CircuitBreaker breaker) {
+        LOG.log(Level.WARNING, "{0} taken out of rotation for {1} ms",
+                new Object[]{resource, breaker.getOpenMillis()});
+        List<InFlightSlot> permits = resources.get(resource);
+        if (permits != null) {
+            for (InFlightSlot permit : permits) {
+                if (pool(permit).acquire(permit) && !breaker.park(permit)) {
+                    // the breaker closed meanwhile
+                    resume(permit);
+                }
+            }
+        }
+        timers.schedule((Runnable) () -> probe(breaker), System.currentTimeMillis() + breaker.getOpenMillis());
+    }
+
+    /**
+     * Releases one parked permit of a resource whose breaker has been open
+     * long enough, its next send decides whether the breaker closes.
+     *
+     * @param breaker of the resource
+     */
+    private void probe(CircuitBreaker breaker) {
+        InFlightSlot slot;
+        while ((slot = breaker.probe()) != null && !resume(slot)) {
+            // the permit was withdrawn, probe with another one
+        }
+    }
+
+    /**
+     * Returns a parked permit to rotation, or lets the pool reclaim it if it
+     * has been withdrawn meanwhile.
+     *
+     * @param slot that was parked
+     * @return true if the permit is back in rotation
+     */
+    private boolean resume(InFlightSlot slot) {
+        if (slot.getResource().isRemoved() || pool(slot).isRemoved(slot)) {
+            pool(slot).remove(slot);
+            pool(slot).release(slot);
+            return false;
+        }
+        processNextGroup(slot);
+        return true;
+    }
+
+    /**
+     * Processes the next message in the same group as the previously completed
+     * message. If there are no more messages in the same group, the resource
+     * has reached the cap on consecutive messages, or a
+     * {@link SchedulingQueue} prefers another group, it will proceed to the
+     * next group or return the resource to the collection of available
+     * resources.
+     *
+     * @param group of the message that was processed
+     * @param slot of the resource that has become available due to process
+     * completed
+     */
+    private void messageCompleted(Group group, InFlightSlot slot) {
+        if (!takeToken(slot)) {
+            // parked until the resource has a token
+            endDispatches(slot, group == null);
+            return;
+        }
+        if (slot.isBatch()) {
+            processNextBatch(slot, group, false);
+            return;
+        }
+        Message next = group == null || group.isCancelled() || !isSticky(group, slot) ? null : poll(group);
+        if (next == null) {
+            refundToken(slot);
+            if (group != null) {
+                dispatchEnded(group);
+            }
+            processNextGroup(slot);
+        } else {
+            // the next message takes over the place in flight of the group
+            processNextGroup(next, slot);
+        }
+    }
+
+    /**
+     * Incorporates a resource that has recently become available. Either is was
+     * add as a new resource to the system or the resource has completed
+     * processing the previous message.
+     *
+     * @param slot of the recently available resource
+     * @return true if a message was dispatched to the resource or the
+     * resource waits for a token, false if the resource was returned to the
+     * available resources
+     */
+    boolean processNextGroup(InFlightSlot slot) {
+        for (;;) {
+            if (!takeToken(slot)) {
+                return true;
+            }
+            if (slot.isBatch()) {
+                return processNextBatch(slot, null, true);
+            }
+            Message message = select(slot);
+            if (message != null) {
+                processNextGroup(message, slot);
+                return true;
+            }
+            slot = release(slot);
+            if (slot == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Takes the next message the resource can process. The requirement
+     * classes with queued groups that the resource satisfies are taken in
+     * turn, starting after the class the resource last took work from, and
+     * within a class the home shard of the resource first.
+     *
+     * @param slot of the free resource
+     * @return the message or null if there is no compatible work
+     */
+    private Message select(InFlightSlot slot) {
+        CapabilityIndex.ResourceClass resources = slot.getResourceClass();
+        int classes = capabilities.getClasses().length;
+        int home = slot.getHomeShard();
+        int id = capabilities.nextReady(resources, slot.getClassCursor());
+        for (int visited = 0; id >= 0 && visited < classes; visited++) {
+            SchedulerShard[] shards = capabilities.get(id).shards;
+            for (int i = 0; i < shards.length; i++) {
+                Message message = select(shards[(home + i) & shardMask], slot);
+                if (message != null) {
+                    if (classes > 1) {
+                        slot.setClassCursor(id + 1);
+                    }
+                    return message;
+                }
+            }
+            id = capabilities.nextReady(resources, id + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next message from the groups queued in the shard.
+     *
+     * @param shard to select from
+     * @param slot of the resource the message is for
+     * @return the message or null if the shard has no ready groups
+     */
+    private Message select(SchedulerShard shard, InFlightSlot slot) {
+        if (!shard.hasQueuedGroups()) {
+            return null;
+        }
+        Message message = null;
+        // synchronize when performing queue operations, just in case 
+        // the queue provided is not thread-safe
+        synchronized (shard) {
+            long locked = System.nanoTime();
+            rotateCapped(shard, slot);
+            Group group;
+            while (message == null && (group = shard.peek()) != null) {
+                if (!group.isCancelled() && group.tryStartDispatch()) {
+                    message = poll(group);
+                    if (message == null) {
+                        group.endDispatch();
+                    }
+                }
+                // a group with as many messages in flight as it allows leaves
+                // the queue until one of them completes
+                if (message == null || !isSelectable(group)) {
+                    shard.removeHead(group);
+                }
+                if (message != null) {
+                    shard.messageDispatched(group);
+                }
+            }
+            metrics.queueLockReleased(locked);
+        }
+        return message;
+    }
+
+    /**
+     * Returns the resource to the available resources, with the token it
+     * took. A group queued after the resource found the shards empty, but
+     * before it was returned, could otherwise be left without a resource.
+     *
+     * @param slot of the resource with nothing to process
+     * @return an available resource that should select again, or null
+     */
+    private InFlightSlot release(InFlightSlot slot) {
+        refundToken(slot);
+        ResourcePool pool = pool(slot);
+        pool.release(slot, isPreferred(slot));
+        return capabilities.hasReady(slot.getResourceClass()) ? pool.acquire() : null;
+    }
+
+    /**
+     * A resource with an adaptive limit is preferred while its recent send
+     * time is no worse than the mean over all resources, slower resources are
+     * only taken when no preferred resource is free.
+     *
+     * @param slot of the resource being released
+     * @return true if the resource should be taken first
+     */
+    private boolean isPreferred(InFlightSlot slot) {
+        ConcurrencyLimiter limiter = slot.getLimiter();
+        return limiter == null || limiter.getSmoothedRtt() <= meanSendNanos;
+    }
+
+    /**
+     * Takes a free resource for a message of the group, preferring the
+     * resource that processed the previous message of the group when
+     * affinity is enabled.
+     *
+     * @param group of the message
+     * @return the resource or null if none is free
+     */
+    private InFlightSlot acquire(Group group) {
+        if (resourceAffinity) {
+            InFlightSlot previous = group.getAffinity();
+            if (previous != null && pool(previous).acquire(previous)) {
+                return previous;
+            }
+        }
+        return capabilities.acquire(group.getRequirementClass());
+    }
+
+    private void processNextGroup(Message message, InFlightSlot slot) {
+        if (message.isTerminationMessage()) {
+            // the group has drained, only late messages need to be rejected
+            groups.retire(message.getGroup());
+        }
+        if (resourceAffinity) {
+            message.getGroup().setAffinity(slot);
+        }
+        slot.bind(message);
+        engine.execute(slot);
+    }
+
+    /**
+     * Collects the next batch for a resource that accepts several messages per
+     * call. The batch continues the group of the previous batch, and is then
+     * filled from the groups at the head of the queue. When fewer messages than
+     * the maximum batch size are queued the resource may linger for more
+     * messages to arrive.
+     *
+     * @param slot of the recently available batch resource
+     * @param previous group of the last message of the previous batch, or null
+     * @param linger true if the resource may wait for a fuller batch
+     * @return true if a batch was dispatched or the resource lingers, false if
+     * the resource was returned to the available resources
+     */
+    private boolean processNextBatch(InFlightSlot slot, Group previous, boolean linger) {
+        int maxBatchSize = Math.max(1, ((BatchGateway) slot.getResource()).getMaxBatchSize());
+        if (linger && batchLingerNanos > 0) {
+            long queued = queuedMessages.sum();
+            if (queued > 0 && queued < maxBatchSize) {
+                timer.schedule(() -> {
+                    if (slot.getResource().isRemoved()) {
+                        pool(slot).remove(slot);
+                        pool(slot).release(slot);
+                    } else {
+                        processNextBatch(slot, null, false);
+                    }
+                }, batchLingerNanos, TimeUnit.NANOSECONDS);
+                return true;
+            }
+        }
+        List<Message> batch = slot.getBatch();
+        List<Group> started = slot.getBatchGroups();
+        boolean continued = false;
+        if (previous != null && !previous.isCancelled() && isSticky(previous, slot)) {
+            pollInto(previous, batch, maxBatchSize);
+            continued = !batch.isEmpty();
+        }
+        // give back the places in flight of the completed batch, except the
+        // one of the group the resource continues with
+        for (int i = started.size() - 1; i >= 0; i--) {
+            Group group = started.remove(i);
+            if (continued && group == previous) {
+                continued = false;
+                started.add(group);
+            } else {
+                dispatchEnded(group);
+            }
+        }
+        int home = slot.getHomeShard();
+        CapabilityIndex.ResourceClass resources = slot.getResourceClass();
+        int classes = capabilities.getClasses().length;
+        int id = capabilities.nextReady(resources, slot.getClassCursor());
+        for (int visited = 0, i = 0; id >= 0 && visited < classes
+                && (batch.isEmpty() || mixedGroupBatches && batch.size() < maxBatchSize);) {
+            SchedulerShard[] shards = capabilities.get(id).shards;
+            SchedulerShard shard = shards[(home + i) & shardMask];
+            if (++i == shards.length) {
+                // the next compatible class once every shard has been tried
+                i = 0;
+                visited++;
+                if (classes > 1) {
+                    slot.setClassCursor(id + 1);
+                }
+                id = capabilities.nextReady(resources, id + 1);
+            }
+            if (!shard.hasQueuedGroups()) {
+                continue;
+            }
+            synchronized (shard) {
+                long locked = System.nanoTime();
+                rotateCapped(shard, slot);
+                Group group;
+                while (batch.size() < maxBatchSize && (group = shard.peek()) != null) {
+                    int size = batch.size();
+                    if (!group.isCancelled() && group.tryStartDispatch()) {
+                        pollInto(group, batch, maxBatchSize);
+                        if (batch.size() == size) {
+                            group.endDispatch();
+                        } else {
+                            started.add(group);
+                        }
+                    }
+                    if (batch.size() == size || !isSelectable(group)) {
+                        shard.removeHead(group);
+                    }
+                    if (batch.size() > size) {
+                        shard.messageDispatched(group);
+                        if (!mixedGroupBatches) {
+                            break;
+                        }
+                    }
+                }
+                metrics.queueLockReleased(locked);
+            }
+        }
+        if (batch.isEmpty()) {
+            InFlightSlot available = release(slot);
+            return available != null && processNextGroup(available);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            if (message.isTerminationMessage()) {
+                groups.retire(message.getGroup());
+            }
+        }
+        slot.bindBatch();
+        engine.execute(slot);
+        return true;
+    }
+
+    /**
+     * Takes a token of the resource of a free permit. A permit whose
+     * resource has run out of tokens is parked on the timing wheel until the
+     * next token is due rather than holding a thread.
+     *
+     * @param slot of the free resource
+     * @return true if the resource may send, false if the permit is parked
+     */
+    private boolean takeToken(InFlightSlot slot) {
+        RateLimit limit = slot.getRateLimit();
+        if (limit == null) {
+            return true;
+        }
+        long wait = limit.tryAcquire(System.nanoTime());
+        if (wait == 0) {
+            return true;
+        }
+        metrics.resourceThrottled();
+        timers.schedule((Runnable) () -> {
+            // the breaker may have opened while the permit waited
+            CircuitBreaker breaker = slot.getBreaker();
+            if (breaker == null || !breaker.park(slot)) {
+                resume(slot);
+            }
+        }, dueMillis(wait));
+        return false;
+    }
+
+    /**
+     * Gives back the token of a permit that found nothing to send.
+     *
+     * @param slot of the resource
+     */
+    private static void refundToken(InFlightSlot slot) {
+        RateLimit limit = slot.getRateLimit();
+        if (limit != null) {
+            limit.refund();
+        }
+    }
+
+    /**
+     * Takes a token of a group. A group that has run out of tokens is
+     * throttled, which takes it out of the queue, until the next token is
+     * due.
+     *
+     * @param group that is rate limited
+     * @param limit of the group
+     * @return true if a message of the group may be sent
+     */
+    private boolean takeToken(Group group, RateLimit limit) {
+        long wait = limit.tryAcquire(System.nanoTime());
+        if (wait == 0) {
+            return true;
+        }
+        if (group.throttle()) {
+            metrics.groupThrottled();
+            timers.schedule((Runnable) () -> {
+                group.unthrottle();
+                requeue(group);
+            }, dueMillis(wait));
+        }
+        return false;
+    }
+
+    private static long dueMillis(long waitNanos) {
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    private boolean isSticky(Group group, InFlightSlot slot) {
+        if (isCapped(slot)) {
+            return false;
+        }
+        return shardOf(group).isSticky(group);
+    }
+
+    private boolean isCapped(InFlightSlot slot) {
+        return maxConsecutiveMessages > 0 && slot.getConsecutive() >= maxConsecutiveMessages;
+    }
+
+    /**
+     * Moves the group of a resource that has reached the cap on consecutive
+     * messages from the head to the tail of a plain queue, which would
+     * otherwise select it again. Guarded by the shard lock.
+     *
+     * @param shard the resource selects from
+     * @param slot of the resource selecting the next group
+     */
+    private void rotateCapped(SchedulerShard shard, InFlightSlot slot) {
+        if (isCapped(slot)) {
+            shard.rotate(slot.getLastGroup());
+        }
+    }
+
+    /**
+     * Takes the next message of the group, and a token of the group when it
+     * is rate limited. A group without a token is throttled and the poll
+     * finds it empty, as does the poll of a held group.
+     */
+    private Message poll(Group group) {
+        if (group.isHeld()) {
+            return null;
+        }
+        RateLimit limit = group.getRateLimit();
+        for (;;) {
+            if (limit != null && (group.isEmpty() || !takeToken(group, limit))) {
+                return null;
+            }
+            Message message = group.poll();
+            if (message == null) {
+                if (limit != null) {
+                    limit.refund();
+                }
+                return null;
+            }
+            queuedMessages.decrement();
+            admission.released(1);
+            long deadline = message.getDeadline();
+            if (deadline == 0 || deadline > System.currentTimeMillis()) {
+                return message;
+            }
+            if (limit != null) {
+                limit.refund();
+            }
+            // expired while queued, given up on by the thread of the wheel
+            // rather than under the lock of the shard
+            delayed.increment();
+            if (!timers.schedule((Runnable) () -> released(message), 0)) {
+                delayed.decrement();
+                abandon(message);
+            }
+        }
+    }
+
+    private void pollInto(Group group, List<Message> batch, int maxBatchSize) {
+        Message message;
+        while (batch.size() < maxBatchSize && (message = poll(group)) != null) {
+            batch.add(message);
+        }
     }
 
 }
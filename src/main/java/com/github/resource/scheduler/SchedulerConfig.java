@@ -0,0 +1,539 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.DeadLetterSink;
+import com.github.resource.scheduler.api.MessageSerializer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning parameters of the resource scheduler. The defaults are used when the
+ * scheduler is constructed without a configuration.
+ *
+ * @author Brighton
+ */
+public class SchedulerConfig {
+
+    private int concurrencyLevel = 16;
+    private long tombstoneWindowMillis = TimeUnit.MINUTES.toMillis(10);
+    private boolean mixedGroupBatches;
+    private long batchLingerMillis;
+    private DispatchMode dispatchMode = DispatchMode.defaultMode();
+    private int dispatchThreads = 64;
+    private String jmxName;
+    private int maxConsecutiveMessages;
+    private int shards = 1;
+    private boolean resourceAffinity;
+    private LimitAlgorithm limitAlgorithm = LimitAlgorithm.FIXED;
+    private int minResourceLimit = 1;
+    private int maxResourceLimit = 64;
+    private long maxQueuedMessages;
+    private int maxQueuedMessagesPerGroup;
+    private long queueLowWatermark = -1;
+    private AdmissionMode admissionMode = AdmissionMode.FAIL_FAST;
+    private long admissionTimeoutMillis;
+    private int completionBatchSize = 64;
+    private int completionBufferSize = 1024;
+    private String journalDirectory;
+    private MessageSerializer messageSerializer;
+    private long journalSegmentBytes = 64L * 1024 * 1024;
+    private long journalSyncMillis;
+    private long timerTickMillis = 1;
+    private DeadLetterSink deadLetterSink;
+    private int maxRetries = 3;
+    private long retryBackoffMillis = 100;
+    private long maxRetryBackoffMillis = 10000;
+    private int circuitWindow = 20;
+    private int circuitFailureThreshold = 10;
+    private long circuitOpenMillis = 1000;
+    private long maxCircuitOpenMillis = 30000;
+    private int maxCapabilityClasses = 64;
+    private int rateLimitBurst = 1;
+
+    /**
+     * The number of independently locked segments of the group registry.
+     *
+     * @return the concurrency level
+     */
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    public void setConcurrencyLevel(int concurrencyLevel) {
+        this.concurrencyLevel = concurrencyLevel;
+    }
+
+    /**
+     * The minimum time messages for a cancelled or terminated group keep being
+     * rejected after the group has been removed.
+     *
+     * @return the window in milliseconds
+     */
+    public long getTombstoneWindowMillis() {
+        return tombstoneWindowMillis;
+    }
+
+    public void setTombstoneWindowMillis(long tombstoneWindowMillis) {
+        this.tombstoneWindowMillis = tombstoneWindowMillis;
+    }
+
+    /**
+     * Whether a batch for a {@link com.github.resource.scheduler.api.BatchGateway}
+     * may combine messages of several groups. When false a batch only holds
+     * consecutive messages of one group.
+     *
+     * @return true if batches may span groups
+     */
+    public boolean isMixedGroupBatches() {
+        return mixedGroupBatches;
+    }
+
+    public void setMixedGroupBatches(boolean mixedGroupBatches) {
+        this.mixedGroupBatches = mixedGroupBatches;
+    }
+
+    /**
+     * How long a batch resource waits for more messages when fewer than its
+     * maximum batch size are queued. Zero dispatches partial batches at once.
+     *
+     * @return the linger timeout in milliseconds
+     */
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    public void setBatchLingerMillis(long batchLingerMillis) {
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    /**
+     * How the sends to the resources are run. Defaults to virtual threads on
+     * JDK 21 or later and to a pool of platform threads otherwise.
+     *
+     * @return the dispatch mode
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    public void setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+    }
+
+    /**
+     * The number of platform threads used by {@link DispatchMode#PLATFORM_POOL}.
+     * Blocking sends beyond this number wait for a thread.
+     *
+     * @return the number of dispatch threads
+     */
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    /**
+     * The name under which the metrics of the scheduler are registered with
+     * the platform MBean server. The metrics are not registered when null,
+     * which is the default.
+     *
+     * @return the JMX name of the scheduler
+     */
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    public void setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+    }
+
+    /**
+     * The number of consecutive messages of the same group a resource may
+     * process before it has to select the next group from the queue again.
+     * Zero, the default, keeps the resource on its group until the group has
+     * drained or the queue decides otherwise.
+     *
+     * @return the cap on consecutive messages per group and resource
+     */
+    public int getMaxConsecutiveMessages() {
+        return maxConsecutiveMessages;
+    }
+
+    public void setMaxConsecutiveMessages(int maxConsecutiveMessages) {
+        this.maxConsecutiveMessages = maxConsecutiveMessages;
+    }
+
+    /**
+     * The number of shards the ready groups are partitioned into, rounded up
+     * to a power of two. More than one shard requires the scheduler to be
+     * constructed with a supplier of queues.
+     *
+     * @return the number of shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Whether a message that can be dispatched straight away prefers the
+     * resource that processed the previous message of its group, when that
+     * resource is free. Disabled by default.
+     *
+     * @return true if groups have an affinity to their last resource
+     */
+    public boolean isResourceAffinity() {
+        return resourceAffinity;
+    }
+
+    public void setResourceAffinity(boolean resourceAffinity) {
+        this.resourceAffinity = resourceAffinity;
+    }
+
+    /**
+     * How the capacity of each resource adapts to the latency of its sends.
+     * {@link LimitAlgorithm#FIXED}, the default, leaves the capacity as
+     * configured. An adaptive algorithm starts from the capacity of the
+     * resource and moves it within the minimum and maximum resource limits,
+     * and free resources with a lower latency are preferred.
+     *
+     * @return the limit algorithm
+     */
+    public LimitAlgorithm getLimitAlgorithm() {
+        return limitAlgorithm;
+    }
+
+    public void setLimitAlgorithm(LimitAlgorithm limitAlgorithm) {
+        this.limitAlgorithm = limitAlgorithm;
+    }
+
+    /**
+     * The lowest number of permits an adaptive limit gives a resource.
+     *
+     * @return the minimum capacity of a resource
+     */
+    public int getMinResourceLimit() {
+        return minResourceLimit;
+    }
+
+    public void setMinResourceLimit(int minResourceLimit) {
+        this.minResourceLimit = minResourceLimit;
+    }
+
+    /**
+     * The highest number of permits an adaptive limit gives a resource.
+     *
+     * @return the maximum capacity of a resource
+     */
+    public int getMaxResourceLimit() {
+        return maxResourceLimit;
+    }
+
+    public void setMaxResourceLimit(int maxResourceLimit) {
+        this.maxResourceLimit = maxResourceLimit;
+    }
+
+    /**
+     * The number of messages that may be queued in total, the high
+     * watermark. Messages dispatched straight away are not counted. Zero, the
+     * default, does not bound the queue.
+     *
+     * @return the maximum number of queued messages
+     */
+    public long getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    public void setMaxQueuedMessages(long maxQueuedMessages) {
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    /**
+     * The number of messages that may be queued for a single group. Zero, the
+     * default, does not bound the groups.
+     *
+     * @return the maximum number of queued messages per group
+     */
+    public int getMaxQueuedMessagesPerGroup() {
+        return maxQueuedMessagesPerGroup;
+    }
+
+    public void setMaxQueuedMessagesPerGroup(int maxQueuedMessagesPerGroup) {
+        this.maxQueuedMessagesPerGroup = maxQueuedMessagesPerGroup;
+    }
+
+    /**
+     * The number of queued messages below which a scheduler that reached its
+     * maximum accepts messages again. Negative, the default, uses three
+     * quarters of the maximum.
+     *
+     * @return the low watermark of the queue
+     */
+    public long getQueueLowWatermark() {
+        return queueLowWatermark;
+    }
+
+    public void setQueueLowWatermark(long queueLowWatermark) {
+        this.queueLowWatermark = queueLowWatermark;
+    }
+
+    /**
+     * Whether receive rejects a message that exceeds a queue bound at once or
+     * waits for room. Defaults to {@link AdmissionMode#FAIL_FAST}.
+     *
+     * @return the admission mode
+     */
+    public AdmissionMode getAdmissionMode() {
+        return admissionMode;
+    }
+
+    public void setAdmissionMode(AdmissionMode admissionMode) {
+        this.admissionMode = admissionMode;
+    }
+
+    /**
+     * How long receive waits for room with {@link AdmissionMode#BLOCK}. Zero,
+     * the default, waits until there is room.
+     *
+     * @return the admission timeout in milliseconds
+     */
+    public long getAdmissionTimeoutMillis() {
+        return admissionTimeoutMillis;
+    }
+
+    public void setAdmissionTimeoutMillis(long admissionTimeoutMillis) {
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+    }
+
+    /**
+     * The largest number of completion events delivered to a subscriber in
+     * one batch.
+     *
+     * @return the maximum batch of completion events
+     */
+    public int getCompletionBatchSize() {
+        return completionBatchSize;
+    }
+
+    public void setCompletionBatchSize(int completionBatchSize) {
+        this.completionBatchSize = completionBatchSize;
+    }
+
+    /**
+     * The number of completion events buffered for a subscriber that has not
+     * requested them, further events are dropped.
+     *
+     * @return the completion buffer size per subscriber
+     */
+    public int getCompletionBufferSize() {
+        return completionBufferSize;
+    }
+
+    public void setCompletionBufferSize(int completionBufferSize) {
+        this.completionBufferSize = completionBufferSize;
+    }
+
+    /**
+     * The directory of the journal of accepted messages. When set the queued
+     * messages and the state of the groups are restored when a scheduler is
+     * created. Null, the default, keeps no journal.
+     *
+     * @return the journal directory
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * Writes the messages to the journal and reads them back. Defaults to a
+     * {@link com.github.resource.scheduler.DefaultMessageSerializer}.
+     *
+     * @return the message serializer
+     */
+    public MessageSerializer getMessageSerializer() {
+        return messageSerializer;
+    }
+
+    public void setMessageSerializer(MessageSerializer messageSerializer) {
+        this.messageSerializer = messageSerializer;
+    }
+
+    /**
+     * The size after which a new journal segment is started.
+     *
+     * @return the segment size in bytes
+     */
+    public long getJournalSegmentBytes() {
+        return journalSegmentBytes;
+    }
+
+    public void setJournalSegmentBytes(long journalSegmentBytes) {
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    /**
+     * How often the journal is forced to disk. Zero, the default, makes a
+     * receive wait until its message has been forced, receives that arrive
+     * meanwhile share the next force. A positive interval forces the journal
+     * in the background and a crash loses up to the interval.
+     *
+     * @return the sync interval in milliseconds
+     */
+    public long getJournalSyncMillis() {
+        return journalSyncMillis;
+    }
+
+    public void setJournalSyncMillis(long journalSyncMillis) {
+        this.journalSyncMillis = journalSyncMillis;
+    }
+
+    /**
+     * The resolution of the timing wheel that holds back delayed messages.
+     *
+     * @return the tick in milliseconds
+     */
+    public long getTimerTickMillis() {
+        return timerTickMillis;
+    }
+
+    public void setTimerTickMillis(long timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+    }
+
+    /**
+     * Receives the messages that expired, were delayed and no longer fit in
+     * the queue, or failed without a retry left. Null, the default, drops
+     * them.
+     *
+     * @return the dead-letter sink
+     */
+    public DeadLetterSink getDeadLetterSink() {
+        return deadLetterSink;
+    }
+
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.deadLetterSink = deadLetterSink;
+    }
+
+    /**
+     * The number of times a message that failed with a retryable failure is
+     * sent again before it is given up on. 0 gives up on the first failure.
+     *
+     * @return the maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * The backoff before the first retry. It doubles with every attempt, up
+     * to the maximum backoff, and a retry waits a random time between half
+     * the backoff and the backoff.
+     *
+     * @return the base backoff in milliseconds
+     */
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    public long getMaxRetryBackoffMillis() {
+        return maxRetryBackoffMillis;
+    }
+
+    public void setMaxRetryBackoffMillis(long maxRetryBackoffMillis) {
+        this.maxRetryBackoffMillis = maxRetryBackoffMillis;
+    }
+
+    /**
+     * The number of recent sends of a resource its circuit breaker considers.
+     *
+     * @return the size of the window
+     */
+    public int getCircuitWindow() {
+        return circuitWindow;
+    }
+
+    public void setCircuitWindow(int circuitWindow) {
+        this.circuitWindow = circuitWindow;
+    }
+
+    /**
+     * The number of failed sends within the window that takes a resource out
+     * of rotation. 0 disables the circuit breakers.
+     *
+     * @return the failure threshold
+     */
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+        this.circuitFailureThreshold = circuitFailureThreshold;
+    }
+
+    /**
+     * The time a resource is out of rotation before it is probed with a
+     * single message. It doubles, up to the maximum, while the probes fail.
+     *
+     * @return the open time in milliseconds
+     */
+    public long getCircuitOpenMillis() {
+        return circuitOpenMillis;
+    }
+
+    public void setCircuitOpenMillis(long circuitOpenMillis) {
+        this.circuitOpenMillis = circuitOpenMillis;
+    }
+
+    public long getMaxCircuitOpenMillis() {
+        return maxCircuitOpenMillis;
+    }
+
+    public void setMaxCircuitOpenMillis(long maxCircuitOpenMillis) {
+        this.maxCircuitOpenMillis = maxCircuitOpenMillis;
+    }
+
+    /**
+     * The most distinct sets of message requirements the scheduler tells
+     * apart, rounded up to a multiple of 64. A message with requirements
+     * beyond them is not accepted.
+     *
+     * @return the maximum number of requirement classes
+     */
+    public int getMaxCapabilityClasses() {
+        return maxCapabilityClasses;
+    }
+
+    public void setMaxCapabilityClasses(int maxCapabilityClasses) {
+        this.maxCapabilityClasses = maxCapabilityClasses;
+    }
+
+    /**
+     * The number of sends a resource with a rate limit may make back to back
+     * after it has been idle, in addition to its sustained rate.
+     *
+     * @return the burst of the token bucket of a resource
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+}
@@ -0,0 +1,316 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of a resource scheduler. Recording only
+ * updates striped counters, so the metrics are always on. The values are read
+ * as snapshots, directly or through JMX once registered.
+ *
+ * @author Brighton
+ */
+public class SchedulerMetrics implements SchedulerMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(SchedulerMetrics.class.getName());
+    private static final int LARGEST_GROUP_BACKLOGS = 10;
+
+    private final ResourceScheduler scheduler;
+    private final LongAdder received;
+    private final LongAdder rejected;
+    private final LongAdder expired;
+    private final LongAdder failed;
+    private final LongAdder retried;
+    private final LongAdder resourceThrottles;
+    private final LongAdder groupThrottles;
+    private final LongAdder coalesced;
+    private final LongAdder dispatched;
+    private final LongAdder completed;
+    private final LatencyHistogram waitTime;
+    private final LatencyHistogram sendTime;
+    private final LatencyHistogram dispatchGap;
+    private final LatencyHistogram queueLockHoldTime;
+    private volatile ObjectName objectName;
+
+    SchedulerMetrics(ResourceScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.received = new LongAdder();
+        this.rejected = new LongAdder();
+        this.expired = new LongAdder();
+        this.failed = new LongAdder();
+        this.retried = new LongAdder();
+        this.resourceThrottles = new LongAdder();
+        this.groupThrottles = new LongAdder();
+        this.coalesced = new LongAdder();
+        this.dispatched = new LongAdder();
+        this.completed = new LongAdder();
+        this.waitTime = new LatencyHistogram();
+        this.sendTime = new LatencyHistogram();
+        this.dispatchGap = new LatencyHistogram();
+        this.queueLockHoldTime = new LatencyHistogram();
+    }
+
+    void received(int count) {
+        received.add(count);
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    void expired() {
+        expired.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void retried(int count) {
+        retried.add(count);
+    }
+
+    void resourceThrottled() {
+        resourceThrottles.increment();
+    }
+
+    void groupThrottled() {
+        groupThrottles.increment();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * Records a message handed to a resource.
+     *
+     * @param message dispatched
+     * @param now time of the dispatch
+     */
+    void dispatched(Message message, long now) {
+        dispatched.increment();
+        long receivedNanos = message.getReceivedNanos();
+        if (receivedNanos != 0) {
+            waitTime.record(now - receivedNanos);
+        }
+    }
+
+    void dispatchGap(long nanos) {
+        dispatchGap.record(nanos);
+    }
+
+    void completed(int count, long sendNanos) {
+        completed.add(count);
+        sendTime.record(sendNanos);
+    }
+
+    /**
+     * Records the time the queue lock was held. Called just before the lock
+     * is released.
+     *
+     * @param locked time the lock was acquired
+     */
+    void queueLockReleased(long locked) {
+        queueLockHoldTime.record(System.nanoTime() - locked);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name of the scheduler, used as name property of the object name
+     * @throws java.lang.Exception
+     */
+    void register(String name) throws Exception {
+        ObjectName objectName = new ObjectName("com.github.resource.scheduler:type=ResourceScheduler,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    void unregister() {
+        ObjectName registered = objectName;
+        if (registered == null) {
+            return;
+        }
+        objectName = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(registered);
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "could not unregister " + registered, ex);
+        }
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+
+    @Override
+    public long getResourceThrottleCount() {
+        return resourceThrottles.sum();
+    }
+
+    @Override
+    public long getGroupThrottleCount() {
+        return groupThrottles.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public int getOpenCircuitCount() {
+        return scheduler.getOpenCircuitCount();
+    }
+
+    @Override
+    public long getDelayedMessageCount() {
+        return scheduler.getDelayedMessageCount();
+    }
+
+    @Override
+    public long getDispatchedCount() {
+        return dispatched.sum();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getQueuedMessageCount() {
+        return scheduler.getQueuedMessageCount();
+    }
+
+    @Override
+    public long getQueueHighWatermark() {
+        return scheduler.getAdmission().getHighWatermark();
+    }
+
+    @Override
+    public long getQueueLowWatermark() {
+        return scheduler.getAdmission().getLowWatermark();
+    }
+
+    @Override
+    public long getPeakQueuedMessageCount() {
+        return scheduler.getAdmission().getPeakQueued();
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return scheduler.getAdmission().isThrottled();
+    }
+
+    @Override
+    public long getThrottledCount() {
+        return scheduler.getAdmission().getThrottledCount();
+    }
+
+    @Override
+    public int getLiveGroupCount() {
+        return scheduler.getLiveGroupCount();
+    }
+
+    @Override
+    public int getTombstonedGroupCount() {
+        return scheduler.getTombstonedGroupCount();
+    }
+
+    @Override
+    public int getResourceCount() {
+        return scheduler.getPermits().size();
+    }
+
+    @Override
+    public HistogramSnapshot getWaitTime() {
+        return waitTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getSendTime() {
+        return sendTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getDispatchGap() {
+        return dispatchGap.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getQueueLockHoldTime() {
+        return queueLockHoldTime.snapshot();
+    }
+
+    @Override
+    public Map<String, Double> getResourceUtilisation() {
+        long now = System.nanoTime();
+        Map<String, Double> utilisation = new LinkedHashMap<>();
+        for (List<InFlightSlot> permits : scheduler.getPermits()) {
+            double busy = 0;
+            int count = 0;
+            Resource resource = null;
+            for (InFlightSlot slot : permits) {
+                busy += slot.getBusyRatio(now);
+                count++;
+                resource = slot.getResource();
+            }
+            if (resource != null) {
+                utilisation.put(String.valueOf(resource), busy / count);
+            }
+        }
+        return utilisation;
+    }
+
+    @Override
+    public Map<Long, Integer> getLargestGroupBacklogs() {
+        List<Map.Entry<Long, Integer>> pending = new ArrayList<>();
+        scheduler.forEachGroup((group) -> {
+            int size = group.size();
+            if (size > 0) {
+                pending.add(new AbstractMap.SimpleImmutableEntry<>(group.getId(), size));
+            }
+        });
+        pending.sort(Map.Entry.<Long, Integer>comparingByValue().reversed());
+        Map<Long, Integer> backlogs = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> entry : pending.subList(0, Math.min(LARGEST_GROUP_BACKLOGS, pending.size()))) {
+            backlogs.put(entry.getKey(), entry.getValue());
+        }
+        return backlogs;
+    }
+}
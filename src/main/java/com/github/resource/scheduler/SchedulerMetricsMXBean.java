@@ -0,0 +1,172 @@
+package com.github.resource.scheduler;
+
+import java.util.Map;
+
+/**
+ * Management interface of the scheduler metrics. Durations are in
+ * nanoseconds.
+ *
+ * @author Brighton
+ */
+public interface SchedulerMetricsMXBean {
+
+    long getReceivedCount();
+
+    long getRejectedCount();
+
+    /**
+     * The number of messages given up on because their deadline passed.
+     *
+     * @return the number of expired messages
+     */
+    long getExpiredCount();
+
+    /**
+     * The number of messages given up on because they failed permanently or
+     * on every attempt.
+     *
+     * @return the number of failed messages
+     */
+    long getFailedCount();
+
+    /**
+     * The number of failed sends of a message that were retried.
+     *
+     * @return the number of retries
+     */
+    long getRetriedCount();
+
+    /**
+     * The number of times a free resource ran out of tokens of its rate
+     * limit and waited for the next one.
+     *
+     * @return the number of resource throttles
+     */
+    long getResourceThrottleCount();
+
+    /**
+     * The number of times a group ran out of tokens of its rate limit and
+     * left the queue until the next one.
+     *
+     * @return the number of group throttles
+     */
+    long getGroupThrottleCount();
+
+    /**
+     * The number of waiting messages superseded by a later message with the
+     * same coalesce key, each a send saved.
+     *
+     * @return the number of coalesced messages
+     */
+    long getCoalescedCount();
+
+    /**
+     * The number of resources taken out of rotation by their circuit
+     * breaker.
+     *
+     * @return the number of open circuits
+     */
+    int getOpenCircuitCount();
+
+    /**
+     * The number of messages held back until they are due.
+     *
+     * @return the number of delayed messages
+     */
+    long getDelayedMessageCount();
+
+    long getDispatchedCount();
+
+    long getCompletedCount();
+
+    long getQueuedMessageCount();
+
+    /**
+     * The number of queued messages at which the scheduler stops accepting
+     * messages, 0 if the queue is not bounded.
+     *
+     * @return the high watermark of the queue
+     */
+    long getQueueHighWatermark();
+
+    /**
+     * The number of queued messages a throttled scheduler has to drop to
+     * before it accepts messages again.
+     *
+     * @return the low watermark of the queue
+     */
+    long getQueueLowWatermark();
+
+    /**
+     * The largest number of messages that were queued at the same time, only
+     * tracked when the queue is bounded.
+     *
+     * @return the peak of the queued messages
+     */
+    long getPeakQueuedMessageCount();
+
+    /**
+     * Whether the scheduler has reached its high watermark and not yet
+     * dropped to its low watermark.
+     *
+     * @return true if the scheduler is throttled
+     */
+    boolean isThrottled();
+
+    /**
+     * The number of times the scheduler reached its high watermark.
+     *
+     * @return the number of times the scheduler was throttled
+     */
+    long getThrottledCount();
+
+    int getLiveGroupCount();
+
+    int getTombstonedGroupCount();
+
+    int getResourceCount();
+
+    /**
+     * Time from the message being received to it being handed to a resource.
+     *
+     * @return snapshot of the wait times
+     */
+    HistogramSnapshot getWaitTime();
+
+    /**
+     * Time from the message being handed to a resource to it being completed.
+     *
+     * @return snapshot of the send durations
+     */
+    HistogramSnapshot getSendTime();
+
+    /**
+     * Time a resource spends between completing a message and being handed
+     * the next one, including the time it was idle.
+     *
+     * @return snapshot of the gaps
+     */
+    HistogramSnapshot getDispatchGap();
+
+    /**
+     * Time the lock of the queue of ready groups is held.
+     *
+     * @return snapshot of the hold times
+     */
+    HistogramSnapshot getQueueLockHoldTime();
+
+    /**
+     * The fraction of time each resource has been busy since it was added,
+     * averaged over its permits.
+     *
+     * @return busy ratio by resource name
+     */
+    Map<String, Double> getResourceUtilisation();
+
+    /**
+     * The groups with the most pending messages.
+     *
+     * @return pending messages by group identifier, largest first
+     */
+    Map<Long, Integer> getLargestGroupBacklogs();
+}
@@ -0,0 +1,119 @@
+package com.github.resource.scheduler;
+
+import java.util.Queue;
+
+/**
+ * One partition of the ready groups. Each shard has its own queue, guarded by
+ * the monitor of the shard, so producers of groups in different shards do not
+ * contend. The number of queued groups is published so that free resources
+ * can skip empty shards without taking their lock.
+ *
+ * @author Brighton
+ */
+class SchedulerShard {
+
+    private final Queue<Group> queue;
+    private final SchedulingQueue schedulingQueue;
+    private final CapabilityIndex index;
+    private final CapabilityIndex.RequirementClass owner;
+    private volatile int queuedGroups;
+
+    SchedulerShard(Queue<Group> queue) {
+        this(queue, null, null);
+    }
+
+    /**
+     * @param queue of the ready groups
+     * @param index told when the shard has queued groups and when it has
+     * drained, may be null
+     * @param owner the requirement class of the groups of the shard
+     */
+    SchedulerShard(Queue<Group> queue, CapabilityIndex index, CapabilityIndex.RequirementClass owner) {
+        this.queue = queue;
+        this.schedulingQueue = queue instanceof SchedulingQueue ? (SchedulingQueue) queue : null;
+        this.index = index;
+        this.owner = owner;
+    }
+
+    Queue<Group> getQueue() {
+        return queue;
+    }
+
+    /**
+     * Indicates whether the queue of the shard has groups, read without the
+     * lock.
+     *
+     * @return true if groups are queued
+     */
+    boolean hasQueuedGroups() {
+        return queuedGroups > 0;
+    }
+
+    /**
+     * Adds the group to the queue unless it is already queued or has nothing
+     * to be selected for. Guarded by the shard lock.
+     *
+     * @param group that has received messages
+     */
+    void ready(Group group) {
+        if (!group.isQueued() && ResourceScheduler.isSelectable(group)) {
+            group.setQueued(true);
+            queue.add(group);
+            if (queuedGroups++ == 0 && index != null) {
+                index.shardReady(owner);
+            }
+        }
+    }
+
+    Group peek() {
+        return queue.peek();
+    }
+
+    /**
+     * Removes the group at the head of the queue once it has drained or was
+     * cancelled. It is added again if a message arrived in the meantime.
+     * Guarded by the shard lock.
+     *
+     * @param group at the head of the queue
+     */
+    void removeHead(Group group) {
+        queue.poll();
+        // cleared first, a producer that finds it cleared queues the group
+        group.setQueued(false);
+        if (ResourceScheduler.isSelectable(group)) {
+            group.setQueued(true);
+            queue.add(group);
+        } else if (--queuedGroups == 0 && index != null) {
+            index.shardDrained(owner);
+        }
+    }
+
+    /**
+     * Moves the group at the head of a plain queue to its tail. A
+     * {@link SchedulingQueue} orders its groups itself. Guarded by the shard
+     * lock.
+     *
+     * @param group expected at the head of the queue
+     */
+    void rotate(Group group) {
+        if (schedulingQueue == null && queue.peek() == group) {
+            queue.add(queue.poll());
+        }
+    }
+
+    void messageDispatched(Group group) {
+        if (schedulingQueue != null) {
+            schedulingQueue.messageDispatched(group);
+        }
+    }
+
+    void groupChanged(Group group) {
+        if (schedulingQueue != null && group.isQueued()) {
+            schedulingQueue.groupChanged(group);
+        }
+    }
+
+    boolean isSticky(Group group) {
+        return schedulingQueue == null || schedulingQueue.isSticky(group);
+    }
+}
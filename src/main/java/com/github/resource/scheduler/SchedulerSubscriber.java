@@ -0,0 +1,147 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.AdmissionStatus;
+import com.github.resource.scheduler.api.Message;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the messages of a publisher into a scheduler. The subscriber only
+ * requests as many messages as the scheduler can take: the free permits of
+ * the resources plus the room left in the queue, at most the prefetch. The
+ * queue room is the demand of the scheduler when its queue is bounded, or the
+ * prefetch less the queued messages otherwise. Requests are topped up once
+ * three quarters of the outstanding ones have arrived, when a resource
+ * completes and when a throttled scheduler resumes, so a backlog is left with
+ * the publisher rather than buffered in the scheduler.
+ * <p>
+ * A message the scheduler still rejects, because another producer took the
+ * room first or its group has been closed, is logged and counted.
+ *
+ * @author Brighton
+ */
+public class SchedulerSubscriber implements Flow.Subscriber<Message> {
+
+    private static final Logger LOG = Logger.getLogger(SchedulerSubscriber.class.getName());
+
+    static final int DEFAULT_PREFETCH = 256;
+
+    private final ResourceScheduler scheduler;
+    private final int prefetch;
+    private final Runnable replenish;
+    private final AtomicLong outstanding;
+    private final AtomicLong rejected;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean done;
+
+    public SchedulerSubscriber(ResourceScheduler scheduler) {
+        this(scheduler, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * @param scheduler that receives the messages
+     * @param prefetch the most messages requested and not yet received
+     */
+    public SchedulerSubscriber(ResourceScheduler scheduler, int prefetch) {
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler is null");
+        this.prefetch = Math.max(1, prefetch);
+        this.replenish = this::replenish;
+        this.outstanding = new AtomicLong();
+        this.rejected = new AtomicLong();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription is null");
+        if (this.subscription != null || done) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        scheduler.addDemandListener(replenish);
+        replenish();
+    }
+
+    @Override
+    public void onNext(Message message) {
+        outstanding.decrementAndGet();
+        AdmissionStatus status = scheduler.tryReceive(message);
+        if (status != AdmissionStatus.ACCEPTED) {
+            rejected.incrementAndGet();
+            LOG.log(Level.WARNING, "{0} rejected: {1}", new Object[]{message, status});
+        }
+        replenish();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        LOG.log(Level.SEVERE, "publisher failed", throwable);
+        finish();
+    }
+
+    @Override
+    public void onComplete() {
+        finish();
+    }
+
+    /**
+     * Stops requesting messages and cancels the subscription.
+     */
+    public void cancel() {
+        Flow.Subscription current = subscription;
+        finish();
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * The number of messages requested from the publisher that have not
+     * arrived yet.
+     *
+     * @return the outstanding demand
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void finish() {
+        done = true;
+        scheduler.removeDemandListener(replenish);
+    }
+
+    /**
+     * Requests what the scheduler can take beyond the outstanding requests.
+     */
+    void replenish() {
+        Flow.Subscription current = subscription;
+        if (current == null || done || outstanding.get() > prefetch / 4) {
+            return;
+        }
+        long requested;
+        synchronized (this) {
+            long room = scheduler.getDemand();
+            if (room == Long.MAX_VALUE) {
+                room = Math.max(0, prefetch - scheduler.getQueuedMessageCount());
+            }
+            long target = Math.min(prefetch, room + scheduler.getIdleCapacity());
+            requested = target - outstanding.get();
+            if (requested <= 0) {
+                return;
+            }
+            outstanding.addAndGet(requested);
+        }
+        current.request(requested);
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.resource.scheduler;
+
+import java.util.Queue;
+
+/**
+ * A queue of ready groups that orders the groups by their scheduling
+ * attributes rather than by insertion. The scheduler calls the queue while
+ * holding its queue lock, except for {@link #isSticky(Group)}.
+ *
+ * @author Brighton
+ */
+public interface SchedulingQueue extends Queue<Group> {
+
+    /**
+     * Signals that the priority of a queued group has changed, so that its
+     * position can be restored.
+     *
+     * @param group in the queue
+     */
+    void groupChanged(Group group);
+
+    /**
+     * Signals that a message of the group at the head of the queue has been
+     * dispatched. A group that has reached its maximum of messages in flight
+     * has already been removed from the queue when it is signalled.
+     *
+     * @param group that was at the head of the queue
+     */
+    void messageDispatched(Group group);
+
+    /**
+     * Decides whether a resource that has completed a message of the group
+     * continues with the next message of that group instead of selecting a
+     * group from the queue. Called without holding the queue lock.
+     *
+     * @param group of the completed message
+     * @return true if the resource should stay with the group
+     */
+    boolean isSticky(Group group);
+}
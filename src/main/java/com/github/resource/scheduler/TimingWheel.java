@@ -0,0 +1,249 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds timers until a given time in a hierarchical timing wheel. Each
+ * level has 64 buckets, a bucket of level n spans 64^n ticks, so a timer is
+ * inserted in O(1) whatever its delay. When the buckets of a level wrap the
+ * next bucket of the level above is cascaded into the lower levels.
+ * <p>
+ * Scheduling only pushes the timer on a lock-free stack, the buckets are
+ * owned by a single thread that drains the stack, advances the wheel with the
+ * clock and runs the callback for the timers that are due. The thread is
+ * started on the first timer and parks while the wheel is empty.
+ *
+ * @param <T> the payload of a timer, a delayed message or a task
+ * @author Brighton
+ */
+class TimingWheel<T> implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(TimingWheel.class.getName());
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    // enough levels for any delay that fits in a long
+    private static final int LEVELS = 64 / WHEEL_BITS + 1;
+
+    private final long tickMillis;
+    private final Consumer<T> due;
+    private final Timer<T>[][] heads;
+    private final Timer<T>[][] tails;
+    private final AtomicReference<Timer<T>> added;
+    private final AtomicInteger size;
+    private Timer<T> dueHead;
+    private Timer<T> dueTail;
+    private long current;
+    private volatile Thread thread;
+    private volatile boolean idle;
+    private volatile boolean stopped;
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param due called on the thread of the wheel for each payload that is
+     * due
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickMillis, Consumer<T> due) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.due = due;
+        this.heads = (Timer<T>[][]) new Timer[LEVELS][WHEEL_SIZE];
+        this.tails = (Timer<T>[][]) new Timer[LEVELS][WHEEL_SIZE];
+        this.added = new AtomicReference<>();
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Holds the payload until the time. A time that has passed makes the
+     * payload due on the next tick. Once the wheel has been stopped the
+     * payload is dropped, as the payloads held when it stopped are.
+     *
+     * @param payload to be held
+     * @param millis time since the epoch the payload is due
+     * @return false if the wheel has been stopped and the payload is dropped
+     */
+    boolean schedule(T payload, long millis) {
+        if (stopped) {
+            LOG.log(Level.FINE, "Timing wheel has been stopped, {0} is dropped", payload);
+            return false;
+        }
+        Timer<T> timer = new Timer<>(payload, (millis + tickMillis - 1) / tickMillis);
+        Timer<T> head;
+        do {
+            head = added.get();
+            timer.next = head;
+        } while (!added.compareAndSet(head, timer));
+        size.incrementAndGet();
+        Thread driver = thread;
+        if (driver == null) {
+            start();
+        } else if (idle) {
+            LockSupport.unpark(driver);
+        }
+        return true;
+    }
+
+    /**
+     * The number of payloads held.
+     *
+     * @return the number of pending timers
+     */
+    int size() {
+        return size.get();
+    }
+
+    private synchronized void start() {
+        if (thread == null && !stopped) {
+            current = System.currentTimeMillis() / tickMillis;
+            Thread driver = new Thread(this, "resource-scheduler-timing-wheel");
+            driver.setDaemon(true);
+            thread = driver;
+            driver.start();
+        }
+    }
+
+    /**
+     * Stops the thread of the wheel, the payloads held are dropped.
+     */
+    void stop() {
+        stopped = true;
+        Thread driver = thread;
+        if (driver != null) {
+            LockSupport.unpark(driver);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            drainAdded();
+            long now = System.currentTimeMillis() / tickMillis;
+            while (current < now && !stopped) {
+                advance();
+            }
+            fireDue();
+            if (size.get() == 0) {
+                idle = true;
+                if (added.get() == null && !stopped) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(tickMillis));
+            }
+        }
+    }
+
+    private void drainAdded() {
+        Timer<T> timer = added.getAndSet(null);
+        // the stack holds the latest first, insert in the order scheduled
+        Timer<T> reversed = null;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            timer.next = reversed;
+            reversed = timer;
+            timer = next;
+        }
+        while (reversed != null) {
+            Timer<T> next = reversed.next;
+            reversed.next = null;
+            insert(reversed);
+            reversed = next;
+        }
+    }
+
+    private void insert(Timer<T> timer) {
+        long delta = timer.tick - current;
+        if (delta <= 0) {
+            append(timer);
+            return;
+        }
+        int level = delta < WHEEL_SIZE ? 0 : Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(delta)) / WHEEL_BITS);
+        int index = (int) (timer.tick >>> (level * WHEEL_BITS)) & WHEEL_MASK;
+        Timer<T> tail = tails[level][index];
+        if (tail == null) {
+            heads[level][index] = timer;
+        } else {
+            tail.next = timer;
+        }
+        tails[level][index] = timer;
+    }
+
+    private void append(Timer<T> timer) {
+        if (dueTail == null) {
+            dueHead = timer;
+        } else {
+            dueTail.next = timer;
+        }
+        dueTail = timer;
+    }
+
+    /**
+     * Moves the wheel on by one tick, cascading the levels that wrap.
+     */
+    private void advance() {
+        current++;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((current & ((1L << (level * WHEEL_BITS)) - 1)) != 0) {
+                break;
+            }
+            int index = (int) (current >>> (level * WHEEL_BITS)) & WHEEL_MASK;
+            Timer<T> timer = take(level, index);
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.next = null;
+                insert(timer);
+                timer = next;
+            }
+        }
+        Timer<T> timer = take(0, (int) current & WHEEL_MASK);
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            timer.next = null;
+            append(timer);
+            timer = next;
+        }
+    }
+
+    private Timer<T> take(int level, int index) {
+        Timer<T> timer = heads[level][index];
+        heads[level][index] = null;
+        tails[level][index] = null;
+        return timer;
+    }
+
+    private void fireDue() {
+        Timer<T> timer = dueHead;
+        dueHead = null;
+        dueTail = null;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            size.decrementAndGet();
+            try {
+                due.accept(timer.payload);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.SEVERE, "timer of " + timer.payload + " failed", ex);
+            }
+            timer = next;
+        }
+    }
+
+    private static final class Timer<T> {
+
+        final T payload;
+        final long tick;
+        Timer<T> next;
+
+        Timer(T payload, long tick) {
+            this.payload = payload;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.resource.scheduler;
+
+/**
+ * A compact record of the groups that have been cancelled or terminated and
+ * have since been removed from the registry. Only the identifier and the
+ * reason are kept, for at least the configured window and at most twice that
+ * long. Not thread-safe, the owner has to provide the locking.
+ *
+ * @author Brighton
+ */
+class TombstoneSet {
+
+    static final byte NONE = 0;
+    static final byte CANCELLED = 1;
+    static final byte TERMINATED = 2;
+
+    private final long windowNanos;
+    private Table current;
+    private Table previous;
+    private long rotatedAt;
+
+    TombstoneSet(long windowNanos, long now) {
+        this.windowNanos = windowNanos;
+        this.current = new Table();
+        this.previous = new Table();
+        this.rotatedAt = now;
+    }
+
+    /**
+     * Finds the reason the group was removed.
+     *
+     * @param groupId of the group
+     * @param now current value of System.nanoTime()
+     * @return CANCELLED, TERMINATED or NONE if the group is not known
+     */
+    byte get(long groupId, long now) {
+        rotate(now);
+        byte state = current.get(groupId);
+        return state == NONE ? previous.get(groupId) : state;
+    }
+
+    void add(long groupId, byte state, long now) {
+        rotate(now);
+        current.put(groupId, state);
+    }
+
+    int size(long now) {
+        rotate(now);
+        return current.size + previous.size;
+    }
+
+    private void rotate(long now) {
+        long elapsed = now - rotatedAt;
+        if (elapsed < windowNanos) {
+            return;
+        }
+        previous = elapsed < 2 * windowNanos ? current : new Table();
+        current = new Table();
+        rotatedAt = now;
+    }
+
+    /**
+     * Open addressing table of group identifiers and the removal reason, a
+     * reason of NONE marks a free slot.
+     */
+    private static final class Table {
+
+        private long[] keys = new long[16];
+        private byte[] states = new byte[16];
+        private int size;
+
+        byte get(long groupId) {
+            int mask = keys.length - 1;
+            for (int i = GroupRegistry.hash(groupId) & mask;; i = (i + 1) & mask) {
+                if (states[i] == NONE) {
+                    return NONE;
+                }
+                if (keys[i] == groupId) {
+                    return states[i];
+                }
+            }
+        }
+
+        void put(long groupId, byte state) {
+            if ((size + 1) << 1 > keys.length) {
+                resize();
+            }
+            if (insert(keys, states, groupId, state)) {
+                size++;
+            }
+        }
+
+        private void resize() {
+            long[] newKeys = new long[keys.length << 1];
+            byte[] newStates = new byte[states.length << 1];
+            for (int i = 0; i < keys.length; i++) {
+                if (states[i] != NONE) {
+                    insert(newKeys, newStates, keys[i], states[i]);
+                }
+            }
+            keys = newKeys;
+            states = newStates;
+        }
+
+        private static boolean insert(long[] keys, byte[] states, long groupId, byte state) {
+            int mask = keys.length - 1;
+            int i = GroupRegistry.hash(groupId) & mask;
+            while (states[i] != NONE) {
+                if (keys[i] == groupId) {
+                    states[i] = state;
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = groupId;
+            states[i] = state;
+            return true;
+        }
+    }
+}
@@ -9,4 +9,29 @@ public interface Action {
 
     public void perform();
 
+    /**
+     * Performed instead of {@link #perform()} when the message the action was
+     * bound to could not be processed. By default the failure is treated as a
+     * completion.
+     *
+     * @param message that failed
+     * @param cause of the failure
+     * @param retryable true if sending the message again may succeed
+     */
+    public default void failed(Message message, Throwable cause, boolean retryable) {
+        perform();
+    }
+
+    /**
+     * Performed instead of {@link #perform()} when the message the action was
+     * added to was superseded by a later message with the same coalesce key
+     * and not sent. By default it is treated as a completion.
+     *
+     * @param message that was coalesced
+     * @param by the message that superseded it
+     */
+    public default void coalesced(Message message, Message by) {
+        perform();
+    }
+
 }
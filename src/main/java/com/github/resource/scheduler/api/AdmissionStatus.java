@@ -0,0 +1,35 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * The outcome of offering a message to a receiver.
+ *
+ * @author Brighton
+ */
+public enum AdmissionStatus {
+
+    /**
+     * The message was accepted, it has been dispatched or queued.
+     */
+    ACCEPTED,
+    /**
+     * The receiver holds as many queued messages as it allows.
+     */
+    QUEUE_FULL,
+    /**
+     * The group of the message holds as many queued messages as it allows.
+     */
+    GROUP_FULL,
+    /**
+     * The group of the message has been cancelled or has terminated.
+     */
+    GROUP_CLOSED,
+    /**
+     * The requirements of the first message of the group would need a
+     * capability class beyond those the receiver can order.
+     */
+    UNSUPPORTED_REQUIREMENTS,
+    /**
+     * The message can not be written to the journal of the receiver.
+     */
+    UNSERIALIZABLE
+}
@@ -0,0 +1,23 @@
+package com.github.resource.scheduler.api;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An optional extension of the gateway for external resources with a
+ * non-blocking client. The scheduler completes the message when the returned
+ * stage completes, no thread is held while the message is in flight.
+ *
+ * @author Brighton
+ */
+public interface AsyncGateway extends Gateway {
+
+    /**
+     * Starts sending the message without blocking the calling thread. The
+     * implementation must not call {@link Message#completed()} itself.
+     *
+     * @param msg to be sent
+     * @return a stage that completes once the external resource has processed
+     * the message
+     */
+    public CompletionStage<Void> sendAsync(Message msg);
+}
@@ -0,0 +1,30 @@
+package com.github.resource.scheduler.api;
+
+import java.util.List;
+
+/**
+ * An optional extension of the gateway for external resources that accept
+ * several messages in one round trip. The scheduler hands such a resource up
+ * to {@link #getMaxBatchSize()} queued messages at a time.
+ *
+ * @author Brighton
+ */
+public interface BatchGateway extends Gateway {
+
+    /**
+     * Sends the messages as one frame. Each message is completed individually
+     * by calling {@link Message#completed()}, the resource receives its next
+     * batch once every message in the batch has been completed. The list is
+     * reused by the scheduler and must not be retained after that.
+     *
+     * @param msgs to be sent, in dispatch order
+     */
+    public void send(List<Message> msgs);
+
+    /**
+     * The largest number of messages the resource accepts in one call.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize();
+}
@@ -0,0 +1,82 @@
+package com.github.resource.scheduler.api;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The requests a node of a cluster of schedulers answers for the other
+ * nodes. A {@link Transport} delivers them, the calls may be made on any
+ * thread.
+ *
+ * @author Brighton
+ */
+public interface ClusterPeer {
+
+    /**
+     * Receives a message that another node took for a group this node owns.
+     * The node queues it as the owner. A message sent before the sender
+     * learnt that the group has moved on is forwarded to the new owner.
+     *
+     * @param message forwarded by the node that received it
+     * @throws java.lang.Exception when the message is not accepted
+     */
+    public void forward(Message message) throws Exception;
+
+    /**
+     * Gives up a group that another node has taken over. No further message
+     * of the group is sent by this node.
+     *
+     * @param groupId of the group
+     * @return a stage that completes with the waiting messages of the group,
+     * in their order, once its messages in flight have completed
+     */
+    public CompletionStage<List<Message>> handOff(long groupId);
+
+    /**
+     * Lends free permits of the resources of this node to a node with a
+     * backlog. A node with messages of its own waiting lends nothing.
+     *
+     * @param borrowerId of the node that borrows
+     * @param permits the most permits wanted
+     * @return the number of permits lent by the capabilities of their
+     * resources, empty if none
+     */
+    public Map<Set<String>, Integer> lend(String borrowerId, int permits);
+
+    /**
+     * Sends a message of the borrower on a lent permit. The message stays
+     * with the borrower, which completes it when the stage completes.
+     *
+     * @param borrowerId of the node that borrowed the permit
+     * @param capabilities of the lent permit
+     * @param message to be sent
+     * @return a stage that completes once the resource has processed the
+     * message, exceptionally with a {@link SendFailedException} if it failed
+     */
+    public CompletionStage<Void> send(String borrowerId, Set<String> capabilities, Message message);
+
+    /**
+     * Ends the loan of a borrower. Its permits go back to rotation, those with
+     * a message in flight once it has completed.
+     *
+     * @param borrowerId of the node that borrowed the permits
+     */
+    public void giveBack(String borrowerId);
+
+    /**
+     * The number of messages waiting on this node for a free resource.
+     *
+     * @return the number of queued messages
+     */
+    public long getQueuedMessageCount();
+
+    /**
+     * Tells the node the members of the cluster after a node joined or left.
+     *
+     * @param members the identifiers of the nodes in the cluster
+     */
+    public void membershipChanged(Collection<String> members);
+}
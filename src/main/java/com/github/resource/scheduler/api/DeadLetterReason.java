@@ -0,0 +1,29 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * Why a message was given up on.
+ *
+ * @author Brighton
+ */
+public enum DeadLetterReason {
+
+    /**
+     * The deadline of the message passed before it could be sent.
+     */
+    EXPIRED,
+    /**
+     * A delayed message became due but no longer fitted in the queue, its
+     * group had closed, or the scheduler was shut down while it waited.
+     */
+    REJECTED,
+    /**
+     * The resource failed to process the message and the failure is
+     * permanent.
+     */
+    FAILED,
+    /**
+     * The resource failed to process the message on every attempt the
+     * scheduler allows.
+     */
+    RETRIES_EXHAUSTED
+}
@@ -0,0 +1,20 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * Receives the messages the scheduler gives up on. Such a message is not
+ * completed, the sink is told instead. A pooled message is released once the
+ * sink returns, so the sink must copy what it needs to keep.
+ *
+ * @author Brighton
+ */
+public interface DeadLetterSink {
+
+    /**
+     * Is invoked once for each message given up on. It runs on a thread of
+     * the scheduler and should not block.
+     *
+     * @param message given up on
+     * @param reason the message was given up on
+     */
+    public void deadLetter(Message message, DeadLetterReason reason);
+}
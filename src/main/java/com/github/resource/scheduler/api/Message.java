@@ -1,6 +1,8 @@
 package com.github.resource.scheduler.api;
 
 import com.github.resource.scheduler.Group;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * An interface describing the message that will be queued and processed by the external resource.
@@ -15,6 +17,33 @@ public interface Message {
      */
     public void completed();
 
+    /**
+     * Is invoked instead of {@link #completed()} when the external resource
+     * could not process the message. The completed actions are not performed,
+     * the scheduler sends the message again or passes it to its dead-letter
+     * sink. Implementations that do not support failures complete the
+     * message.
+     *
+     * @param cause of the failure
+     * @param retryable true if sending the message again may succeed, false
+     * if the failure is permanent
+     */
+    public default void failed(Throwable cause, boolean retryable) {
+        completed();
+    }
+
+    /**
+     * Is invoked instead of {@link #completed()} when a later message of the
+     * group with the same coalesce key superseded the message before it was
+     * sent. The message is not sent. Implementations that do not tell
+     * coalesced messages apart complete the message.
+     *
+     * @param by the message that superseded it
+     */
+    public default void coalesced(Message by) {
+        completed();
+    }
+
     /**
      * Indicates whether the message is the last message in the group.
      *
@@ -50,4 +79,158 @@ public interface Message {
      * @return a reference to the group
      */
     public Group getGroup();
+
+    /**
+     * Binds the message to the scheduler slot it has been dispatched with. The
+     * slot has to be signalled once, after the completed actions have been
+     * performed, when the message is completed or fails. A later binding
+     * must replace the previous one, and a completion racing a failure must
+     * signal the slot only once.
+     * <p>
+     * The default adds the slot as a completed action, which cannot be taken
+     * back, so it is only correct for a message that is dispatched once.
+     * Implementations whose messages may be sent again, after a retryable
+     * failure or a hand-over to another node, must override it and keep a
+     * single slot, as {@code DefaultMessage} does.
+     *
+     * @param slot to be signalled on completion
+     */
+    public default void setDispatchSlot(Action slot) {
+        addCompletedAction(slot);
+    }
+
+    /**
+     * Is invoked by the scheduler once the message has been completed and the
+     * scheduler holds no further reference to it, or when the message is
+     * discarded because its group was cancelled. Pooled implementations return
+     * themselves to their pool.
+     */
+    public default void release() {
+    }
+
+    /**
+     * The priority of the message. A message with a higher priority than its
+     * group raises the priority of the group when it is received.
+     *
+     * @return the priority, 0 by default
+     */
+    public default int getPriority() {
+        return 0;
+    }
+
+    /**
+     * Stores the time the scheduler accepted the message, used to measure how
+     * long it waited for a resource. Implementations that do not keep the
+     * time are not included in the wait time metrics.
+     *
+     * @param nanos value of {@link System#nanoTime()} when received
+     */
+    public default void setReceivedNanos(long nanos) {
+    }
+
+    /**
+     * The time the scheduler accepted the message.
+     *
+     * @return value of {@link System#nanoTime()} when received, or 0 if not
+     * kept
+     */
+    public default long getReceivedNanos() {
+        return 0;
+    }
+
+    /**
+     * Stores the sequence the journal of the scheduler recorded the message
+     * under. Implementations must keep the sequence for their completion to
+     * be recorded when a journal is configured.
+     *
+     * @param sequence of the message in the journal
+     */
+    public default void setJournalSequence(long sequence) {
+    }
+
+    /**
+     * The sequence the journal recorded the message under.
+     *
+     * @return the sequence, or 0 if the message has not been journaled
+     */
+    public default long getJournalSequence() {
+        return 0;
+    }
+
+    /**
+     * The earliest time the message may be sent. A message that is not due
+     * when received is held back by the scheduler and queued in its group
+     * when it is due.
+     *
+     * @return milliseconds since the epoch, 0 to send as soon as possible
+     */
+    public default long getNotBefore() {
+        return 0;
+    }
+
+    /**
+     * The time after which the message is not sent any more. A message still
+     * waiting at its deadline is passed to the dead-letter sink of the
+     * scheduler instead of being sent.
+     *
+     * @return milliseconds since the epoch, 0 for no deadline
+     */
+    public default long getDeadline() {
+        return 0;
+    }
+
+    /**
+     * The capability tags a resource must have to process the message. The
+     * messages of a group share the requirements of the first message of the
+     * group.
+     *
+     * @return the required capabilities, none by default
+     */
+    public default Set<String> getRequirements() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Stores the number of times the message has been sent and failed.
+     *
+     * @param attempts the number of failed attempts
+     */
+    public default void setAttempts(int attempts) {
+    }
+
+    /**
+     * The number of times the message has been sent and failed. A message
+     * that does not keep the count is not retried.
+     *
+     * @return the number of failed attempts, 0 if not kept
+     */
+    public default int getAttempts() {
+        return 0;
+    }
+
+    /**
+     * The key of the state the message updates, for producers that only need
+     * the latest update of a key to be sent. A message received while an
+     * earlier message of its group with the same key is still waiting
+     * supersedes it: the earlier one is not sent and is told it was
+     * coalesced, the later one is sent in its own place. A termination
+     * message is never coalesced.
+     *
+     * @return the coalesce key, null by default to send every message
+     */
+    public default Object getCoalesceKey() {
+        return null;
+    }
+
+    /**
+     * Is invoked on a message that supersedes a waiting message with the same
+     * coalesce key, before the waiting message is told it was coalesced. By
+     * default the later message simply replaces the waiting one, an
+     * implementation may fold the content of the superseded message into its
+     * own.
+     *
+     * @param superseded the waiting message
+     */
+    public default void merge(Message superseded) {
+    }
 }
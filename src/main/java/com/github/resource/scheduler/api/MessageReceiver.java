@@ -1,5 +1,9 @@
 package com.github.resource.scheduler.api;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * An interface defining any subclass that is capable of receiving messages.
  *
@@ -14,4 +18,25 @@ public interface MessageReceiver {
      * @throws java.lang.Exception when error occurs while sending the message
      */
     public void receive(Message message) throws Exception;
+
+    /**
+     * A method used to accept a batch of outgoing messages. A message that can
+     * not be accepted does not prevent the remaining messages in the batch
+     * from being accepted.
+     *
+     * @param messages that will be queued, in the order they were produced
+     * @return the messages that were rejected together with the reason, empty
+     * when the whole batch was accepted
+     */
+    public default Map<Message, Exception> receiveAll(Collection<? extends Message> messages) {
+        Map<Message, Exception> rejected = new LinkedHashMap<>();
+        for (Message message : messages) {
+            try {
+                receive(message);
+            } catch (Exception ex) {
+                rejected.put(message, ex);
+            }
+        }
+        return rejected;
+    }
 }
@@ -0,0 +1,33 @@
+package com.github.resource.scheduler.api;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts messages to and from the bytes stored in the journal of a
+ * scheduler. Only the content of the message needs to be written, the
+ * scheduler keeps the sequence and state of the message itself.
+ *
+ * @author Brighton
+ */
+public interface MessageSerializer {
+
+    /**
+     * Writes the content of the message.
+     *
+     * @param message to be written
+     * @param out the record of the message
+     * @throws IOException if the message can not be written
+     */
+    public void write(Message message, DataOutput out) throws IOException;
+
+    /**
+     * Recreates a message from what {@link #write} wrote.
+     *
+     * @param in the record of the message
+     * @return the message
+     * @throws IOException if the record can not be read
+     */
+    public Message read(DataInput in) throws IOException;
+}
@@ -0,0 +1,27 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * Thrown when a receiver does not accept a message.
+ *
+ * @author Brighton
+ */
+public class RejectedMessageException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AdmissionStatus status;
+
+    public RejectedMessageException(String message, AdmissionStatus status) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * The reason the message was not accepted.
+     *
+     * @return the admission status of the message
+     */
+    public AdmissionStatus getStatus() {
+        return status;
+    }
+}
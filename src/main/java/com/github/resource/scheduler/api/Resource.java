@@ -1,5 +1,8 @@
 package com.github.resource.scheduler.api;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * A representation of each external resource. It describes how to interact with
  * the external resource..
@@ -18,4 +21,40 @@ public interface Resource extends Gateway {
 
     public void setRemoved();
 
+    /**
+     * The number of messages the resource can process at the same time when
+     * it is added to the scheduler. The capacity can be changed at runtime
+     * through the scheduler.
+     *
+     * @return the number of permits of the resource, 1 by default
+     */
+    public default int getCapacity() {
+        return 1;
+    }
+
+    /**
+     * The capability tags of the resource, such as its region or protocol
+     * version. The resource only processes the messages whose requirements
+     * are among its capabilities. They are read when the resource is added
+     * to the scheduler.
+     *
+     * @return the capabilities, none by default
+     */
+    public default Set<String> getCapabilities() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * The most sends per second the resource accepts, such as a contractual
+     * limit of an endpoint. The scheduler paces the sends to the resource
+     * instead of the resource sleeping in send. It is read when the resource
+     * is added to the scheduler and can be changed at runtime through the
+     * scheduler.
+     *
+     * @return the sends per second, 0 for no limit by default
+     */
+    public default double getRateLimit() {
+        return 0;
+    }
+
 }
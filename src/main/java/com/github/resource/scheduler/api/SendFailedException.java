@@ -0,0 +1,34 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * Thrown by a gateway, or used to complete the stage of an
+ * {@link AsyncGateway}, to tell the scheduler whether a failed send is worth
+ * retrying. Any other exception is treated as retryable.
+ *
+ * @author Brighton
+ */
+public class SendFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    public SendFailedException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public SendFailedException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * Indicates whether sending the message again may succeed.
+     *
+     * @return false if the failure is permanent
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.resource.scheduler.api;
+
+/**
+ * Connects the nodes of a cluster of schedulers. The transport keeps the
+ * membership of the cluster and delivers the requests of a node to the
+ * others. A transport between processes writes the messages it carries, the
+ * completed actions of a message only run in the process that received it.
+ *
+ * @author Brighton
+ */
+public interface Transport {
+
+    /**
+     * Adds a node to the cluster. Every member, the new node included, is
+     * told the new membership.
+     *
+     * @param nodeId unique identifier of the node
+     * @param peer answers the requests sent to the node
+     * @throws java.lang.Exception when the node can not join
+     */
+    public void join(String nodeId, ClusterPeer peer) throws Exception;
+
+    /**
+     * Takes a node out of the cluster. The remaining members and the node
+     * itself are told the new membership. The node stays reachable so that
+     * it can hand over its groups until it is disconnected.
+     *
+     * @param nodeId of the node
+     */
+    public void leave(String nodeId);
+
+    /**
+     * Takes a node out of the cluster, if it has not left yet, and makes it
+     * unreachable.
+     *
+     * @param nodeId of the node
+     */
+    public void disconnect(String nodeId);
+
+    /**
+     * Finds the requests of a node.
+     *
+     * @param nodeId of the node
+     * @return the peer that delivers requests to the node
+     * @throws java.lang.Exception when the node is not reachable
+     */
+    public ClusterPeer connect(String nodeId) throws Exception;
+}
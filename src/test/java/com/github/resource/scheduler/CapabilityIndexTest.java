@@ -0,0 +1,115 @@
+package com.github.resource.scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class CapabilityIndexTest {
+
+    @SuppressWarnings("unchecked")
+    private static CapabilityIndex newIndex(int maxClasses) {
+        Queue<Group>[] first = new Queue[]{new ConcurrentLinkedDeque<Group>()};
+        return new CapabilityIndex(ConcurrentLinkedDeque::new, first, maxClasses);
+    }
+
+    private static Set<String> tags(String... tags) {
+        return new HashSet<>(Arrays.asList(tags));
+    }
+
+    /**
+     * Test of nextReady method, of class CapabilityIndex. The search starts
+     * from the given class, crosses the words of the bitmap and wraps around.
+     */
+    @Test
+    public void testNextReady() {
+        System.out.println("next ready");
+        CapabilityIndex index = newIndex(70);
+        Set<String> all = new HashSet<>();
+        for (int i = 1; i < 70; i++) {
+            all.add("t" + i);
+            Assert.assertEquals(i, index.classOf(Collections.singleton("t" + i)).id);
+        }
+        CapabilityIndex.ResourceClass resources = index.resourceClassOf(all);
+        Assert.assertEquals(-1, index.nextReady(resources, 0));
+        Assert.assertFalse(index.hasReady(resources));
+
+        index.shardReady(index.get(5));
+        index.shardReady(index.get(68));
+        Assert.assertTrue(index.hasReady(resources));
+        Assert.assertEquals(5, index.nextReady(resources, 5));
+        Assert.assertEquals(68, index.nextReady(resources, 6));
+        Assert.assertEquals(5, index.nextReady(resources, 69));
+        Assert.assertEquals(5, index.nextReady(resources, 128));
+
+        index.shardDrained(index.get(5));
+        Assert.assertEquals(68, index.nextReady(resources, 69));
+        Assert.assertEquals(68, index.nextReady(resources, 0));
+        // resources without the tag do not see the class
+        Assert.assertEquals(-1, index.nextReady(index.resourceClassOf(tags("t1")), 0));
+    }
+
+    /**
+     * Test of acquire method, of class CapabilityIndex. A class is linked to
+     * the resources that satisfy it whichever is created first, and the
+     * resources with the fewest capabilities are taken first.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testAcquire() throws Exception {
+        System.out.println("acquire");
+        CapabilityIndex index = newIndex(64);
+        CapabilityIndex.ResourceClass versatile = index.resourceClassOf(tags("a", "b"));
+        CapabilityIndex.RequirementClass a = index.classOf(tags("a"));
+        CapabilityIndex.ResourceClass plain = index.resourceClassOf(tags("a"));
+        CapabilityIndex.RequirementClass ab = index.classOf(tags("b", "a"));
+        Assert.assertSame(ab, index.classOf(tags("a", "b")));
+        Assert.assertEquals(Arrays.asList(plain, versatile), Arrays.asList(a.resources));
+        Assert.assertEquals(Arrays.asList(versatile), Arrays.asList(ab.resources));
+        Assert.assertEquals(Arrays.asList(plain, versatile), Arrays.asList(index.get(0).resources));
+
+        InFlightSlot onVersatile = new InFlightSlot(null, null, null);
+        InFlightSlot onPlain = new InFlightSlot(null, null, null);
+        versatile.pool.add(onVersatile);
+        versatile.pool.release(onVersatile);
+        plain.pool.add(onPlain);
+        plain.pool.release(onPlain);
+        Assert.assertEquals(2, index.idle());
+
+        Assert.assertSame(onVersatile, index.acquire(ab));
+        Assert.assertNull(index.acquire(ab));
+        versatile.pool.release(onVersatile);
+        Assert.assertSame(onPlain, index.acquire(a));
+        Assert.assertSame(onVersatile, index.acquire(a));
+        Assert.assertNull(index.acquire(null));
+    }
+
+    /**
+     * Test of classOf method, of class CapabilityIndex. Requirements beyond
+     * the most classes are rejected.
+     */
+    @Test
+    public void testMaxClasses() {
+        System.out.println("max classes");
+        CapabilityIndex index = newIndex(1);
+        Assert.assertSame(index.get(0), index.classOf(Collections.<String>emptySet()));
+        for (int i = 1; i < 64; i++) {
+            index.classOf(Collections.singleton("t" + i));
+        }
+        try {
+            index.classOf(Collections.singleton("t64"));
+            Assert.fail("more classes than the maximum");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertEquals(64, index.getClasses().length);
+        }
+    }
+}
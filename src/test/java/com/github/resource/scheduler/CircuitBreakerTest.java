@@ -0,0 +1,63 @@
+package com.github.resource.scheduler;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * Test of completed method, of class CircuitBreaker. The breaker opens
+     * once the failures in the window reach the threshold, parks the permits
+     * and closes after a successful probe.
+     */
+    @Test
+    public void testOpenAndClose() {
+        System.out.println("open and close");
+        CircuitBreaker breaker = new CircuitBreaker(4, 3, 100, 1000);
+        InFlightSlot a = new InFlightSlot(null, null, null);
+        InFlightSlot b = new InFlightSlot(null, null, null);
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(a, true));
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(a, false));
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(a, true));
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertEquals(CircuitBreaker.OPENED, breaker.completed(a, true));
+        Assert.assertTrue(breaker.isOpen());
+        Assert.assertEquals(CircuitBreaker.PARKED, breaker.completed(b, true));
+        Assert.assertEquals(2, breaker.getParkedCount());
+
+        Assert.assertSame(a, breaker.probe());
+        Assert.assertEquals(CircuitBreaker.CLOSED, breaker.completed(a, false));
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertEquals(Arrays.asList(b), breaker.unpark());
+        // the window starts afresh once closed
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(b, true));
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(b, true));
+    }
+
+    /**
+     * Test of probe method, of class CircuitBreaker. A failed probe opens the
+     * breaker for twice as long, up to the maximum.
+     */
+    @Test
+    public void testFailedProbe() {
+        System.out.println("failed probe");
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 100, 300);
+        InFlightSlot slot = new InFlightSlot(null, null, null);
+        Assert.assertEquals(CircuitBreaker.OPENED, breaker.completed(slot, true));
+        Assert.assertEquals(100, breaker.getOpenMillis());
+        for (long expected : new long[]{200, 300, 300}) {
+            Assert.assertSame(slot, breaker.probe());
+            Assert.assertEquals(CircuitBreaker.OPENED, breaker.completed(slot, true));
+            Assert.assertEquals(expected, breaker.getOpenMillis());
+        }
+        Assert.assertEquals(4, breaker.getOpenedCount());
+        Assert.assertEquals(Arrays.asList(slot), breaker.stop());
+        Assert.assertEquals(CircuitBreaker.CONTINUE, breaker.completed(slot, true));
+        Assert.assertNull(breaker.probe());
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.ResourceSchedulerTest.ManualResource;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Clusters of nodes connected by a {@link LoopbackTransport}.
+ *
+ * @author Brighton
+ */
+public class ClusterNodeTest {
+
+    private LoopbackTransport transport;
+    private List<ResourceScheduler> schedulers;
+
+    @Before
+    public void setUp() {
+        this.transport = new LoopbackTransport();
+        this.schedulers = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        for (ResourceScheduler scheduler : schedulers) {
+            scheduler.shutdown();
+        }
+    }
+
+    private ClusterNode node(String nodeId, Resource... resources) throws Exception {
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new ArrayList<>(Arrays.asList(resources)));
+        schedulers.add(scheduler);
+        ClusterNode node = new ClusterNode(nodeId, scheduler, transport);
+        node.join();
+        return node;
+    }
+
+    /**
+     * The first group that the nodes own in turn as the members change.
+     */
+    private static long groupOwnedBy(String[] owners, List<List<String>> memberships) {
+        for (long groupId = 0;; groupId++) {
+            boolean found = true;
+            for (int i = 0; i < owners.length && found; i++) {
+                found = owners[i].equals(new HashRing(memberships.get(i), ClusterNode.VIRTUAL_NODES).owner(groupId));
+            }
+            if (found) {
+                return groupId;
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Test of receive method, of class ClusterNode. Every message is sent by
+     * the node that owns its group, whichever node received it.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testForwarding() throws Exception {
+        System.out.println("forwarding");
+        ManualResource onA = new ManualResource(100);
+        ManualResource onB = new ManualResource(100);
+        ManualResource onC = new ManualResource(100);
+        ClusterNode a = node("a", onA);
+        node("b", onB);
+        node("c", onC);
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), a.getMembers());
+        int foreign = 0;
+        for (int groupId = 0; groupId < 90; groupId++) {
+            a.receive(new DefaultMessage(groupId, groupId));
+            if (!"a".equals(a.getOwner(groupId))) {
+                foreign++;
+            }
+        }
+        Assert.assertEquals(foreign, a.getForwardedCount());
+        await(() -> onA.sent.size() + onB.sent.size() + onC.sent.size() == 90);
+        String[] nodes = {"a", "b", "c"};
+        ManualResource[] resources = {onA, onB, onC};
+        for (int i = 0; i < nodes.length; i++) {
+            Assert.assertFalse(resources[i].sent.isEmpty());
+            for (Message sent : resources[i].sent) {
+                Assert.assertEquals(nodes[i], a.getOwner(sent.getGroupId()));
+            }
+        }
+    }
+
+    /**
+     * Test of membershipChanged method, of class ClusterNode. A group that
+     * moves to a node that joins is held there until the previous owner has
+     * completed the message in flight and handed over the waiting ones.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testJoinKeepsOrder() throws Exception {
+        System.out.println("join keeps order");
+        long groupId = groupOwnedBy(new String[]{"a", "c"},
+                Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("a", "b", "c")));
+        ManualResource onA = new ManualResource();
+        ManualResource onC = new ManualResource();
+        ClusterNode a = node("a", onA);
+        ClusterNode b = node("b", new ManualResource());
+        List<DefaultMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            messages.add(new DefaultMessage(i, (int) groupId));
+        }
+        b.receive(messages.get(0));
+        a.receive(messages.get(1));
+        a.receive(messages.get(2));
+        await(() -> onA.sent.size() == 1);
+        Assert.assertSame(messages.get(0), onA.sent.get(0));
+
+        ClusterNode c = node("c", onC);
+        Assert.assertEquals("c", a.getOwner(groupId));
+        b.receive(messages.get(3));
+        Thread.sleep(50);
+        Assert.assertTrue(onC.sent.isEmpty());
+
+        onA.complete();
+        for (int i = 1; i <= 3; i++) {
+            int sent = i;
+            await(() -> onC.sent.size() == sent);
+            Assert.assertSame(messages.get(i), onC.sent.get(i - 1));
+            onC.complete();
+        }
+        Assert.assertEquals(1, onA.sent.size());
+        Assert.assertEquals(0, a.getScheduler().getQueuedMessageCount());
+        Assert.assertEquals(0, c.getScheduler().getQueuedMessageCount());
+    }
+
+    /**
+     * Test of forward method, of class ClusterNode. A message forwarded to
+     * the previous owner of a group during and after the hand-off is passed
+     * on to the new owner and sent there in order.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testForwardDuringHandOff() throws Exception {
+        System.out.println("forward during hand-off");
+        long groupId = groupOwnedBy(new String[]{"a", "c"},
+                Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("a", "b", "c")));
+        ManualResource onA = new ManualResource();
+        ManualResource onC = new ManualResource();
+        ClusterNode a = node("a", onA);
+        node("b", new ManualResource());
+        List<DefaultMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            messages.add(new DefaultMessage(i, (int) groupId));
+        }
+        a.receive(messages.get(0));
+        a.receive(messages.get(1));
+        await(() -> onA.sent.size() == 1);
+
+        ClusterNode c = node("c", onC);
+        c.receive(messages.get(2));
+        // sent by a node that has not learnt of c yet
+        a.forward(messages.get(3));
+        Thread.sleep(50);
+        Assert.assertTrue(onC.sent.isEmpty());
+
+        onA.complete();
+        for (int i = 1; i <= 3; i++) {
+            int sent = i;
+            await(() -> onC.sent.size() == sent);
+            onC.complete();
+        }
+        // once the hand-off has completed
+        a.forward(messages.get(4));
+        await(() -> onC.sent.size() == 4);
+        onC.complete();
+        Assert.assertEquals(messages.subList(1, 5), onC.sent);
+        Assert.assertEquals(Arrays.asList(messages.get(0)), onA.sent);
+        Assert.assertEquals(0, a.getScheduler().getQueuedMessageCount());
+        Assert.assertEquals(0, c.getScheduler().getQueuedMessageCount());
+    }
+
+    /**
+     * Test of leave method, of class ClusterNode. The groups of a node that
+     * leaves are taken over by the others, after its message in flight.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testLeave() throws Exception {
+        System.out.println("leave");
+        long groupId = groupOwnedBy(new String[]{"b", "a"},
+                Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("a")));
+        ManualResource onA = new ManualResource();
+        ManualResource onB = new ManualResource();
+        ClusterNode a = node("a", onA);
+        ClusterNode b = node("b", onB);
+        DefaultMessage first = new DefaultMessage(1, (int) groupId);
+        DefaultMessage second = new DefaultMessage(2, (int) groupId);
+        DefaultMessage third = new DefaultMessage(3, (int) groupId);
+        a.receive(first);
+        a.receive(second);
+        await(() -> onB.sent.size() == 1);
+        Assert.assertSame(first, onB.sent.get(0));
+
+        b.leave();
+        Assert.assertEquals(Arrays.asList("a"), a.getMembers());
+        Assert.assertEquals(Arrays.asList("a"), b.getMembers());
+        b.receive(third);
+        Thread.sleep(50);
+        Assert.assertTrue(onA.sent.isEmpty());
+
+        onB.complete();
+        await(() -> onA.sent.size() == 1);
+        Assert.assertSame(second, onA.sent.get(0));
+        onA.complete();
+        await(() -> onA.sent.size() == 2);
+        Assert.assertSame(third, onA.sent.get(1));
+        Assert.assertEquals(1, onB.sent.size());
+        b.close();
+        try {
+            transport.connect("b");
+            Assert.fail("connected to a closed node");
+        } catch (Exception expected) {
+        }
+    }
+
+    /**
+     * Test of rebalance method, of class ClusterNode. A node with a backlog
+     * sends on the permits an idle node lends it and gives them back once
+     * the backlog is gone.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testLending() throws Exception {
+        System.out.println("lending");
+        ManualResource onA = new ManualResource();
+        ManualResource onB = new ManualResource(2);
+        ClusterNode a = node("a", onA);
+        ClusterNode b = node("b", onB);
+        AtomicInteger completed = new AtomicInteger();
+        int sent = 0;
+        for (long groupId = 0; sent < 3; groupId++) {
+            if ("a".equals(a.getOwner(groupId))) {
+                DefaultMessage message = new DefaultMessage(sent++, (int) groupId);
+                message.addCompletedAction(completed::incrementAndGet);
+                a.receive(message);
+            }
+        }
+        Assert.assertEquals(2, a.getScheduler().getQueuedMessageCount());
+        await(() -> onA.sent.size() == 1);
+
+        a.rebalance();
+        Assert.assertEquals(2, a.getBorrowedPermitCount());
+        Assert.assertEquals(0, b.getScheduler().getIdleCapacity());
+        await(() -> onB.sent.size() == 2);
+        Assert.assertEquals(0, a.getScheduler().getQueuedMessageCount());
+        for (Message copy : onB.sent) {
+            Assert.assertEquals("a", a.getOwner(copy.getGroupId()));
+        }
+
+        onB.complete();
+        onA.complete();
+        await(() -> completed.get() == 3);
+        a.rebalance();
+        Assert.assertEquals(0, a.getBorrowedPermitCount());
+        Assert.assertEquals(2, b.getScheduler().getIdleCapacity());
+        // an idle node does not borrow
+        a.rebalance();
+        Assert.assertEquals(0, a.getBorrowedPermitCount());
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.resource.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class ConcurrencyLimiterTest {
+
+    /**
+     * Test of the AIMD algorithm of class ConcurrencyLimiter. The limit grows
+     * while the latency is stable and is cut once the latency rises.
+     */
+    @Test
+    public void testAimd() {
+        System.out.println("aimd");
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LimitAlgorithm.AIMD, 1, 10, 2);
+        for (int i = 0; i < 50; i++) {
+            limiter.sample(1000, limiter.getLimit());
+        }
+        int grown = limiter.getLimit();
+        Assert.assertTrue(grown > 2);
+        Assert.assertTrue(grown <= 10);
+        for (int i = 0; i < 50; i++) {
+            limiter.sample(5000, limiter.getLimit());
+        }
+        Assert.assertTrue(limiter.getLimit() < grown);
+        Assert.assertTrue(limiter.getLimit() >= 1);
+    }
+
+    /**
+     * Test of the gradient algorithm of class ConcurrencyLimiter. The limit
+     * only grows while the resource uses its permits, and shrinks when the
+     * recent latency exceeds the long term latency.
+     */
+    @Test
+    public void testGradient() {
+        System.out.println("gradient");
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(LimitAlgorithm.GRADIENT, 1, 20, 4);
+        for (int i = 0; i < 20; i++) {
+            limiter.sample(1000, 0);
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.sample(1000, limiter.getLimit());
+        }
+        Assert.assertEquals(20, limiter.getLimit());
+        for (int i = 0; i < 20; i++) {
+            limiter.sample(8000, limiter.getLimit());
+        }
+        Assert.assertTrue(limiter.getLimit() < 20);
+    }
+}
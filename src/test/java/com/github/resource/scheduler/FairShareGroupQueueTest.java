@@ -0,0 +1,61 @@
+package com.github.resource.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class FairShareGroupQueueTest {
+
+    /**
+     * Test of messageDispatched method, of class FairShareGroupQueue. Each
+     * group is served its quantum times its weight before the next group.
+     */
+    @Test
+    public void testWeightedRound() {
+        System.out.println("weighted round");
+        FairShareGroupQueue queue = new FairShareGroupQueue(2);
+        Group light = new Group(1);
+        Group heavy = new Group(2);
+        heavy.setWeight(3);
+        queue.add(light);
+        queue.add(heavy);
+
+        StringBuilder served = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            Group group = queue.peek();
+            served.append(group.getId());
+            queue.messageDispatched(group);
+        }
+        Assert.assertEquals("1122222211222222", served.toString());
+    }
+
+    /**
+     * Test of isSticky method, of class FairShareGroupQueue. A resource stays
+     * with the head of the round while it has credit, or while no other group
+     * is waiting.
+     */
+    @Test
+    public void testIsSticky() {
+        System.out.println("isSticky");
+        FairShareGroupQueue queue = new FairShareGroupQueue(2);
+        Group first = new Group(1);
+        Group second = new Group(2);
+        Assert.assertTrue(queue.isSticky(first));
+        queue.add(first);
+        Assert.assertTrue(queue.isSticky(first));
+        queue.add(second);
+        Assert.assertFalse(queue.isSticky(second));
+        // the sticky resource spends the credit of the head
+        Assert.assertTrue(queue.isSticky(first));
+        Assert.assertTrue(queue.isSticky(first));
+        Assert.assertFalse(queue.isSticky(first));
+        Assert.assertSame(second, queue.peek());
+        Assert.assertSame(second, queue.poll());
+        Assert.assertTrue(queue.isSticky(first));
+        Assert.assertSame(first, queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class GroupRegistryTest {
+
+    private GroupRegistry groups;
+
+    @Before
+    public void setUp() {
+        this.groups = new GroupRegistry();
+    }
+
+    /**
+     * Test of getInstance method, of class Group.
+     */
+    @Test
+    public void testGetInstance() {
+        System.out.println("getInstance");
+        for (long groupId = -5000; groupId < 5000; groupId++) {
+            Group group = Group.getInstance(groupId, groups);
+            Assert.assertEquals(groupId, group.getId());
+        }
+        for (long groupId = -5000; groupId < 5000; groupId++) {
+            Assert.assertSame(groups.get(groupId), Group.getInstance(groupId, groups));
+        }
+        Assert.assertNull(groups.get(5000));
+        Assert.assertEquals(10000, groups.size());
+    }
+
+    /**
+     * Test of getInstance method, of class Group, when the same groups are
+     * created concurrently.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testConcurrentGetInstance() throws Exception {
+        System.out.println("concurrent getInstance");
+        final int threadCount = 4;
+        final int groupCount = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger mismatches = new AtomicInteger();
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (long groupId = 0; groupId < groupCount; groupId++) {
+                    if (Group.getInstance(groupId, groups) != groups.get(groupId)) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, mismatches.get());
+        Assert.assertEquals(groupCount, groups.size());
+    }
+
+    /**
+     * Test of retire method, of class GroupRegistry.
+     */
+    @Test
+    public void testRetire() {
+        System.out.println("retire");
+        for (long groupId = 0; groupId < 1000; groupId++) {
+            Group group = Group.getInstance(groupId, groups);
+            if (groupId % 2 == 0) {
+                group.setCancelled(true);
+            } else {
+                group.setTerminated(true);
+            }
+            if (groupId < 500) {
+                groups.retire(group);
+            }
+        }
+        Assert.assertEquals(500, groups.size());
+        Assert.assertEquals(500, groups.tombstoneCount());
+        for (long groupId = 0; groupId < 1000; groupId++) {
+            Group group = Group.getInstance(groupId, groups);
+            Assert.assertEquals(groupId < 500, group != groups.get(groupId));
+            Assert.assertSame(groups.get(groupId), groups.find(groupId));
+            Assert.assertEquals(groupId % 2 == 0, group.isCancelled());
+            Assert.assertEquals(groupId % 2 == 1, group.isTerminated());
+        }
+        Assert.assertEquals(500, groups.size());
+    }
+
+    /**
+     * Test of retire method, of class GroupRegistry, once the tombstone
+     * window has passed.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testTombstoneWindow() throws Exception {
+        System.out.println("tombstone window");
+        groups = new GroupRegistry(1, TimeUnit.MILLISECONDS.toNanos(50));
+        Group group = Group.getInstance(1, groups);
+        group.setCancelled(true);
+        groups.retire(group);
+        Assert.assertTrue(Group.getInstance(1, groups).isCancelled());
+
+        Thread.sleep(120L);
+
+        Assert.assertEquals(0, groups.tombstoneCount());
+        Assert.assertFalse(Group.getInstance(1, groups).isCancelled());
+        Assert.assertEquals(1, groups.size());
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.resource.scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class HashRingTest {
+
+    private static final int GROUPS = 100000;
+
+    /**
+     * Test of owner method, of class HashRing. The groups are spread evenly
+     * over the members, whatever order they are given in.
+     */
+    @Test
+    public void testOwner() {
+        System.out.println("owner");
+        HashRing ring = new HashRing(Arrays.asList("d", "b", "a", "c"), ClusterNode.VIRTUAL_NODES);
+        HashRing same = new HashRing(Arrays.asList("a", "b", "c", "d"), ClusterNode.VIRTUAL_NODES);
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), ring.getMembers());
+        Map<String, Integer> owned = new HashMap<>();
+        for (long groupId = 0; groupId < GROUPS; groupId++) {
+            String owner = ring.owner(groupId);
+            Assert.assertEquals(owner, same.owner(groupId));
+            owned.merge(owner, 1, Integer::sum);
+        }
+        Assert.assertEquals(4, owned.size());
+        for (int count : owned.values()) {
+            Assert.assertTrue("share " + count, Math.abs(count - GROUPS / 4) < GROUPS / 4 / 4);
+        }
+        Assert.assertNull(new HashRing(Collections.<String>emptyList(), ClusterNode.VIRTUAL_NODES).owner(1));
+    }
+
+    /**
+     * Test of owner method, of class HashRing. A node that joins only takes
+     * groups, its share of them, and gives the same groups back when it
+     * leaves.
+     */
+    @Test
+    public void testMembershipChange() {
+        System.out.println("membership change");
+        HashRing before = new HashRing(Arrays.asList("a", "b", "c", "d"), ClusterNode.VIRTUAL_NODES);
+        HashRing after = new HashRing(Arrays.asList("a", "b", "c", "d", "e"), ClusterNode.VIRTUAL_NODES);
+        int moved = 0;
+        for (long groupId = 0; groupId < GROUPS; groupId++) {
+            String owner = after.owner(groupId);
+            if (!owner.equals(before.owner(groupId))) {
+                Assert.assertEquals("e", owner);
+                moved++;
+            }
+        }
+        Assert.assertTrue("moved " + moved, Math.abs(moved - GROUPS / 5) < GROUPS / 5 / 4);
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.resource.scheduler;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Test of the bucket boundaries of class LatencyHistogram.
+     */
+    @Test
+    public void testIndex() {
+        System.out.println("index");
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.index(value);
+            org.junit.Assert.assertTrue(LatencyHistogram.highestValue(index) >= value);
+            org.junit.Assert.assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+        long max = LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE));
+        org.junit.Assert.assertEquals(Long.MAX_VALUE, max);
+    }
+
+    /**
+     * Test of snapshot method, of class LatencyHistogram.
+     */
+    @Test
+    public void testSnapshot() {
+        System.out.println("snapshot");
+        LatencyHistogram histogram = new LatencyHistogram();
+        org.junit.Assert.assertEquals(0, histogram.snapshot().getP99());
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        org.junit.Assert.assertEquals(1000, snapshot.getCount());
+        org.junit.Assert.assertEquals(500500, snapshot.getMean());
+        // values are accurate to 1/16th
+        org.junit.Assert.assertEquals(500000, snapshot.getP50(), 500000 / 16);
+        org.junit.Assert.assertEquals(990000, snapshot.getP99(), 990000 / 16);
+        org.junit.Assert.assertEquals(1000000, snapshot.getMax(), 1000000 / 16);
+        org.junit.Assert.assertTrue(snapshot.getMax() >= 1000000);
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class MessageJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+        }
+    }
+
+    private MessageJournal open(long segmentBytes) {
+        return new MessageJournal(directory, new DefaultMessageSerializer(), segmentBytes, 0, TimeUnit.MINUTES.toNanos(10));
+    }
+
+    /**
+     * Test of recover method, of class MessageJournal. Completed messages and
+     * the messages of cancelled groups are not recovered, the closed groups
+     * are.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testRecover() throws Exception {
+        System.out.println("recover");
+        MessageJournal journal = open(1 << 20);
+        Assert.assertTrue(journal.recover().getMessages().isEmpty());
+        DefaultMessage first = new DefaultMessage(1, 1);
+        DefaultMessage second = new DefaultMessage(2, 1);
+        DefaultMessage cancelled = new DefaultMessage(3, 2);
+        DefaultMessage last = new DefaultMessage(4, 3);
+        last.setTerminationMessage(true);
+        journal.sync(journal.accepted(first));
+        journal.accepted(second);
+        journal.accepted(cancelled);
+        journal.accepted(last);
+        journal.terminated(3);
+        journal.cancelled(2);
+        journal.discarded(cancelled);
+        journal.completed(first);
+        journal.close();
+
+        journal = open(1 << 20);
+        MessageJournal.Recovery recovery = journal.recover();
+        List<Message> messages = recovery.getMessages();
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(second, messages.get(0));
+        Assert.assertEquals(second.getJournalSequence(), messages.get(0).getJournalSequence());
+        Assert.assertEquals(last, messages.get(1));
+        Assert.assertTrue(messages.get(1).isTerminationMessage());
+        Assert.assertEquals(Boolean.TRUE, recovery.getClosedGroups().get(2L));
+        Assert.assertEquals(Boolean.FALSE, recovery.getClosedGroups().get(3L));
+        journal.close();
+    }
+
+    /**
+     * Test of recover method, of class MessageJournal. A torn record at the
+     * end of the log is discarded.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        System.out.println("torn record");
+        MessageJournal journal = open(1 << 20);
+        journal.recover();
+        journal.accepted(new DefaultMessage(1, 1));
+        journal.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        journal = open(1 << 20);
+        Assert.assertEquals(1, journal.recover().getMessages().size());
+        journal.accepted(new DefaultMessage(2, 1));
+        journal.close();
+        journal = open(1 << 20);
+        Assert.assertEquals(2, journal.recover().getMessages().size());
+        journal.close();
+    }
+
+    /**
+     * Test of recover method, of class MessageJournal. A segment of another
+     * format version is refused rather than misread.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testFormatVersion() throws Exception {
+        System.out.println("format version");
+        MessageJournal journal = open(1 << 20);
+        journal.recover();
+        journal.accepted(new DefaultMessage(1, 1));
+        journal.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{MessageJournal.VERSION + 1}), 4);
+        }
+        try {
+            open(1 << 20).recover();
+            Assert.fail("a segment of another version was read");
+        } catch (IOException expected) {
+            Assert.assertTrue(expected.getMessage().contains("version " + (MessageJournal.VERSION + 1)));
+        }
+    }
+
+    /**
+     * Test of the compaction, of class MessageJournal. Segments are deleted
+     * once their messages and those of older segments have completed.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        System.out.println("compaction");
+        MessageJournal journal = open(256);
+        journal.recover();
+        DefaultMessage[] messages = new DefaultMessage[40];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new DefaultMessage(i, i);
+            journal.accepted(messages[i]);
+        }
+        int segments = journal.segmentCount();
+        Assert.assertTrue(segments > 2);
+        // an old message holds back the compaction of the newer segments
+        for (int i = 1; i < messages.length; i++) {
+            journal.completed(messages[i]);
+        }
+        Assert.assertTrue(journal.segmentCount() >= segments);
+        journal.completed(messages[0]);
+        Assert.assertTrue(journal.segmentCount() <= 2);
+        journal.close();
+
+        journal = open(256);
+        Assert.assertTrue(journal.recover().getMessages().isEmpty());
+        journal.close();
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class MessagePoolTest {
+
+    private MessagePool pool;
+    private ResourceScheduler instance;
+
+    @Before
+    public void setUp() throws Exception {
+        this.pool = new MessagePool(4, 2, 16, true);
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        this.instance = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+    }
+
+    @After
+    public void tearDown() {
+        this.instance.shutdown();
+    }
+
+    /**
+     * Test of acquire method, of class MessagePool. Completed messages are
+     * returned to the pool and reused.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testRecycleCompleted() throws Exception {
+        System.out.println("recycle completed");
+        instance.addResource(new DefaultResource(0L) {
+            @Override
+            public void send(Message msg) {
+                msg.completed();
+            }
+        });
+        final int[] completed = new int[1];
+        for (int i = 0; i < 1000; i++) {
+            PooledMessage message = pool.acquire(i, i % 10);
+            message.addCompletedAction(() -> {
+                completed[0]++;
+            });
+            instance.receive(message);
+        }
+        Assert.assertEquals(1000, completed[0]);
+        Assert.assertEquals(1, pool.getAllocatedCount());
+    }
+
+    /**
+     * Test of acquire method, of class MessagePool. Messages discarded by a
+     * cancelled group are returned to the pool.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testRecycleCancelled() throws Exception {
+        System.out.println("recycle cancelled");
+        for (int i = 0; i < 3; i++) {
+            instance.receive(pool.acquire(i, 1));
+        }
+        instance.cancelGroup(1);
+        for (int i = 0; i < 3; i++) {
+            pool.acquire(i, 2);
+        }
+        Assert.assertEquals(3, pool.getAllocatedCount());
+    }
+
+    /**
+     * Test of release method, of class PooledMessage, in debug mode.
+     */
+    @Test
+    public void testUseAfterRecycle() {
+        System.out.println("use after recycle");
+        PooledMessage message = pool.acquire(1, 1);
+        message.release();
+        try {
+            message.getGroupId();
+            Assert.fail("recycled message used");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            message.release();
+            Assert.fail("recycled message released twice");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertSame(message, pool.acquire(2, 2));
+        Assert.assertEquals(2, message.getGroupId());
+    }
+
+    /**
+     * Test of release method, of class PooledMessage, across threads. Messages
+     * released on another thread are found through the shared stripes.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testReleaseOnOtherThread() throws Exception {
+        System.out.println("release on other thread");
+        final PooledMessage[] messages = new PooledMessage[8];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = pool.acquire(i, 1);
+        }
+        Thread completer = new Thread(() -> {
+            for (PooledMessage message : messages) {
+                message.release();
+            }
+        });
+        completer.start();
+        completer.join();
+        for (int i = 0; i < messages.length - 4; i++) {
+            pool.acquire(i, 1);
+        }
+        Assert.assertEquals(messages.length, pool.getAllocatedCount());
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class PriorityGroupQueueTest {
+
+    private static Group group(long id, int priority) {
+        Group group = new Group(id);
+        group.setPriority(priority);
+        return group;
+    }
+
+    /**
+     * Test of poll method, of class PriorityGroupQueue.
+     */
+    @Test
+    public void testPoll() {
+        System.out.println("poll");
+        PriorityGroupQueue queue = new PriorityGroupQueue(TimeUnit.HOURS.toNanos(1));
+        Group low = group(1, 0);
+        Group high = group(2, 5);
+        Group medium = group(3, 1);
+        Group low2 = group(4, 0);
+        for (Group group : new Group[]{low, high, medium, low2}) {
+            Assert.assertTrue(queue.offer(group));
+        }
+        Assert.assertFalse(queue.offer(low));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertSame(high, queue.poll());
+        Assert.assertSame(medium, queue.poll());
+        Assert.assertSame(low, queue.poll());
+        Assert.assertSame(low2, queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    /**
+     * Test of groupChanged and messageDispatched methods, of class
+     * PriorityGroupQueue.
+     */
+    @Test
+    public void testReposition() {
+        System.out.println("reposition");
+        PriorityGroupQueue queue = new PriorityGroupQueue(TimeUnit.HOURS.toNanos(1));
+        Group first = group(1, 0);
+        Group second = group(2, 0);
+        Group third = group(3, 0);
+        queue.add(first);
+        queue.add(second);
+        queue.add(third);
+
+        // a dispatch moves the group behind its peers
+        queue.messageDispatched(first);
+        Assert.assertSame(second, queue.peek());
+        Assert.assertFalse(queue.isSticky(first));
+
+        third.setPriority(1);
+        queue.groupChanged(third);
+        Assert.assertSame(third, queue.peek());
+        Assert.assertTrue(queue.isSticky(group(4, 2)));
+
+        Assert.assertTrue(queue.remove(third));
+        Assert.assertFalse(queue.contains(third));
+        Assert.assertSame(second, queue.poll());
+        Assert.assertSame(first, queue.poll());
+    }
+
+    /**
+     * Test of the aging of class PriorityGroupQueue. A waiting group gains a
+     * priority level every quantum.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testAging() throws Exception {
+        System.out.println("aging");
+        PriorityGroupQueue queue = new PriorityGroupQueue(TimeUnit.MILLISECONDS.toNanos(10));
+        Group waiting = group(1, 0);
+        queue.add(waiting);
+        Thread.sleep(50L);
+        Group urgent = group(2, 2);
+        Group critical = group(3, 100);
+        queue.add(urgent);
+        queue.add(critical);
+        Assert.assertSame(critical, queue.poll());
+        Assert.assertSame(waiting, queue.poll());
+        Assert.assertSame(urgent, queue.poll());
+    }
+
+    /**
+     * Test of the heap order of class PriorityGroupQueue under random
+     * changes.
+     */
+    @Test
+    public void testRandomOrder() {
+        System.out.println("random order");
+        PriorityGroupQueue queue = new PriorityGroupQueue(TimeUnit.HOURS.toNanos(1));
+        Random random = new Random(42);
+        List<Group> groups = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Group group = group(i, random.nextInt(10));
+            groups.add(group);
+            queue.add(group);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Group group = groups.get(random.nextInt(groups.size()));
+            group.setPriority(random.nextInt(10));
+            queue.groupChanged(group);
+        }
+        int previous = Integer.MAX_VALUE;
+        long previousKey = Long.MIN_VALUE;
+        for (Group group = queue.poll(); group != null; group = queue.poll()) {
+            Assert.assertTrue(group.getPriority() <= previous);
+            Assert.assertTrue(group.queueKey >= previousKey);
+            previous = group.getPriority();
+            previousKey = group.queueKey;
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.resource.scheduler;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class RateLimitTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Test of tryAcquire method, of class RateLimit. The burst goes back to
+     * back, then the tokens come at the sustained rate.
+     */
+    @Test
+    public void testBurstAndRate() {
+        System.out.println("burst and rate");
+        RateLimit limit = new RateLimit(100, 3);
+        long now = 1000 * MILLI;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limit.tryAcquire(now));
+        }
+        Assert.assertEquals(10 * MILLI, limit.tryAcquire(now));
+        Assert.assertEquals(4 * MILLI, limit.tryAcquire(now + 6 * MILLI));
+        Assert.assertEquals(0, limit.tryAcquire(now + 10 * MILLI));
+        Assert.assertEquals(10 * MILLI, limit.tryAcquire(now + 10 * MILLI));
+        // an idle bucket fills up to its burst only
+        now += 1000 * MILLI;
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limit.tryAcquire(now));
+        }
+        Assert.assertTrue(limit.tryAcquire(now) > 0);
+    }
+
+    /**
+     * Test of refund method, of class RateLimit. A token given back can be
+     * taken again.
+     */
+    @Test
+    public void testRefund() {
+        System.out.println("refund");
+        RateLimit limit = new RateLimit(10, 1);
+        long now = -500 * MILLI;
+        Assert.assertEquals(0, limit.tryAcquire(now));
+        Assert.assertEquals(100 * MILLI, limit.tryAcquire(now));
+        limit.refund();
+        Assert.assertEquals(0, limit.tryAcquire(now));
+        Assert.assertEquals(50 * MILLI, limit.tryAcquire(now + 50 * MILLI));
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.resource.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class ResourcePoolTest {
+
+    private ResourcePool pool;
+
+    @Before
+    public void setUp() {
+        this.pool = new ResourcePool();
+    }
+
+    private static InFlightSlot slot() {
+        return new InFlightSlot(null, null, new DefaultResource(0L));
+    }
+
+    /**
+     * Test of acquire and release methods, of class ResourcePool.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testAcquireRelease() throws Exception {
+        System.out.println("acquire");
+        InFlightSlot first = slot();
+        InFlightSlot second = slot();
+        pool.add(first);
+        pool.add(second);
+        Assert.assertNull(pool.acquire());
+        pool.release(first);
+        pool.release(second);
+        pool.release(second);
+        Assert.assertSame(second, pool.acquire());
+        Assert.assertSame(first, pool.acquire());
+        Assert.assertNull(pool.acquire());
+        Assert.assertEquals(2, pool.size());
+    }
+
+    /**
+     * Test of release method, of class ResourcePool. A secondary slot is only
+     * taken when no preferred slot is free.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testPreferred() throws Exception {
+        System.out.println("preferred");
+        InFlightSlot slow = slot();
+        InFlightSlot fast = slot();
+        pool.add(slow);
+        pool.add(fast);
+        pool.release(fast, true);
+        pool.release(slow, false);
+        Assert.assertSame(fast, pool.acquire());
+        Assert.assertSame(slow, pool.acquire());
+        Assert.assertNull(pool.acquire());
+    }
+
+    /**
+     * Test of remove method, of class ResourcePool. A removed slot is skipped
+     * and its index is reused.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testRemove() throws Exception {
+        System.out.println("remove");
+        InFlightSlot idle = slot();
+        InFlightSlot busy = slot();
+        pool.add(idle);
+        pool.add(busy);
+        pool.release(idle);
+        pool.remove(idle);
+        pool.remove(busy);
+        Assert.assertEquals(0, pool.size());
+        Assert.assertNull(pool.acquire());
+
+        // the busy slot completes, it is reclaimed instead of handed out
+        pool.release(busy);
+        Assert.assertNull(pool.acquire());
+
+        InFlightSlot added = slot();
+        pool.add(added);
+        Assert.assertTrue(added.poolIndex == idle.poolIndex || added.poolIndex == busy.poolIndex);
+        pool.release(added);
+        Assert.assertSame(added, pool.acquire());
+    }
+
+    /**
+     * Test of acquire method, of class ResourcePool, taking a given slot.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testAcquirePreferred() throws Exception {
+        System.out.println("acquire preferred");
+        InFlightSlot first = slot();
+        InFlightSlot second = slot();
+        pool.add(first);
+        pool.add(second);
+        pool.release(first);
+        pool.release(second);
+        Assert.assertTrue(pool.acquire(first));
+        Assert.assertFalse(pool.acquire(first));
+        Assert.assertSame(second, pool.acquire());
+        Assert.assertNull(pool.acquire());
+
+        pool.release(first);
+        Assert.assertSame(first, pool.acquire());
+        Assert.assertNull(pool.acquire());
+    }
+
+    /**
+     * Test of the pool under concurrent acquire, release and churn. A slot is
+     * never handed to two threads at the same time.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testConcurrentChurn() throws Exception {
+        System.out.println("concurrent churn");
+        final List<InFlightSlot> slots = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            InFlightSlot slot = slot();
+            pool.add(slot);
+            pool.release(slot);
+            slots.add(slot);
+        }
+        final ConcurrentHashMap<InFlightSlot, Boolean> held = new ConcurrentHashMap<>();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100000; i++) {
+                        InFlightSlot slot = i % 3 == 0 ? slots.get(ThreadLocalRandom.current().nextInt(slots.size())) : null;
+                        if (slot == null || !pool.acquire(slot)) {
+                            slot = pool.acquire();
+                        }
+                        if (slot == null) {
+                            continue;
+                        }
+                        if (held.putIfAbsent(slot, Boolean.TRUE) != null) {
+                            failures.incrementAndGet();
+                        }
+                        held.remove(slot);
+                        if (i % 100 == 0) {
+                            pool.remove(slot);
+                            pool.release(slot);
+                            InFlightSlot added = slot();
+                            pool.add(added);
+                            pool.release(added);
+                        } else {
+                            pool.release(slot);
+                        }
+                    }
+                } catch (Exception ex) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(64, pool.size());
+        int available = 0;
+        while (pool.acquire() != null) {
+            available++;
+        }
+        Assert.assertEquals(64, available);
+    }
+}
@@ -1,9 +1,38 @@
 package com.github.resource.scheduler;
 
+import com.github.resource.scheduler.api.AdmissionStatus;
+import com.github.resource.scheduler.api.AsyncGateway;
+import com.github.resource.scheduler.api.BatchGateway;
+import com.github.resource.scheduler.api.DeadLetterReason;
+import com.github.resource.scheduler.api.Message;
+import com.github.resource.scheduler.api.RejectedMessageException;
 import com.github.resource.scheduler.api.Resource;
+import com.github.resource.scheduler.api.SendFailedException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -226,4 +255,1461 @@ public class ResourceSchedulerTest {
 
         org.junit.Assert.assertArrayEquals(expecteds, actuals);
     }
+
+    /**
+     * Test of receive method, of class ResourceScheduler. A termination
+     * message that had to be queued is still dispatched, and the group leaves
+     * the queue once it has drained.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testQueuedTerminationMessage() throws Exception {
+        System.out.println("receive termination message");
+        DefaultMessage msg1 = new DefaultMessage(1, 1);
+        DefaultMessage msg2 = new DefaultMessage(2, 2);
+        msg2.setTerminationMessage(true);
+
+        final ConcurrentLinkedDeque<DefaultMessage> completedMessages = new ConcurrentLinkedDeque<>();
+        msg1.addCompletedAction(() -> {
+            completedMessages.add(msg1);
+        });
+        msg2.addCompletedAction(() -> {
+            completedMessages.add(msg2);
+        });
+
+        instance.addResource(resource);
+        instance.receive(msg1);
+        instance.receive(msg2);
+        org.junit.Assert.assertEquals(1, queue.size());
+
+        // wait until all messages are processed
+        for (int i = 0; i < 5 && completedMessages.size() < 2; i++) {
+            Thread.sleep(1000L);
+        }
+
+        org.junit.Assert.assertArrayEquals(new Object[]{msg1, msg2}, completedMessages.toArray());
+        org.junit.Assert.assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Test of getLiveGroupCount method, of class ResourceScheduler. Cancelled
+     * and terminated groups are removed while late messages are rejected.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testGroupReclamation() throws Exception {
+        System.out.println("getLiveGroupCount");
+        DefaultMessage msg1 = new DefaultMessage(1, 1);
+        msg1.setTerminationMessage(true);
+        DefaultMessage msg2 = new DefaultMessage(2, 2);
+
+        instance.receive(msg1);
+        instance.receive(msg2);
+        org.junit.Assert.assertEquals(2, instance.getLiveGroupCount());
+
+        instance.cancelGroup(2);
+        org.junit.Assert.assertEquals(1, instance.getLiveGroupCount());
+        org.junit.Assert.assertEquals(1, instance.getTombstonedGroupCount());
+
+        instance.addResource(resource);
+        org.junit.Assert.assertEquals(0, instance.getLiveGroupCount());
+        org.junit.Assert.assertEquals(2, instance.getTombstonedGroupCount());
+
+        for (DefaultMessage late : new DefaultMessage[]{new DefaultMessage(3, 1), new DefaultMessage(4, 2)}) {
+            try {
+                instance.receive(late);
+                org.junit.Assert.fail("accepted " + late);
+            } catch (Exception expected) {
+            }
+        }
+        org.junit.Assert.assertEquals(0, instance.getLiveGroupCount());
+    }
+
+    /**
+     * Test of receiveAll method, of class ResourceScheduler. Rejected messages
+     * are reported individually while the rest of the batch is processed in
+     * group order.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testReceiveAll() throws Exception {
+        System.out.println("receiveAll");
+        DefaultMessage msg1 = new DefaultMessage(1, 1);
+        DefaultMessage msg2 = new DefaultMessage(2, 2);
+        DefaultMessage msg3 = new DefaultMessage(3, 1);
+        msg3.setTerminationMessage(true);
+        DefaultMessage msg4 = new DefaultMessage(4, 1);
+        DefaultMessage msg5 = new DefaultMessage(5, 3);
+        DefaultMessage msg6 = new DefaultMessage(6, 1);
+
+        final ConcurrentLinkedDeque<DefaultMessage> completedMessages = new ConcurrentLinkedDeque<>();
+        for (DefaultMessage msg : new DefaultMessage[]{msg1, msg2, msg3, msg4, msg5}) {
+            msg.addCompletedAction(() -> {
+                completedMessages.add(msg);
+            });
+        }
+
+        instance.cancelGroup(3);
+        instance.addResource(new DefaultResource(0L));
+        Map<Message, Exception> rejected = instance.receiveAll(Arrays.asList(msg1, msg2, msg3, msg4, msg5));
+
+        org.junit.Assert.assertArrayEquals(new Object[]{msg4, msg5}, rejected.keySet().toArray());
+
+        // wait until all accepted messages are processed
+        for (int i = 0; i < 50 && completedMessages.size() < 3; i++) {
+            Thread.sleep(100L);
+        }
+        org.junit.Assert.assertEquals(3, completedMessages.size());
+        org.junit.Assert.assertTrue(completedMessages.contains(msg2));
+        completedMessages.remove(msg2);
+        org.junit.Assert.assertArrayEquals(new Object[]{msg1, msg3}, completedMessages.toArray());
+
+        rejected = instance.receiveAll(Arrays.asList(msg6));
+        org.junit.Assert.assertEquals(1, rejected.size());
+    }
+
+    /**
+     * Test of receiveAll method, of class ResourceScheduler. A termination
+     * message that does not fit in the queue does not close its group, the
+     * messages after it are rejected for the same reason.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testReceiveAllTerminationNotAdmitted() throws Exception {
+        System.out.println("receiveAll termination not admitted");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setMaxQueuedMessagesPerGroup(1);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        try {
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            DefaultMessage msg2 = new DefaultMessage(2, 1);
+            msg2.setTerminationMessage(true);
+            DefaultMessage msg3 = new DefaultMessage(3, 1);
+            Map<Message, Exception> rejected = scheduler.receiveAll(Arrays.asList(msg1, msg2, msg3));
+            org.junit.Assert.assertArrayEquals(new Object[]{msg2, msg3}, rejected.keySet().toArray());
+            for (Exception rejection : rejected.values()) {
+                org.junit.Assert.assertEquals(AdmissionStatus.GROUP_FULL, ((RejectedMessageException) rejection).getStatus());
+            }
+
+            ManualResource resource = new ManualResource();
+            scheduler.addResource(resource);
+            DefaultMessage msg4 = new DefaultMessage(4, 1);
+            msg4.setTerminationMessage(true);
+            org.junit.Assert.assertEquals(AdmissionStatus.ACCEPTED, scheduler.tryReceive(msg4));
+            org.junit.Assert.assertEquals(AdmissionStatus.GROUP_CLOSED, scheduler.tryReceive(new DefaultMessage(5, 1)));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of receive method, of class ResourceScheduler, with a resource that
+     * accepts batches. Each batch holds consecutive messages of one group.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testBatchGateway() throws Exception {
+        System.out.println("receive batches");
+        final ConcurrentLinkedDeque<DefaultMessage> completedMessages = new ConcurrentLinkedDeque<>();
+        List<DefaultMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            DefaultMessage msg = new DefaultMessage(i, i < 10 ? 1 : 2);
+            msg.addCompletedAction(() -> {
+                completedMessages.add(msg);
+            });
+            messages.add(msg);
+            instance.receive(msg);
+        }
+        BatchResource batchResource = new BatchResource(4);
+        instance.addResource(batchResource);
+
+        for (int i = 0; i < 50 && completedMessages.size() < messages.size(); i++) {
+            Thread.sleep(100L);
+        }
+
+        org.junit.Assert.assertArrayEquals(messages.toArray(), completedMessages.toArray());
+        org.junit.Assert.assertEquals(Arrays.asList(4, 4, 2, 4, 1), batchResource.batchSizes);
+    }
+
+    /**
+     * Test of receive method, of class ResourceScheduler, dispatching to a
+     * non-blocking gateway on the calling thread. Sends completing
+     * synchronously must not nest.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testNonBlockingDispatch() throws Exception {
+        System.out.println("receive non-blocking");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        try {
+            final ConcurrentLinkedDeque<DefaultMessage> completedMessages = new ConcurrentLinkedDeque<>();
+            List<DefaultMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 100000; i++) {
+                DefaultMessage msg = new DefaultMessage(i, 1);
+                msg.addCompletedAction(() -> {
+                    completedMessages.add(msg);
+                });
+                messages.add(msg);
+                scheduler.receive(msg);
+            }
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertArrayEquals(messages.toArray(), completedMessages.toArray());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of setGroupPriority method, of class ResourceScheduler, with a
+     * priority queue. Groups with a higher priority are processed first.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testGroupPriority() throws Exception {
+        System.out.println("setGroupPriority");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ResourceScheduler scheduler = new ResourceScheduler(new PriorityGroupQueue(), new LinkedList<>(), config);
+        try {
+            final ConcurrentLinkedDeque<DefaultMessage> completedMessages = new ConcurrentLinkedDeque<>();
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            DefaultMessage msg2 = new DefaultMessage(2, 2);
+            DefaultMessage msg3 = new DefaultMessage(3, 3);
+            DefaultMessage msg4 = new DefaultMessage(4, 1);
+            DefaultMessage msg5 = new DefaultMessage(5, 2);
+            msg5.setPriority(5);
+            DefaultMessage msg6 = new DefaultMessage(6, 3);
+            for (DefaultMessage msg : new DefaultMessage[]{msg1, msg2, msg3, msg4, msg5, msg6}) {
+                msg.addCompletedAction(() -> {
+                    completedMessages.add(msg);
+                });
+                scheduler.receive(msg);
+            }
+            scheduler.setGroupPriority(3, 9);
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertArrayEquals(new Object[]{msg3, msg6, msg2, msg5, msg1, msg4}, completedMessages.toArray());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of setGroupWeight method, of class ResourceScheduler, with a fair
+     * share queue. The groups take turns in proportion to their weights.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testFairShare() throws Exception {
+        System.out.println("setGroupWeight");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ResourceScheduler scheduler = new ResourceScheduler(new FairShareGroupQueue(2), new LinkedList<>(), config);
+        try {
+            final StringBuffer completedGroups = new StringBuffer();
+            for (int i = 0; i < 12; i++) {
+                DefaultMessage msg = new DefaultMessage(i, i < 6 ? 1 : 2);
+                msg.addCompletedAction(() -> {
+                    completedGroups.append(msg.getGroupId());
+                });
+                scheduler.receive(msg);
+            }
+            scheduler.setGroupWeight(2, 2);
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertEquals("112222112211", completedGroups.toString());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the cap on consecutive messages of class ResourceScheduler. With
+     * a plain queue the group of a capped resource goes to the back.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testMaxConsecutiveMessages() throws Exception {
+        System.out.println("maxConsecutiveMessages");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setMaxConsecutiveMessages(3);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        try {
+            final StringBuffer completedGroups = new StringBuffer();
+            for (int i = 0; i < 8; i++) {
+                DefaultMessage msg = new DefaultMessage(i, i < 6 ? 1 : 2);
+                msg.addCompletedAction(() -> {
+                    completedGroups.append(msg.getGroupId());
+                });
+                scheduler.receive(msg);
+            }
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertEquals("11122111", completedGroups.toString());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of a sharded ResourceScheduler. The messages of each group keep
+     * their order and a single resource steals the groups of every shard.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testShards() throws Exception {
+        System.out.println("shards");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setShards(4);
+        try {
+            new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+            org.junit.Assert.fail("a single queue accepted for several shards");
+        } catch (Exception ex) {
+            LOG.info(ex.getMessage());
+        }
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ResourceScheduler scheduler = new ResourceScheduler(ConcurrentLinkedDeque::new, new LinkedList<>(), config);
+        try {
+            final Map<Long, List<Integer>> completed = new ConcurrentHashMap<>();
+            List<DefaultMessage> messages = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                DefaultMessage msg = new DefaultMessage(i, i % 40);
+                msg.setTerminationMessage(i >= 360);
+                msg.addCompletedAction(() -> {
+                    completed.computeIfAbsent(msg.getGroupId(), (groupId) -> new CopyOnWriteArrayList<>()).add(msg.getId());
+                });
+                messages.add(msg);
+            }
+            org.junit.Assert.assertTrue(scheduler.receiveAll(messages).isEmpty());
+            org.junit.Assert.assertEquals(400, scheduler.getQueuedMessageCount());
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertEquals(40, completed.size());
+            for (Map.Entry<Long, List<Integer>> entry : completed.entrySet()) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = entry.getKey().intValue(); i < 400; i += 40) {
+                    expected.add(i);
+                }
+                org.junit.Assert.assertEquals(expected, entry.getValue());
+            }
+            org.junit.Assert.assertEquals(0, scheduler.getLiveGroupCount());
+            try {
+                scheduler.receive(new DefaultMessage(400, 0));
+                org.junit.Assert.fail("message of a terminated group accepted");
+            } catch (Exception ex) {
+                LOG.info(ex.getMessage());
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the resource affinity of class ResourceScheduler. A group
+     * prefers the resource that processed its previous message, a removed
+     * resource is marked as removed.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testResourceAffinity() throws Exception {
+        System.out.println("resource affinity");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setResourceAffinity(true);
+        ManualResource first = new ManualResource();
+        ManualResource second = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(first, second)), config);
+        try {
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            DefaultMessage msg2 = new DefaultMessage(2, 2);
+            DefaultMessage msg3 = new DefaultMessage(3, 1);
+            scheduler.receive(msg1);
+            scheduler.receive(msg2);
+            ManualResource affine = first.sent.contains(msg1) ? first : second;
+            ManualResource other = affine == first ? second : first;
+            // the other resource is released last, so it would be taken next
+            affine.complete();
+            other.complete();
+            scheduler.receive(msg3);
+            org.junit.Assert.assertTrue(affine.sent.contains(msg3));
+
+            scheduler.removeResource(first);
+            org.junit.Assert.assertTrue(first.isRemoved());
+            try {
+                scheduler.addResource(first);
+                org.junit.Assert.fail("removed resource added again");
+            } catch (Exception ex) {
+                LOG.info(ex.getMessage());
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the resource capacity of class ResourceScheduler. A resource
+     * is sent as many messages at the same time as it has permits, and its
+     * capacity can be changed at runtime.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testResourceCapacity() throws Exception {
+        System.out.println("resource capacity");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource resource = new ManualResource(3);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(resource)), config);
+        try {
+            for (int i = 1; i <= 5; i++) {
+                scheduler.receive(new DefaultMessage(i, i));
+            }
+            org.junit.Assert.assertEquals(3, scheduler.getResourceCapacity(resource));
+            org.junit.Assert.assertEquals(3, resource.sent.size());
+            org.junit.Assert.assertEquals(3, scheduler.getInFlightCount(resource));
+
+            scheduler.setResourceCapacity(resource, 5);
+            org.junit.Assert.assertEquals(5, resource.sent.size());
+            org.junit.Assert.assertEquals(5, scheduler.getInFlightCount(resource));
+
+            scheduler.setResourceCapacity(resource, 2);
+            for (int i = 6; i <= 8; i++) {
+                scheduler.receive(new DefaultMessage(i, i));
+            }
+            org.junit.Assert.assertEquals(5, resource.sent.size());
+            resource.complete();
+            org.junit.Assert.assertEquals(7, resource.sent.size());
+            org.junit.Assert.assertEquals(2, scheduler.getInFlightCount(resource));
+            resource.complete();
+            org.junit.Assert.assertEquals(8, resource.sent.size());
+            org.junit.Assert.assertEquals(1, scheduler.getInFlightCount(resource));
+            resource.complete();
+            org.junit.Assert.assertEquals(0, scheduler.getInFlightCount(resource));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the per group ordering of class ResourceScheduler. A group has
+     * one message in flight at a time unless it allows more.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testGroupMaxInFlight() throws Exception {
+        System.out.println("group max in flight");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource first = new ManualResource();
+        ManualResource second = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(first, second)), config);
+        try {
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            DefaultMessage msg2 = new DefaultMessage(2, 1);
+            scheduler.receive(msg1);
+            scheduler.receive(msg2);
+            // the second resource is free but msg2 waits for msg1
+            org.junit.Assert.assertEquals(1, first.sent.size() + second.sent.size());
+            first.complete();
+            second.complete();
+            org.junit.Assert.assertEquals(2, first.sent.size() + second.sent.size());
+            first.complete();
+            second.complete();
+
+            scheduler.setGroupMaxInFlight(2, 2);
+            scheduler.receive(new DefaultMessage(3, 2));
+            scheduler.receive(new DefaultMessage(4, 2));
+            org.junit.Assert.assertEquals(1, first.pending.size());
+            org.junit.Assert.assertEquals(1, second.pending.size());
+            first.complete();
+            second.complete();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the bounded admission of class ResourceScheduler. Messages
+     * beyond the group and total bounds are rejected, and demand resumes once
+     * the queue has dropped to its low watermark.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testBoundedAdmission() throws Exception {
+        System.out.println("bounded admission");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setMaxQueuedMessages(3);
+        config.setMaxQueuedMessagesPerGroup(2);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        try {
+            AtomicInteger resumed = new AtomicInteger();
+            scheduler.addDemandListener(resumed::incrementAndGet);
+            scheduler.receive(new DefaultMessage(1, 1));
+            scheduler.receive(new DefaultMessage(2, 1));
+            try {
+                scheduler.receive(new DefaultMessage(3, 1));
+                org.junit.Assert.fail("group bound exceeded");
+            } catch (RejectedMessageException ex) {
+                org.junit.Assert.assertEquals(AdmissionStatus.GROUP_FULL, ex.getStatus());
+            }
+            org.junit.Assert.assertEquals(AdmissionStatus.ACCEPTED, scheduler.tryReceive(new DefaultMessage(4, 2)));
+            org.junit.Assert.assertEquals(AdmissionStatus.QUEUE_FULL, scheduler.tryReceive(new DefaultMessage(5, 3)));
+            org.junit.Assert.assertTrue(scheduler.getMetrics().isThrottled());
+            org.junit.Assert.assertEquals(0, scheduler.getDemand());
+            org.junit.Assert.assertEquals(3, scheduler.getMetrics().getQueueHighWatermark());
+            org.junit.Assert.assertEquals(2, scheduler.getMetrics().getQueueLowWatermark());
+
+            // dispatching one message drops the queue to the low watermark
+            scheduler.addResource(new ManualResource());
+            org.junit.Assert.assertEquals(1, resumed.get());
+            org.junit.Assert.assertFalse(scheduler.getMetrics().isThrottled());
+            org.junit.Assert.assertEquals(1, scheduler.getDemand());
+            org.junit.Assert.assertEquals(3, scheduler.getMetrics().getPeakQueuedMessageCount());
+            org.junit.Assert.assertEquals(1, scheduler.getMetrics().getThrottledCount());
+            org.junit.Assert.assertEquals(2, scheduler.getMetrics().getRejectedCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the blocking admission of class ResourceScheduler. A producer
+     * waits for room and gives up after the admission timeout.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testBlockingAdmission() throws Exception {
+        System.out.println("blocking admission");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setMaxQueuedMessages(1);
+        config.setAdmissionMode(AdmissionMode.BLOCK);
+        config.setAdmissionTimeoutMillis(100);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        try {
+            scheduler.receive(new DefaultMessage(1, 1));
+            long start = System.nanoTime();
+            try {
+                scheduler.receive(new DefaultMessage(2, 2));
+                org.junit.Assert.fail("queue bound exceeded");
+            } catch (RejectedMessageException ex) {
+                org.junit.Assert.assertEquals(AdmissionStatus.QUEUE_FULL, ex.getStatus());
+            }
+            org.junit.Assert.assertTrue(System.nanoTime() - start >= 100000000L);
+
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread producer = new Thread(() -> {
+                try {
+                    scheduler.receive(new DefaultMessage(3, 3));
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+            });
+            producer.start();
+            Thread.sleep(20);
+            scheduler.addResource(new ManualResource());
+            producer.join(1000);
+            org.junit.Assert.assertNull(failure.get());
+            org.junit.Assert.assertEquals(1, scheduler.getQueuedMessageCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the Flow adapters of class ResourceScheduler, the ingest
+     * subscriber only requests what the scheduler can take and the completion
+     * publisher delivers an event per completed message.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testFlowAdapters() throws Exception {
+        System.out.println("flow adapters");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource resource = new ManualResource(2);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+        try {
+            List<CompletionEvent> events = new CopyOnWriteArrayList<>();
+            CountDownLatch completed = new CountDownLatch(2);
+            scheduler.getCompletions().subscribe(new Flow.Subscriber<List<CompletionEvent>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(List<CompletionEvent> batch) {
+                    events.addAll(batch);
+                    for (int i = 0; i < batch.size(); i++) {
+                        completed.countDown();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            AtomicLong requested = new AtomicLong();
+            SchedulerSubscriber subscriber = new SchedulerSubscriber(scheduler, 4);
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            int delivered = 0;
+            while (delivered < requested.get() && delivered < 100) {
+                subscriber.onNext(new DefaultMessage(delivered, delivered));
+                delivered++;
+            }
+            org.junit.Assert.assertTrue(delivered < 100);
+            org.junit.Assert.assertEquals(delivered, requested.get());
+            org.junit.Assert.assertEquals(2, resource.sent.size());
+            org.junit.Assert.assertTrue(scheduler.getQueuedMessageCount() <= 4);
+            org.junit.Assert.assertEquals(0, scheduler.getIdleCapacity());
+
+            // the completions make room, more messages are requested
+            resource.complete();
+            org.junit.Assert.assertTrue(requested.get() > delivered);
+            org.junit.Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+            org.junit.Assert.assertEquals(0, events.get(0).getGroupId());
+            org.junit.Assert.assertSame(resource, events.get(0).getResource());
+            org.junit.Assert.assertTrue(events.get(0).getLatencyNanos() >= 0);
+            org.junit.Assert.assertEquals(0, subscriber.getRejectedCount());
+
+            subscriber.onComplete();
+            org.junit.Assert.assertTrue(subscriber.isDone());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the journal of class ResourceScheduler, the queued messages and
+     * closed groups are restored by a new scheduler.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testJournalRecovery() throws Exception {
+        System.out.println("journal recovery");
+        Path directory = Files.createTempDirectory("journal");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setJournalDirectory(directory.toString());
+        try {
+            ManualResource resource = new ManualResource();
+            ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+            DefaultMessage last = new DefaultMessage(1, 1);
+            last.setTerminationMessage(true);
+            scheduler.receive(last);
+            resource.complete();
+            scheduler.receive(new DefaultMessage(2, 2));
+            scheduler.receive(new DefaultMessage(3, 2));
+            scheduler.receive(new DefaultMessage(4, 3));
+            scheduler.receive(new DefaultMessage(5, 4));
+            scheduler.cancelGroup(4);
+            // message 2 is in flight when the scheduler stops
+            org.junit.Assert.assertEquals(2, resource.sent.size());
+            scheduler.shutdown();
+
+            resource = new ManualResource();
+            scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+            try {
+                org.junit.Assert.assertEquals(Arrays.asList(new DefaultMessage(2, 2)), resource.sent);
+                org.junit.Assert.assertEquals(2, scheduler.getQueuedMessageCount());
+                try {
+                    scheduler.receive(new DefaultMessage(6, 1));
+                    org.junit.Assert.fail("group 1 has terminated");
+                } catch (RejectedMessageException ex) {
+                    org.junit.Assert.assertEquals(AdmissionStatus.GROUP_CLOSED, ex.getStatus());
+                }
+                try {
+                    scheduler.receive(new DefaultMessage(7, 4));
+                    org.junit.Assert.fail("group 4 was cancelled");
+                } catch (RejectedMessageException ex) {
+                    org.junit.Assert.assertEquals(AdmissionStatus.GROUP_CLOSED, ex.getStatus());
+                }
+                for (int i = 0; i < 3; i++) {
+                    resource.complete();
+                }
+                org.junit.Assert.assertEquals(Arrays.asList(new DefaultMessage(2, 2), new DefaultMessage(3, 2), new DefaultMessage(4, 3)), resource.sent);
+            } finally {
+                scheduler.shutdown();
+            }
+
+            resource = new ManualResource();
+            scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+            scheduler.shutdown();
+            org.junit.Assert.assertTrue(resource.sent.isEmpty());
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Test of the journal of class ResourceScheduler with a message the
+     * serializer can not write. It is rejected with a status before it is
+     * admitted, the rest of a batch is admitted.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testJournalUnserializable() throws Exception {
+        System.out.println("journal unserializable");
+        Path directory = Files.createTempDirectory("journal");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setJournalDirectory(directory.toString());
+        try {
+            ManualResource resource = new ManualResource();
+            ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+            try {
+                org.junit.Assert.assertEquals(AdmissionStatus.UNSERIALIZABLE, scheduler.tryReceive(new PlainMessage(1)));
+                try {
+                    scheduler.receive(new PlainMessage(1));
+                    org.junit.Assert.fail("a message that can not be journaled was accepted");
+                } catch (RejectedMessageException ex) {
+                    org.junit.Assert.assertEquals(AdmissionStatus.UNSERIALIZABLE, ex.getStatus());
+                }
+                DefaultMessage msg1 = new DefaultMessage(1, 1);
+                PlainMessage plain = new PlainMessage(1);
+                DefaultMessage msg3 = new DefaultMessage(3, 1);
+                Map<Message, Exception> rejected = scheduler.receiveAll(Arrays.asList(msg1, plain, msg3));
+                org.junit.Assert.assertEquals(1, rejected.size());
+                org.junit.Assert.assertEquals(AdmissionStatus.UNSERIALIZABLE, ((RejectedMessageException) rejected.get(plain)).getStatus());
+                org.junit.Assert.assertEquals(Arrays.asList(msg1), resource.sent);
+                resource.complete();
+                org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3), resource.sent);
+                resource.complete();
+                org.junit.Assert.assertEquals(0, scheduler.getQueuedMessageCount());
+            } finally {
+                scheduler.shutdown();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Test of delayed and deadline-bound messages of class ResourceScheduler.
+     * A delayed message is sent once it is due, a message whose deadline
+     * passes while it is queued goes to the dead-letter sink.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testTimedMessages() throws Exception {
+        System.out.println("timed messages");
+        List<Message> expired = new CopyOnWriteArrayList<>();
+        CountDownLatch deadLettered = new CountDownLatch(2);
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setDeadLetterSink((message, reason) -> {
+            org.junit.Assert.assertEquals(DeadLetterReason.EXPIRED, reason);
+            expired.add(message);
+            deadLettered.countDown();
+        });
+        ManualResource resource = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+        try {
+            DefaultMessage delayed = new DefaultMessage(1, 1);
+            delayed.setNotBefore(System.currentTimeMillis() + 50);
+            scheduler.receive(delayed);
+            org.junit.Assert.assertTrue(resource.sent.isEmpty());
+            org.junit.Assert.assertEquals(1, scheduler.getDelayedMessageCount());
+            long deadline = System.currentTimeMillis() + 2000;
+            while (resource.sent.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(Arrays.asList(delayed), resource.sent);
+            org.junit.Assert.assertTrue(System.currentTimeMillis() >= delayed.getNotBefore());
+
+            DefaultMessage late = new DefaultMessage(2, 2);
+            late.setDeadline(System.currentTimeMillis() + 20);
+            scheduler.receive(late);
+            DefaultMessage next = new DefaultMessage(3, 3);
+            scheduler.receive(next);
+            DefaultMessage dead = new DefaultMessage(4, 4);
+            dead.setDeadline(System.currentTimeMillis() - 1);
+            scheduler.receive(dead);
+            Thread.sleep(40);
+            resource.complete();
+            org.junit.Assert.assertTrue(deadLettered.await(2, TimeUnit.SECONDS));
+            org.junit.Assert.assertEquals(Arrays.asList(delayed, next), resource.sent);
+            org.junit.Assert.assertTrue(expired.contains(late));
+            org.junit.Assert.assertTrue(expired.contains(dead));
+            org.junit.Assert.assertEquals(2, scheduler.getMetrics().getExpiredCount());
+            org.junit.Assert.assertEquals(0, scheduler.getQueuedMessageCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of delayed messages of class ResourceScheduler. A later message of
+     * the group is sent before a delayed one, the termination message is held
+     * back until the delayed message has been sent.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testTimedMessagesTermination() throws Exception {
+        System.out.println("timed messages termination");
+        ManualResource resource = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource));
+        try {
+            DefaultMessage delayed = new DefaultMessage(1, 1);
+            delayed.setNotBefore(System.currentTimeMillis() + 50);
+            DefaultMessage next = new DefaultMessage(2, 1);
+            DefaultMessage termination = new DefaultMessage(3, 1);
+            termination.setTerminationMessage(true);
+            scheduler.receive(delayed);
+            scheduler.receive(next);
+            scheduler.receive(termination);
+            org.junit.Assert.assertEquals(2, scheduler.getDelayedMessageCount());
+            long deadline = System.currentTimeMillis() + 2000;
+            while (resource.sent.size() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(Arrays.asList(next), resource.sent);
+            resource.complete();
+            Thread.sleep(20);
+            org.junit.Assert.assertEquals(Arrays.asList(next), resource.sent);
+            for (int sent = 2; sent <= 3; sent++) {
+                while (resource.sent.size() < sent && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                resource.complete();
+            }
+            org.junit.Assert.assertEquals(Arrays.asList(next, delayed, termination), resource.sent);
+            org.junit.Assert.assertEquals(0, scheduler.getDelayedMessageCount());
+            try {
+                scheduler.receive(new DefaultMessage(4, 1));
+                org.junit.Assert.fail("received after the termination message");
+            } catch (RejectedMessageException expected) {
+                org.junit.Assert.assertEquals(AdmissionStatus.GROUP_CLOSED, expected.getStatus());
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of delayed messages of class ResourceScheduler once it has been
+     * shut down. A message that would wait in the timing wheel goes to the
+     * dead-letter sink.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testTimedMessagesAfterShutdown() throws Exception {
+        System.out.println("timed messages after shutdown");
+        List<DeadLetterReason> reasons = new CopyOnWriteArrayList<>();
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDeadLetterSink((message, reason) -> reasons.add(reason));
+        ManualResource resource = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+        scheduler.shutdown();
+        DefaultMessage delayed = new DefaultMessage(1, 1);
+        delayed.setNotBefore(System.currentTimeMillis() + 50);
+        scheduler.receive(delayed);
+        org.junit.Assert.assertEquals(Arrays.asList(DeadLetterReason.REJECTED), reasons);
+        org.junit.Assert.assertEquals(0, scheduler.getDelayedMessageCount());
+        org.junit.Assert.assertTrue(resource.sent.isEmpty());
+    }
+
+    /**
+     * Test of cancelGroup method, of class ResourceScheduler. A group whose
+     * termination message is held back behind a delayed message can still be
+     * cancelled, neither message is sent.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testCancelDelayedTermination() throws Exception {
+        System.out.println("cancel delayed termination");
+        ManualResource resource = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource));
+        try {
+            DefaultMessage delayed = new DefaultMessage(1, 1);
+            delayed.setNotBefore(System.currentTimeMillis() + 50);
+            DefaultMessage termination = new DefaultMessage(2, 1);
+            termination.setTerminationMessage(true);
+            scheduler.receive(delayed);
+            scheduler.receive(termination);
+            org.junit.Assert.assertEquals(2, scheduler.getDelayedMessageCount());
+            scheduler.cancelGroup(1);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (scheduler.getDelayedMessageCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(0, scheduler.getDelayedMessageCount());
+            Thread.sleep(20);
+            org.junit.Assert.assertTrue(resource.sent.isEmpty());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of failed sends. A retryable failure is retried with backoff while
+     * the group keeps its order, the message is dead-lettered once its
+     * retries are exhausted, a permanent failure is not retried, the breaker
+     * takes the resource out of rotation and a probe brings it back. No
+     * permit is lost.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testFailureHandling() throws Exception {
+        System.out.println("failure handling");
+        Map<Message, DeadLetterReason> deadLetters = new ConcurrentHashMap<>();
+        CountDownLatch exhausted = new CountDownLatch(1);
+        CountDownLatch failed = new CountDownLatch(1);
+        SchedulerConfig config = new SchedulerConfig();
+        config.setMaxRetries(2);
+        config.setRetryBackoffMillis(5);
+        config.setMaxRetryBackoffMillis(20);
+        config.setCircuitWindow(4);
+        config.setCircuitFailureThreshold(3);
+        config.setCircuitOpenMillis(300);
+        config.setDeadLetterSink((message, reason) -> {
+            deadLetters.put(message, reason);
+            (reason == DeadLetterReason.FAILED ? failed : exhausted).countDown();
+        });
+        AtomicInteger failing = new AtomicInteger(1);
+        List<Message> sent = new CopyOnWriteArrayList<>();
+        Resource resource = new DefaultResource(0) {
+
+            @Override
+            public int getCapacity() {
+                return 2;
+            }
+
+            @Override
+            public void send(Message msg) {
+                sent.add(msg);
+                if (((DefaultMessage) msg).getId() == 3) {
+                    throw new SendFailedException("malformed " + msg, false);
+                }
+                if (failing.get() == 1) {
+                    throw new IllegalStateException("unavailable");
+                }
+                msg.completed();
+            }
+        };
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+        try {
+            DefaultMessage first = new DefaultMessage(1, 1);
+            DefaultMessage second = new DefaultMessage(2, 1);
+            scheduler.receive(first);
+            scheduler.receive(second);
+            org.junit.Assert.assertTrue(exhausted.await(2, TimeUnit.SECONDS));
+            org.junit.Assert.assertEquals(DeadLetterReason.RETRIES_EXHAUSTED, deadLetters.get(first));
+            org.junit.Assert.assertEquals(3, first.getAttempts());
+            // the second message of the group waited for the retries
+            org.junit.Assert.assertEquals(Arrays.asList(first, first, first), sent);
+            long deadline = System.currentTimeMillis() + 2000;
+            // the free permit is taken out of rotation too
+            while ((scheduler.getOpenCircuitCount() == 0 || scheduler.getIdleCapacity() > 0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            org.junit.Assert.assertEquals(1, scheduler.getOpenCircuitCount());
+            org.junit.Assert.assertEquals(0, scheduler.getIdleCapacity());
+
+            failing.set(0);
+            deadline = System.currentTimeMillis() + 2000;
+            while (scheduler.getOpenCircuitCount() == 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(0, scheduler.getOpenCircuitCount());
+            org.junit.Assert.assertEquals(Arrays.asList(first, first, first, second), sent);
+
+            DefaultMessage malformed = new DefaultMessage(3, 2);
+            scheduler.receive(malformed);
+            org.junit.Assert.assertTrue(failed.await(2, TimeUnit.SECONDS));
+            org.junit.Assert.assertEquals(DeadLetterReason.FAILED, deadLetters.get(malformed));
+            org.junit.Assert.assertEquals(1, malformed.getAttempts());
+
+            deadline = System.currentTimeMillis() + 2000;
+            while (scheduler.getIdleCapacity() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(2, scheduler.getIdleCapacity());
+            org.junit.Assert.assertEquals(0, scheduler.getInFlightCount(resource));
+            org.junit.Assert.assertEquals(2, scheduler.getMetrics().getRetriedCount());
+            org.junit.Assert.assertEquals(2, scheduler.getMetrics().getFailedCount());
+            org.junit.Assert.assertEquals(1, scheduler.getMetrics().getCompletedCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * A non-blocking resource whose sends complete when the test completes
+     * them.
+     */
+    /**
+     * Test of the capability routing of class ResourceScheduler. A message is
+     * only sent to a resource whose capabilities include its requirements, a
+     * message no resource satisfies waits until one is added.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testCapabilityRouting() throws Exception {
+        System.out.println("capability routing");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource eu = new ManualResource();
+        eu.setCapabilities(new java.util.HashSet<>(Arrays.asList("eu", "v2")));
+        ManualResource plain = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(eu, plain)), config);
+        try {
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            msg1.setRequirements(new java.util.HashSet<>(Arrays.asList("v2", "eu")));
+            DefaultMessage msg2 = new DefaultMessage(2, 2);
+            msg2.setRequirements(java.util.Collections.singleton("v2"));
+            DefaultMessage msg3 = new DefaultMessage(3, 3);
+            DefaultMessage msg4 = new DefaultMessage(4, 4);
+            msg4.setRequirements(java.util.Collections.singleton("us"));
+            scheduler.receive(msg1);
+            scheduler.receive(msg2);
+            scheduler.receive(msg3);
+            scheduler.receive(msg4);
+            org.junit.Assert.assertEquals(Arrays.asList(msg1), eu.sent);
+            // the plain resource takes the message without requirements only
+            org.junit.Assert.assertEquals(Arrays.asList(msg3), plain.sent);
+            org.junit.Assert.assertEquals(2, scheduler.getQueuedMessageCount());
+
+            plain.complete();
+            org.junit.Assert.assertEquals(1, plain.sent.size());
+            eu.complete();
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg2), eu.sent);
+
+            ManualResource us = new ManualResource();
+            us.setCapabilities(java.util.Collections.singleton("us"));
+            scheduler.addResource(us);
+            org.junit.Assert.assertEquals(Arrays.asList(msg4), us.sent);
+            org.junit.Assert.assertEquals(0, scheduler.getQueuedMessageCount());
+            eu.complete();
+            us.complete();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of requirements beyond the capability classes of class
+     * ResourceScheduler. They are rejected with a status, as are requirements
+     * when the scheduler was given a queue of an unknown kind.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testUnsupportedRequirements() throws Exception {
+        System.out.println("unsupported requirements");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setMaxCapabilityClasses(1);
+        ManualResource resource = new ManualResource(10);
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), Arrays.asList(resource), config);
+        try {
+            // the classes are rounded up to 64, one for no requirements
+            for (int i = 1; i < 64; i++) {
+                DefaultMessage queued = new DefaultMessage(i, 100 + i);
+                queued.setRequirements(java.util.Collections.singleton("t" + i));
+                org.junit.Assert.assertEquals(AdmissionStatus.ACCEPTED, scheduler.tryReceive(queued));
+            }
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            msg1.setRequirements(java.util.Collections.singleton("v2"));
+            org.junit.Assert.assertEquals(AdmissionStatus.UNSUPPORTED_REQUIREMENTS, scheduler.tryReceive(msg1));
+            DefaultMessage msg2 = new DefaultMessage(2, 2);
+            msg2.setRequirements(java.util.Collections.singleton("v2"));
+            DefaultMessage msg3 = new DefaultMessage(3, 3);
+            Map<Message, Exception> rejected = scheduler.receiveAll(Arrays.asList(msg2, msg3));
+            org.junit.Assert.assertEquals(1, rejected.size());
+            org.junit.Assert.assertEquals(AdmissionStatus.UNSUPPORTED_REQUIREMENTS, ((RejectedMessageException) rejected.get(msg2)).getStatus());
+            org.junit.Assert.assertEquals(Arrays.asList(msg3), resource.sent);
+        } finally {
+            scheduler.shutdown();
+        }
+
+        ManualResource other = new ManualResource(10);
+        other.setCapabilities(java.util.Collections.singleton("v2"));
+        scheduler = new ResourceScheduler(new LinkedList<>(), Arrays.asList(other), config);
+        try {
+            DefaultMessage msg4 = new DefaultMessage(4, 4);
+            msg4.setRequirements(java.util.Collections.singleton("v2"));
+            try {
+                scheduler.receive(msg4);
+                org.junit.Assert.fail("requirements ordered by another kind of queue");
+            } catch (RejectedMessageException expected) {
+                org.junit.Assert.assertEquals(AdmissionStatus.UNSUPPORTED_REQUIREMENTS, expected.getStatus());
+            }
+            DefaultMessage msg5 = new DefaultMessage(5, 5);
+            scheduler.receive(msg5);
+            org.junit.Assert.assertEquals(Arrays.asList(msg5), other.sent);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the rate limits of class ResourceScheduler. A resource out of
+     * tokens waits on a timer while another resource takes the queued
+     * message, and a group out of tokens leaves the queue while the resource
+     * continues with another group.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testRateLimits() throws Exception {
+        System.out.println("rate limits");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource limited = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(limited)), config);
+        try {
+            scheduler.setResourceRateLimit(limited, 10, 1);
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            DefaultMessage msg2 = new DefaultMessage(2, 2);
+            DefaultMessage msg3 = new DefaultMessage(3, 3);
+            long first = System.currentTimeMillis();
+            scheduler.receive(msg1);
+            scheduler.receive(msg2);
+            limited.complete();
+            // the next token is 100 ms away, the permit waits on a timer
+            org.junit.Assert.assertEquals(Arrays.asList(msg1), limited.sent);
+            org.junit.Assert.assertEquals(1, scheduler.getMetrics().getResourceThrottleCount());
+            ManualResource other = new ManualResource();
+            scheduler.addResource(other);
+            org.junit.Assert.assertEquals(Arrays.asList(msg2), other.sent);
+
+            scheduler.receive(msg3);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (limited.sent.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3), limited.sent);
+            org.junit.Assert.assertTrue(System.currentTimeMillis() - first >= 90);
+            limited.complete();
+            other.complete();
+
+            scheduler.setResourceRateLimit(limited, 0, 1);
+            scheduler.setGroupRateLimit(4, 10, 1);
+            scheduler.removeResource(other);
+            // the permit that completed msg3 waits for its timer
+            deadline = System.currentTimeMillis() + 2000;
+            while (scheduler.getIdleCapacity() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            DefaultMessage a1 = new DefaultMessage(4, 4);
+            DefaultMessage a2 = new DefaultMessage(5, 4);
+            DefaultMessage b1 = new DefaultMessage(6, 5);
+            DefaultMessage b2 = new DefaultMessage(7, 5);
+            first = System.currentTimeMillis();
+            scheduler.receive(a1);
+            scheduler.receive(a2);
+            scheduler.receive(b1);
+            scheduler.receive(b2);
+            limited.complete();
+            // the group is out of tokens, the resource continues with another
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3, a1, b1), limited.sent);
+            org.junit.Assert.assertEquals(1, scheduler.getMetrics().getGroupThrottleCount());
+            limited.complete();
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3, a1, b1, b2), limited.sent);
+            limited.complete();
+            deadline = System.currentTimeMillis() + 2000;
+            while (limited.sent.size() < 6 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3, a1, b1, b2, a2), limited.sent);
+            org.junit.Assert.assertTrue(System.currentTimeMillis() - first >= 90);
+            limited.complete();
+            org.junit.Assert.assertEquals(0, scheduler.getQueuedMessageCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Test of the coalescing of class ResourceScheduler. A waiting message is
+     * superseded by a later message of its group with the same key, which is
+     * sent in its own place, while a termination message is never coalesced.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        System.out.println("coalescing");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        ManualResource resource = new ManualResource();
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(Arrays.asList(resource)), config);
+        try {
+            List<String> outcomes = new CopyOnWriteArrayList<>();
+            List<Message> merged = new CopyOnWriteArrayList<>();
+            DefaultMessage msg1 = new DefaultMessage(1, 1);
+            msg1.setCoalesceKey("a");
+            DefaultMessage msg2 = new DefaultMessage(2, 1);
+            msg2.setCoalesceKey("a");
+            msg2.addCompletedAction(new com.github.resource.scheduler.api.Action() {
+                @Override
+                public void perform() {
+                    outcomes.add("completed");
+                }
+
+                @Override
+                public void coalesced(Message message, Message by) {
+                    outcomes.add(message + " coalesced by " + by);
+                }
+            });
+            DefaultMessage msg3 = new DefaultMessage(3, 1);
+            msg3.setCoalesceKey("b");
+            DefaultMessage msg4 = new DefaultMessage(4, 1) {
+                @Override
+                public void merge(Message superseded) {
+                    merged.add(superseded);
+                }
+            };
+            msg4.setCoalesceKey("a");
+            DefaultMessage msg5 = new DefaultMessage(5, 1);
+            msg5.setCoalesceKey("a");
+            msg5.setTerminationMessage(true);
+            DefaultMessage msg6 = new DefaultMessage(6, 1);
+            msg6.setCoalesceKey("a");
+            scheduler.receive(msg1);
+            scheduler.receive(msg2);
+            scheduler.receive(msg3);
+            scheduler.receive(msg4);
+            org.junit.Assert.assertEquals(Arrays.asList(msg2 + " coalesced by " + msg4), outcomes);
+            org.junit.Assert.assertEquals(Arrays.asList(msg2), merged);
+            org.junit.Assert.assertEquals(2, scheduler.getQueuedMessageCount());
+            org.junit.Assert.assertEquals(1, scheduler.getMetrics().getCoalescedCount());
+            scheduler.receive(msg5);
+            try {
+                scheduler.receive(msg6);
+                org.junit.Assert.fail("message after the termination message accepted");
+            } catch (Exception ex) {
+                LOG.info(ex.getMessage());
+            }
+            org.junit.Assert.assertEquals(3, scheduler.getQueuedMessageCount());
+            for (int i = 0; i < 4; i++) {
+                resource.complete();
+            }
+            // the superseded message is not sent, the others keep their order
+            org.junit.Assert.assertEquals(Arrays.asList(msg1, msg3, msg4, msg5), resource.sent);
+            org.junit.Assert.assertEquals(1, outcomes.size());
+            org.junit.Assert.assertEquals(0, scheduler.getQueuedMessageCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * A message of another class than {@link DefaultMessage}, which the
+     * default serializer does not write.
+     */
+    static class PlainMessage implements Message {
+
+        private final long groupId;
+        private Group group;
+
+        PlainMessage(long groupId) {
+            this.groupId = groupId;
+        }
+
+        @Override
+        public void completed() {
+        }
+
+        @Override
+        public boolean isTerminationMessage() {
+            return false;
+        }
+
+        @Override
+        public long getGroupId() {
+            return groupId;
+        }
+
+        @Override
+        public void addCompletedAction(com.github.resource.scheduler.api.Action action) {
+        }
+
+        @Override
+        public void setGroup(Group group) {
+            this.group = group;
+        }
+
+        @Override
+        public Group getGroup() {
+            return group;
+        }
+    }
+
+    static class ManualResource extends DefaultResource implements AsyncGateway {
+
+        final List<Message> sent = new CopyOnWriteArrayList<>();
+        private final List<CompletableFuture<Void>> pending = new CopyOnWriteArrayList<>();
+        private final int capacity;
+
+        ManualResource() {
+            this(1);
+        }
+
+        ManualResource(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public CompletionStage<Void> sendAsync(Message msg) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            sent.add(msg);
+            pending.add(future);
+            return future;
+        }
+
+        void complete() {
+            for (CompletableFuture<Void> future : pending) {
+                pending.remove(future);
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Test of the metrics of class ResourceScheduler, read directly and
+     * through JMX.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        System.out.println("metrics");
+        SchedulerConfig config = new SchedulerConfig();
+        config.setDispatchMode(DispatchMode.NON_BLOCKING);
+        config.setJmxName("testMetrics");
+        ResourceScheduler scheduler = new ResourceScheduler(new ConcurrentLinkedDeque<>(), new LinkedList<>(), config);
+        ObjectName name = new ObjectName("com.github.resource.scheduler:type=ResourceScheduler,name=\"testMetrics\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (int i = 0; i < 15; i++) {
+                scheduler.receive(new DefaultMessage(i, i < 10 ? 1 : 2));
+            }
+            scheduler.cancelGroup(3);
+            try {
+                scheduler.receive(new DefaultMessage(15, 3));
+                org.junit.Assert.fail("message of a cancelled group accepted");
+            } catch (Exception ex) {
+                LOG.info(ex.getMessage());
+            }
+            SchedulerMetrics metrics = scheduler.getMetrics();
+            org.junit.Assert.assertEquals(16, metrics.getReceivedCount());
+            org.junit.Assert.assertEquals(1, metrics.getRejectedCount());
+            org.junit.Assert.assertEquals(15, metrics.getQueuedMessageCount());
+            Map<Long, Integer> backlogs = metrics.getLargestGroupBacklogs();
+            org.junit.Assert.assertArrayEquals(new Object[]{1L, 2L}, backlogs.keySet().toArray());
+            org.junit.Assert.assertArrayEquals(new Object[]{10, 5}, backlogs.values().toArray());
+
+            scheduler.addResource(new AsyncResource());
+
+            org.junit.Assert.assertEquals(15, metrics.getDispatchedCount());
+            org.junit.Assert.assertEquals(15, metrics.getCompletedCount());
+            org.junit.Assert.assertEquals(15, metrics.getWaitTime().getCount());
+            org.junit.Assert.assertEquals(15, metrics.getSendTime().getCount());
+            org.junit.Assert.assertEquals(14, metrics.getDispatchGap().getCount());
+            org.junit.Assert.assertTrue(metrics.getQueueLockHoldTime().getCount() > 0);
+            org.junit.Assert.assertEquals(1, metrics.getResourceUtilisation().size());
+            org.junit.Assert.assertTrue(metrics.getLargestGroupBacklogs().isEmpty());
+
+            org.junit.Assert.assertEquals(15L, server.getAttribute(name, "CompletedCount"));
+            CompositeData waitTime = (CompositeData) server.getAttribute(name, "WaitTime");
+            org.junit.Assert.assertEquals(15L, waitTime.get("count"));
+        } finally {
+            scheduler.shutdown();
+        }
+        org.junit.Assert.assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * A non-blocking resource whose sends complete immediately.
+     */
+    private static class AsyncResource extends DefaultResource implements AsyncGateway {
+
+        @Override
+        public CompletionStage<Void> sendAsync(Message msg) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * A resource that accepts batches and completes them on the sending
+     * thread.
+     */
+    private static class BatchResource extends DefaultResource implements BatchGateway {
+
+        private final int maxBatchSize;
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        BatchResource(int maxBatchSize) {
+            super(0L);
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        @Override
+        public void send(List<Message> msgs) {
+            batchSizes.add(msgs.size());
+            msgs.stream().forEach((msg) -> {
+                msg.completed();
+            });
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.github.resource.scheduler;
+
+import com.github.resource.scheduler.api.Message;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Brighton
+ */
+public class TimingWheelTest {
+
+    private TimingWheel<Message> wheel;
+
+    @After
+    public void tearDown() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * Test of schedule method, of class TimingWheel. Messages are due in the
+     * order of their times and never early.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testSchedule() throws Exception {
+        System.out.println("schedule");
+        List<Message> fired = new CopyOnWriteArrayList<>();
+        ConcurrentHashMap<Message, Long> late = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(4);
+        wheel = new TimingWheel<>(1, (message) -> {
+            late.put(message, System.currentTimeMillis() - message.getNotBefore());
+            fired.add(message);
+            done.countDown();
+        });
+        long now = System.currentTimeMillis();
+        // the last two are beyond the first level and are cascaded
+        DefaultMessage[] messages = new DefaultMessage[4];
+        long[] delays = {150, 20, 0, 90};
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new DefaultMessage(i, 1);
+            messages[i].setNotBefore(now + delays[i]);
+            wheel.schedule(messages[i], messages[i].getNotBefore());
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(messages[2], fired.get(0));
+        Assert.assertEquals(messages[1], fired.get(1));
+        Assert.assertEquals(messages[3], fired.get(2));
+        Assert.assertEquals(messages[0], fired.get(3));
+        for (long lateness : late.values()) {
+            Assert.assertTrue(lateness >= 0);
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Test of schedule method, of class TimingWheel, with many timers
+     * scheduled from several threads.
+     *
+     * @throws java.lang.Exception when an error occurs
+     */
+    @Test
+    public void testManyTimers() throws Exception {
+        System.out.println("many timers");
+        int count = 200000;
+        AtomicInteger early = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        wheel = new TimingWheel<>(1, (message) -> {
+            if (System.currentTimeMillis() < message.getNotBefore()) {
+                early.incrementAndGet();
+            }
+            done.countDown();
+        });
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < count / producers.length; i++) {
+                    DefaultMessage message = new DefaultMessage(i, i);
+                    message.setNotBefore(System.currentTimeMillis() + random.nextInt(300));
+                    wheel.schedule(message, message.getNotBefore());
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, early.get());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    /**
+     * Test of schedule method, of class TimingWheel, once the wheel has been
+     * stopped. The payload is dropped rather than the caller failing.
+     */
+    @Test
+    public void testScheduleStopped() {
+        System.out.println("schedule stopped");
+        List<Message> fired = new CopyOnWriteArrayList<>();
+        wheel = new TimingWheel<>(1, fired::add);
+        wheel.stop();
+        Assert.assertFalse(wheel.schedule(new DefaultMessage(1, 1), 0));
+        Assert.assertTrue(fired.isEmpty());
+    }
+}